@@ -5,33 +5,85 @@ import androidx.lifecycle.MutableLiveData;
 
 import com.dylanlxlx.instameasure.model.GpsData;
 import com.dylanlxlx.instameasure.model.TrajectoryPoint;
-import com.dylanlxlx.instameasure.utils.LocationUtils;
+import com.dylanlxlx.instameasure.utils.LocalTangentProjector;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * GPS数据仓库
  * 管理GPS定位数据及轨迹
+ * <p>
+ * 单写者模型：定位、清除、不可用都是提交给 {@link RepositoryActor} 的命令，原点和轨迹只在其线程上修改，
+ * 其他线程通过不可变的 {@link Snapshot} 读取最近的位置。
  */
 public class GpsRepository {
     private static volatile GpsRepository instance;
 
+    /**
+     * GPS状态的不可变快照
+     */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(0, 0, 0, 0, Collections.emptyList());
+
+        private final double latitude;
+        private final double longitude;
+        private final double localX;
+        private final double localY;
+        private final List<TrajectoryPoint> points;
+
+        Snapshot(double latitude, double longitude, double localX, double localY,
+                 List<TrajectoryPoint> points) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.localX = localX;
+            this.localY = localY;
+            this.points = points;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public double getLocalX() {
+            return localX;
+        }
+
+        public double getLocalY() {
+            return localY;
+        }
+
+        public List<TrajectoryPoint> getPoints() {
+            return points;
+        }
+    }
+
     // LiveData对象
     private final MutableLiveData<GpsData> currentGpsData = new MutableLiveData<>();
-    private final MutableLiveData<List<TrajectoryPoint>> gpsTrajectoryPoints = new MutableLiveData<>(new ArrayList<>());
+    private final MutableLiveData<List<TrajectoryPoint>> gpsTrajectoryPoints = new MutableLiveData<>(Collections.emptyList());
     private final MutableLiveData<Float> gpsAccuracy = new MutableLiveData<>(0f);
     private final MutableLiveData<Integer> satelliteCount = new MutableLiveData<>(0);
     private final MutableLiveData<Boolean> isGpsAvailable = new MutableLiveData<>(false);
 
-    // 最近的GPS轨迹点
-    private double lastLatitude = 0;
-    private double lastLongitude = 0;
+    // 最近发布的快照，任意线程可读
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    private final RepositoryActor actor = new RepositoryActor("GpsRepository");
+
+    // ---- 以下状态只在写线程上访问 ----
 
-    // 本地坐标系原点（首个GPS点作为原点）
-    private double originLatitude = 0;
-    private double originLongitude = 0;
-    private boolean hasOrigin = false;
+    // GPS轨迹点
+    private final List<TrajectoryPoint> points = new ArrayList<>();
+
+    // 本地坐标系原点（首个GPS点作为原点），只在定位没有携带本地坐标时使用
+    private LocalTangentProjector projector;
+    private final double[] local = new double[2];
 
     private GpsRepository() {
         // 私有构造函数
@@ -54,23 +106,21 @@ public class GpsRepository {
      * @param gpsData 新的GPS数据
      */
     public void updateGpsData(GpsData gpsData) {
-        currentGpsData.postValue(gpsData);
-
-        // 更新最近的经纬度
-        lastLatitude = gpsData.getLatitude();
-        lastLongitude = gpsData.getLongitude();
+        actor.tell(() -> {
+            currentGpsData.postValue(gpsData);
 
-        // 更新GPS精度和可用性
-        gpsAccuracy.postValue(gpsData.getAccuracy());
-        isGpsAvailable.postValue(true);
+            // 更新GPS精度和可用性
+            gpsAccuracy.postValue(gpsData.getAccuracy());
+            isGpsAvailable.postValue(true);
 
-        // 更新卫星数量（如果有）
-        if (gpsData.getSatelliteCount() > 0) {
-            satelliteCount.postValue(gpsData.getSatelliteCount());
-        }
+            // 更新卫星数量（如果有）
+            if (gpsData.getSatelliteCount() > 0) {
+                satelliteCount.postValue(gpsData.getSatelliteCount());
+            }
 
-        // 处理轨迹点
-        processGpsTrajectoryPoint(gpsData);
+            // 处理轨迹点
+            processGpsTrajectoryPoint(gpsData);
+        });
     }
 
     /**
@@ -79,41 +129,58 @@ public class GpsRepository {
      * @param gpsData GPS数据
      */
     private void processGpsTrajectoryPoint(GpsData gpsData) {
-        // 如果还没有设置原点，则将第一个点设为原点
-        if (!hasOrigin) {
-            originLatitude = gpsData.getLatitude();
-            originLongitude = gpsData.getLongitude();
-            hasOrigin = true;
-        }
-
-        // 将地理坐标（经纬度）转换为本地坐标（米）
-        double[] localCoords = LocationUtils.geoToLocalCoordinates(
-                gpsData.getLatitude(), gpsData.getLongitude(),
-                originLatitude, originLongitude);
-
-        // 添加轨迹点
-        List<TrajectoryPoint> points = gpsTrajectoryPoints.getValue();
-        if (points == null) {
-            points = new ArrayList<>();
+        // 定位处理时已经投影过的直接使用，否则以第一个点为原点投影
+        if (gpsData.hasLocalCoordinates()) {
+            local[0] = gpsData.getLocalX();
+            local[1] = gpsData.getLocalY();
+        } else {
+            if (projector == null) {
+                projector = new LocalTangentProjector(gpsData.getLatitude(), gpsData.getLongitude());
+            }
+            projector.toLocal(gpsData.getLatitude(), gpsData.getLongitude(), local);
         }
 
-        points.add(new TrajectoryPoint(localCoords[0], localCoords[1]));
-        gpsTrajectoryPoints.postValue(new ArrayList<>(points));
+        // 添加轨迹点并发布快照
+        points.add(new TrajectoryPoint(local[0], local[1]));
+        List<TrajectoryPoint> published = Collections.unmodifiableList(new ArrayList<>(points));
+        gpsTrajectoryPoints.postValue(published);
+        snapshot = new Snapshot(gpsData.getLatitude(), gpsData.getLongitude(),
+                local[0], local[1], published);
     }
 
     /**
      * 设置GPS不可用
      */
     public void setGpsUnavailable() {
-        isGpsAvailable.postValue(false);
+        actor.tell(() -> isGpsAvailable.postValue(false));
     }
 
     /**
      * 清除GPS轨迹点
      */
     public void clearGpsTrajectoryPoints() {
-        gpsTrajectoryPoints.postValue(new ArrayList<>());
-        hasOrigin = false;
+        actor.tell(() -> {
+            points.clear();
+            projector = null;
+            gpsTrajectoryPoints.postValue(Collections.emptyList());
+            Snapshot last = snapshot;
+            snapshot = new Snapshot(last.getLatitude(), last.getLongitude(), 0, 0, Collections.emptyList());
+        });
+    }
+
+    /**
+     * 等待之前提交的命令执行完毕
+     * @return 是否在超时前完成
+     */
+    boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        return actor.awaitIdle(timeout, unit);
+    }
+
+    /**
+     * 获取最近发布的GPS快照，可在任意线程调用
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
@@ -155,19 +222,16 @@ public class GpsRepository {
      * 获取最后一次位置的经纬度
      */
     public double[] getLastLocation() {
-        return new double[]{lastLatitude, lastLongitude};
+        Snapshot current = snapshot;
+        return new double[]{current.getLatitude(), current.getLongitude()};
     }
 
     /**
      * 获取最近GPS位置的本地坐标
-     * @return [x, y] 东北坐标(米)
+     * @return [x, y] 东北坐标(米)，如果没有GPS点则为原点
      */
     public double[] getLastLocalCoordinates() {
-        List<TrajectoryPoint> points = gpsTrajectoryPoints.getValue();
-        if (points != null && !points.isEmpty()) {
-            TrajectoryPoint last = points.get(points.size() - 1);
-            return new double[]{last.getX(), last.getY()};
-        }
-        return new double[]{0, 0}; // 如果没有GPS点，返回原点
+        Snapshot current = snapshot;
+        return new double[]{current.getLocalX(), current.getLocalY()};
     }
-}
\ No newline at end of file
+}
@@ -1,29 +1,117 @@
 package com.dylanlxlx.instameasure.data.repository;
 
+import android.os.SystemClock;
+
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import com.dylanlxlx.instameasure.model.StepEvent;
 import com.dylanlxlx.instameasure.model.TrajectoryPoint;
 import com.dylanlxlx.instameasure.utils.LocationFusionFilter;
 import com.dylanlxlx.instameasure.utils.TrajectoryOptimizer;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 位置和轨迹数据存储库
  * 管理面积测量的轨迹点
+ * <p>
+ * 单写者模型：步进、GPS定位、重置、闭合都是提交给 {@link RepositoryActor} 的命令，
+ * 轨迹状态只在其线程上读写，公开方法可以从任意线程调用且不会阻塞UI。
+ * 处理结果以不可变的 {@link Snapshot} 发布，队列中还有待处理的命令时跳过中间结果。
  */
 public class LocationRepository {
     private static volatile LocationRepository instance;
 
-    // 轨迹点LiveData
-    private final MutableLiveData<List<TrajectoryPoint>> trajectoryPoints = new MutableLiveData<>(new ArrayList<>());
-    private final MutableLiveData<List<TrajectoryPoint>> optimizedTrajectoryPoints = new MutableLiveData<>(new ArrayList<>());
+    /**
+     * 轨迹处理完成回调，在写线程上调用
+     */
+    public interface TrajectoryCallback {
+        void onTrajectoryFinished(List<TrajectoryPoint> points);
+    }
 
-    // 当前位置跟踪
-    private double currentX = 0.0;
-    private double currentY = 0.0;
+    /**
+     * 轨迹状态的不可变快照
+     */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(0, Collections.emptyList(), Collections.emptyList(),
+                0.0, 0.0, 0.0, 0.0, 0.0, "PDR");
+
+        private final int generation;
+
+        private final List<TrajectoryPoint> points;
+        private final List<TrajectoryPoint> optimizedPoints;
+        private final double length;
+        private final double x;
+        private final double y;
+        private final double accuracy;
+        private final double speed;
+        private final String mode;
+
+        Snapshot(int generation, List<TrajectoryPoint> points, List<TrajectoryPoint> optimizedPoints,
+                 double length, double x, double y, double accuracy, double speed, String mode) {
+            this.generation = generation;
+            this.points = points;
+            this.optimizedPoints = optimizedPoints;
+            this.length = length;
+            this.x = x;
+            this.y = y;
+            this.accuracy = accuracy;
+            this.speed = speed;
+            this.mode = mode;
+        }
+
+        /**
+         * 原始轨迹的代数，清除轨迹时加一
+         * 同一代的原始轨迹只在末尾追加点，消费者可以只处理新增的部分
+         */
+        public int getGeneration() {
+            return generation;
+        }
+
+        public List<TrajectoryPoint> getPoints() {
+            return points;
+        }
+
+        public List<TrajectoryPoint> getOptimizedPoints() {
+            return optimizedPoints;
+        }
+
+        public double getLength() {
+            return length;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getAccuracy() {
+            return accuracy;
+        }
+
+        /**
+         * 融合滤波器估计的步行速度(米/秒)
+         */
+        public double getSpeed() {
+            return speed;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+    }
+
+    // 轨迹点LiveData(发布的列表不可修改)
+    private final MutableLiveData<List<TrajectoryPoint>> trajectoryPoints = new MutableLiveData<>(Collections.emptyList());
+    private final MutableLiveData<List<TrajectoryPoint>> optimizedTrajectoryPoints = new MutableLiveData<>(Collections.emptyList());
+    private final MutableLiveData<Double> trajectoryLength = new MutableLiveData<>(0.0);
 
     // 定位精度(米)
     private final MutableLiveData<Double> locationAccuracy = new MutableLiveData<>(0.0);
@@ -31,6 +119,27 @@ public class LocationRepository {
     // 定位状态
     private final MutableLiveData<String> locatingMode = new MutableLiveData<>("PDR");
 
+    // 最近发布的快照，任意线程可读
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private final MutableLiveData<Snapshot> trajectorySnapshot = new MutableLiveData<>(Snapshot.EMPTY);
+
+    private final RepositoryActor actor = new RepositoryActor("LocationRepository");
+
+    // ---- 以下状态只在写线程上访问 ----
+
+    // 原始轨迹点
+    private final List<TrajectoryPoint> points = new ArrayList<>();
+    private double length = 0.0;
+    private boolean pointsChanged = false;
+    private int generation = 0;
+
+    // 当前位置跟踪
+    private double currentX = 0.0;
+    private double currentY = 0.0;
+    private double accuracy = 0.0;
+    private double speed = 0.0;
+    private String mode = "PDR";
+
     // 位置融合滤波器
     private final LocationFusionFilter fusionFilter = new LocationFusionFilter();
 
@@ -43,6 +152,12 @@ public class LocationRepository {
     // 轨迹点间隔距离(米)
     private static final double TRAJECTORY_POINT_MIN_DISTANCE = 0.3;
 
+    // 步伐间隔(秒)，用于融合滤波器的速度估计
+    private static final double DEFAULT_STEP_INTERVAL_S = 0.5;
+    private static final double MIN_STEP_INTERVAL_S = 0.2;
+    private static final double MAX_STEP_INTERVAL_S = 2.0;
+    private long lastStepTimestamp = 0;
+
     // 上次轨迹点
     private TrajectoryPoint lastTrajectoryPoint = null;
 
@@ -66,41 +181,10 @@ public class LocationRepository {
      * @param y Y坐标(North)
      */
     public void addTrajectoryPoint(double x, double y) {
-        List<TrajectoryPoint> points = trajectoryPoints.getValue();
-        if (points == null) {
-            points = new ArrayList<>();
-        }
-
-        // 检查与上个点的距离，避免过密点
-        if (lastTrajectoryPoint != null) {
-            double distance = Math.sqrt(
-                    Math.pow(x - lastTrajectoryPoint.getX(), 2) +
-                            Math.pow(y - lastTrajectoryPoint.getY(), 2)
-            );
-
-            // 如果距离太小且点数已经很多，跳过此点
-            if (distance < TRAJECTORY_POINT_MIN_DISTANCE && points.size() > 10) {
-                return;
-            }
-        }
-
-        // 创建新轨迹点
-        TrajectoryPoint newPoint = new TrajectoryPoint(x, y);
-        points.add(newPoint);
-        lastTrajectoryPoint = newPoint;
-
-        // 更新轨迹点列表
-        trajectoryPoints.postValue(new ArrayList<>(points));
-
-        // 优化轨迹点
-        updateOptimizedTrajectory(points);
-
-        // 更新当前位置
-        currentX = x;
-        currentY = y;
-
-        // 更新轨迹点更新时间
-        lastTrajectoryUpdateTime = System.currentTimeMillis();
+        actor.tell(() -> {
+            appendPoint(x, y);
+            publishIfIdle();
+        });
     }
 
     /**
@@ -109,25 +193,45 @@ public class LocationRepository {
      * @param orientation 方向(度，0=北，90=东)
      */
     public void addRelativePosition(float stepLength, float orientation) {
-        // 使用融合滤波器更新位置
-        fusionFilter.updateWithPdr(stepLength, orientation, 0.5);
-
-        // 获取更新后的位置
-        double[] position = fusionFilter.getPosition();
+        actor.tell(() -> {
+            // 使用融合滤波器更新位置
+            fusionFilter.updateWithPdr(stepLength, orientation, 0.5, SystemClock.elapsedRealtime());
+            updateFromFilter();
+
+            // 添加轨迹点
+            appendPoint(currentX, currentY);
+
+            // 设置定位模式
+            setMode("PDR");
+            publishIfIdle();
+        });
+    }
 
-        // 获取位置精度
-        double[] accuracy = fusionFilter.getAccuracy();
-        locationAccuracy.postValue((accuracy[0] + accuracy[1]) / 2.0);
+    /**
+     * 处理一个步伐事件
+     * 步伐之间的时间间隔取自事件时间戳，事件在处理后归还对象池
+     * @param event 步伐事件
+     */
+    public void addStep(StepEvent event) {
+        actor.tell(() -> {
+            double dt = DEFAULT_STEP_INTERVAL_S;
+            if (lastStepTimestamp > 0) {
+                dt = (event.getTimestamp() - lastStepTimestamp) / 1000.0;
+                dt = Math.max(MIN_STEP_INTERVAL_S, Math.min(MAX_STEP_INTERVAL_S, dt));
+            }
+            lastStepTimestamp = event.getTimestamp();
 
-        // 更新当前位置
-        currentX = position[0];
-        currentY = position[1];
+            fusionFilter.updateWithPdr(event.getStepLength(), event.getHeading(), dt,
+                    event.getTimestamp());
+            event.recycle();
+            updateFromFilter();
 
-        // 添加轨迹点
-        addTrajectoryPoint(currentX, currentY);
+            // 添加轨迹点
+            appendPoint(currentX, currentY);
 
-        // 设置定位模式
-        locatingMode.postValue("PDR");
+            setMode("PDR");
+            publishIfIdle();
+        });
     }
 
     /**
@@ -137,62 +241,216 @@ public class LocationRepository {
      * @param accuracy GPS精度(米)
      * @param speed GPS速度(米/秒)
      * @param bearing GPS方位角(度)
+     * @param timestamp 定位时间(毫秒，开机时间基准)，晚于定位到达的步伐会在该时刻之后重新推算
      */
-    public void updateWithGps(double gpsX, double gpsY, double accuracy, double speed, double bearing) {
-        // 使用融合滤波器更新位置
-        fusionFilter.updateWithGps(gpsX, gpsY, accuracy, speed, bearing);
+    public void updateWithGps(double gpsX, double gpsY, double accuracy, double speed, double bearing,
+                              long timestamp) {
+        actor.tell(() -> {
+            // 使用融合滤波器更新位置，过旧的定位被丢弃，但仍要发布之前合并掉的步进
+            if (!fusionFilter.updateWithGps(gpsX, gpsY, accuracy, speed, bearing, timestamp)) {
+                publishIfIdle();
+                return;
+            }
+            updateFromFilter();
 
-        // 获取更新后的位置
-        double[] position = fusionFilter.getPosition();
+            // 添加轨迹点(如果间隔足够)
+            long now = System.currentTimeMillis();
+            if (now - lastTrajectoryUpdateTime > 1000) {  // 至少1秒间隔
+                appendPoint(currentX, currentY);
+            }
 
-        // 获取位置精度
+            // 设置定位模式
+            setMode("Hybrid");
+            publishIfIdle();
+        });
+    }
+
+    /**
+     * 清除所有轨迹点并重置位置
+     */
+    public void clearTrajectoryPoints() {
+        actor.tell(() -> {
+            points.clear();
+            generation++;
+            length = 0.0;
+            currentX = 0.0;
+            currentY = 0.0;
+            lastTrajectoryPoint = null;
+            lastTrajectoryUpdateTime = 0;
+            lastStepTimestamp = 0;
+            fusionFilter.reset();
+            accuracy = 0.0;
+            locationAccuracy.postValue(0.0);
+            setMode("PDR");
+            pointsChanged = true;
+            publishIfIdle();
+        });
+    }
+
+    /**
+     * 闭合轨迹(添加起点副本到终点)
+     */
+    public void closeTrajectory() {
+        actor.tell(() -> {
+            close();
+            publishIfIdle();
+        });
+    }
+
+    /**
+     * 结束轨迹：在处理完之前提交的所有步进后，如果终点靠近起点则闭合轨迹
+     * @param threshold 封闭阈值(米)
+     * @param callback 在写线程上收到最终的优化轨迹
+     */
+    public void finishTrajectory(double threshold, TrajectoryCallback callback) {
+        actor.tell(() -> {
+            if (isEnclosed(points, threshold)) {
+                close();
+            }
+            pointsChanged = true;
+            List<TrajectoryPoint> optimized = publish();
+            callback.onTrajectoryFinished(optimized);
+        });
+    }
+
+    /**
+     * 读取融合滤波器的位置和精度
+     */
+    private void updateFromFilter() {
+        double[] position = fusionFilter.getPosition();
         double[] accuracyValues = fusionFilter.getAccuracy();
-        locationAccuracy.postValue((accuracyValues[0] + accuracyValues[1]) / 2.0);
+        accuracy = (accuracyValues[0] + accuracyValues[1]) / 2.0;
+        locationAccuracy.postValue(accuracy);
+        double[] velocity = fusionFilter.getVelocity();
+        speed = Math.sqrt(velocity[0] * velocity[0] + velocity[1] * velocity[1]);
 
         // 更新当前位置
         currentX = position[0];
         currentY = position[1];
+    }
 
-        // 添加轨迹点(如果间隔足够)
-        long now = System.currentTimeMillis();
-        if (now - lastTrajectoryUpdateTime > 1000) {  // 至少1秒间隔
-            addTrajectoryPoint(currentX, currentY);
+    private void setMode(String newMode) {
+        if (!newMode.equals(mode)) {
+            mode = newMode;
+            locatingMode.postValue(newMode);
         }
-
-        // 设置定位模式
-        locatingMode.postValue("Hybrid");
     }
 
     /**
-     * 优化并更新轨迹
+     * 追加轨迹点，过密的点会被跳过
      */
-    private void updateOptimizedTrajectory(List<TrajectoryPoint> points) {
-        // 如果点数较少，不需要优化
-        if (points.size() < 10) {
-            optimizedTrajectoryPoints.postValue(new ArrayList<>(points));
+    private void appendPoint(double x, double y) {
+        double distance = 0;
+
+        // 检查与上个点的距离，避免过密点
+        if (lastTrajectoryPoint != null) {
+            double dx = x - lastTrajectoryPoint.getX();
+            double dy = y - lastTrajectoryPoint.getY();
+            distance = Math.sqrt(dx * dx + dy * dy);
+
+            // 如果距离太小且点数已经很多，跳过此点
+            if (distance < TRAJECTORY_POINT_MIN_DISTANCE && points.size() > 10) {
+                return;
+            }
+        }
+
+        // 创建新轨迹点
+        TrajectoryPoint newPoint = new TrajectoryPoint(x, y);
+        points.add(newPoint);
+        lastTrajectoryPoint = newPoint;
+        length += distance;
+        pointsChanged = true;
+
+        // 更新当前位置
+        currentX = x;
+        currentY = y;
+
+        // 更新轨迹点更新时间
+        lastTrajectoryUpdateTime = System.currentTimeMillis();
+    }
+
+    private static boolean isEnclosed(List<TrajectoryPoint> points, double threshold) {
+        if (points.size() < 3) {
+            return false;
+        }
+
+        TrajectoryPoint first = points.get(0);
+        TrajectoryPoint last = points.get(points.size() - 1);
+        double dx = last.getX() - first.getX();
+        double dy = last.getY() - first.getY();
+        return Math.sqrt(dx * dx + dy * dy) <= threshold;
+    }
+
+    private void close() {
+        if (points.size() < 3) {
             return;
         }
 
-        // 使用轨迹优化器简化轨迹
-        List<TrajectoryPoint> optimized = trajectoryOptimizer.optimizeTrajectory(points);
+        TrajectoryPoint first = points.get(0);
+        TrajectoryPoint last = points.get(points.size() - 1);
+        double dx = first.getX() - last.getX();
+        double dy = first.getY() - last.getY();
+        points.add(new TrajectoryPoint(first.getX(), first.getY()));
+        length += Math.sqrt(dx * dx + dy * dy);
+        pointsChanged = true;
+    }
+
+    /**
+     * 队列中没有待处理的任务时才发布快照，连续到达的步进只发布最后一次的结果
+     */
+    private void publishIfIdle() {
+        if (pointsChanged && actor.isIdle()) {
+            publish();
+        }
+    }
+
+    /**
+     * 发布原始轨迹、优化轨迹和轨迹长度的快照
+     * @return 优化后的轨迹
+     */
+    private List<TrajectoryPoint> publish() {
+        pointsChanged = false;
+        List<TrajectoryPoint> raw = Collections.unmodifiableList(new ArrayList<>(points));
+        trajectoryPoints.postValue(raw);
 
-        // 更新优化后的轨迹点
+        // 如果点数较少，不需要优化
+        List<TrajectoryPoint> optimized = points.size() < 10
+                ? raw
+                : Collections.unmodifiableList(trajectoryOptimizer.optimizeTrajectory(raw));
         optimizedTrajectoryPoints.postValue(optimized);
+        trajectoryLength.postValue(length);
+        snapshot = new Snapshot(generation, raw, optimized, length, currentX, currentY, accuracy, speed, mode);
+        trajectorySnapshot.postValue(snapshot);
+        return optimized;
     }
 
     /**
-     * 清除所有轨迹点并重置位置
+     * 等待之前提交的命令执行完毕，并发布被合并掉的最后结果
+     * @return 是否在超时前完成
      */
-    public void clearTrajectoryPoints() {
-        trajectoryPoints.postValue(new ArrayList<>());
-        optimizedTrajectoryPoints.postValue(new ArrayList<>());
-        currentX = 0.0;
-        currentY = 0.0;
-        lastTrajectoryPoint = null;
-        lastTrajectoryUpdateTime = 0;
-        fusionFilter.reset();
-        locationAccuracy.postValue(0.0);
-        locatingMode.postValue("PDR");
+    boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        actor.tell(() -> {
+            if (pointsChanged) {
+                publish();
+            }
+        });
+        return actor.awaitIdle(timeout, unit);
+    }
+
+    /**
+     * 获取最近发布的轨迹快照，可在任意线程调用
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 检查已发布的轨迹是否封闭
+     * @param threshold 封闭阈值(米)
+     * @return 是否封闭
+     */
+    public boolean isTrajectoryEnclosed(double threshold) {
+        return isEnclosed(snapshot.getPoints(), threshold);
     }
 
     /**
@@ -211,6 +469,14 @@ public class LocationRepository {
         return trajectoryPoints;
     }
 
+    /**
+     * 获取轨迹快照的LiveData，需要区分追加和清除的消费者(例如增量渲染)使用
+     * @return 轨迹快照的LiveData
+     */
+    public LiveData<Snapshot> getTrajectorySnapshot() {
+        return trajectorySnapshot;
+    }
+
     /**
      * 获取定位精度LiveData
      * @return 定位精度LiveData
@@ -228,40 +494,10 @@ public class LocationRepository {
     }
 
     /**
-     * 检查轨迹是否封闭
-     * @param threshold 封闭阈值(米)
-     * @return 是否封闭
+     * 获取原始轨迹长度的LiveData
+     * @return 轨迹长度(米)
      */
-    public boolean isTrajectoryEnclosed(double threshold) {
-        List<TrajectoryPoint> points = trajectoryPoints.getValue();
-        if (points == null || points.size() < 3) {
-            return false;
-        }
-
-        TrajectoryPoint first = points.get(0);
-        TrajectoryPoint last = points.get(points.size() - 1);
-
-        double distance = Math.sqrt(
-                Math.pow(last.getX() - first.getX(), 2) +
-                        Math.pow(last.getY() - first.getY(), 2)
-        );
-
-        return distance <= threshold;
-    }
-
-    /**
-     * 闭合轨迹(添加起点副本到终点)
-     */
-    public void closeTrajectory() {
-        List<TrajectoryPoint> points = trajectoryPoints.getValue();
-        if (points == null || points.size() < 3) {
-            return;
-        }
-
-        TrajectoryPoint first = points.get(0);
-        points.add(new TrajectoryPoint(first.getX(), first.getY()));
-
-        trajectoryPoints.postValue(new ArrayList<>(points));
-        updateOptimizedTrajectory(points);
+    public LiveData<Double> getTrajectoryLength() {
+        return trajectoryLength;
     }
-}
\ No newline at end of file
+}
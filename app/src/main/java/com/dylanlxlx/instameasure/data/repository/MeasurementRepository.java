@@ -6,19 +6,31 @@ import androidx.lifecycle.MutableLiveData;
 import com.dylanlxlx.instameasure.model.Measurement;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * 测量数据存储库。
  * 存储和管理测量历史记录。
+ * <p>
+ * 保存和删除是提交给 {@link RepositoryActor} 的命令，历史列表只在其线程上修改，
+ * 每次修改后发布一个不可修改的新列表，读取方不会看到修改到一半的列表。
  */
 public class MeasurementRepository {
     private static volatile MeasurementRepository instance;
 
     // 用于测量的 LiveData
-    private final MutableLiveData<List<Measurement>> measurements = new MutableLiveData<>(new ArrayList<>());
+    private final MutableLiveData<List<Measurement>> measurements = new MutableLiveData<>(Collections.emptyList());
     private final MutableLiveData<Measurement> currentMeasurement = new MutableLiveData<>();
 
+    // 最近发布的测量列表，任意线程可读
+    private volatile List<Measurement> snapshot = Collections.emptyList();
+
+    private final RepositoryActor actor = new RepositoryActor("MeasurementRepository");
+
+    // 测量历史，只在写线程上访问
+    private final List<Measurement> measurementList = new ArrayList<>();
+
     private MeasurementRepository() {
     }
 
@@ -39,14 +51,11 @@ public class MeasurementRepository {
      * @param measurement 要保存的测量
      */
     public void saveMeasurement(Measurement measurement) {
-        List<Measurement> measurementList = measurements.getValue();
-        if (measurementList == null) {
-            measurementList = new ArrayList<>();
-        }
-
-        measurementList.add(measurement);
-        measurements.postValue(new ArrayList<>(measurementList)); // 创建新列表以触发观察者
-        currentMeasurement.postValue(measurement);
+        actor.tell(() -> {
+            measurementList.add(measurement);
+            publish();
+            currentMeasurement.postValue(measurement);
+        });
     }
 
     /**
@@ -54,13 +63,16 @@ public class MeasurementRepository {
      * @param measurement 要删除的测量
      */
     public void deleteMeasurement(Measurement measurement) {
-        List<Measurement> measurementList = measurements.getValue();
-        if (measurementList == null) {
-            return;
-        }
+        actor.tell(() -> {
+            if (measurementList.remove(measurement)) {
+                publish();
+            }
+        });
+    }
 
-        measurementList.remove(measurement);
-        measurements.postValue(new ArrayList<>(measurementList));
+    private void publish() {
+        snapshot = Collections.unmodifiableList(new ArrayList<>(measurementList));
+        measurements.postValue(snapshot);
     }
 
     /**
@@ -79,6 +91,14 @@ public class MeasurementRepository {
         return measurements;
     }
 
+    /**
+     * 获取最近发布的测量列表，可在任意线程调用
+     * @return 不可修改的测量列表
+     */
+    public List<Measurement> getSnapshot() {
+        return snapshot;
+    }
+
     /**
      * 获取当前测量数据
      * @return 当前测量的 LiveData
@@ -0,0 +1,63 @@
+package com.dylanlxlx.instameasure.data.repository;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 存储库的单写者执行器
+ * <p>
+ * 每个存储库拥有一个专用线程，状态只在该线程上修改。其他线程通过 {@link #tell} 把命令放入队列，
+ * 命令按提交顺序逐个执行，因此存储库内部不需要锁。读取方使用存储库发布的不可变快照，不会阻塞在写线程上。
+ */
+public class RepositoryActor {
+    private final ThreadPoolExecutor executor;
+    private volatile Thread actorThread;
+
+    /**
+     * @param name 线程名
+     */
+    public RepositoryActor(String name) {
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    actorThread = thread;
+                    return thread;
+                });
+    }
+
+    /**
+     * 提交命令，立即返回
+     */
+    public void tell(Runnable command) {
+        executor.execute(command);
+    }
+
+    /**
+     * 等待之前提交的所有命令执行完毕
+     * @return 是否在超时前完成
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        if (isActorThread()) {
+            return true;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(latch::countDown);
+        return latch.await(timeout, unit);
+    }
+
+    /**
+     * 队列中是否没有待执行的命令
+     * 在写线程上调用时可用于合并连续命令的中间结果
+     */
+    public boolean isIdle() {
+        return executor.getQueue().isEmpty();
+    }
+
+    public boolean isActorThread() {
+        return Thread.currentThread() == actorThread;
+    }
+}
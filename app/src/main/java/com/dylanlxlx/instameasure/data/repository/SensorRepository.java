@@ -3,16 +3,97 @@ package com.dylanlxlx.instameasure.data.repository;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import com.dylanlxlx.instameasure.domain.OrientationSource;
+import com.dylanlxlx.instameasure.domain.ProcessingGraph;
 import com.dylanlxlx.instameasure.domain.SensorDataManager;
+import com.dylanlxlx.instameasure.model.GpsData;
+import com.dylanlxlx.instameasure.model.OrientationMetrics;
 import com.dylanlxlx.instameasure.model.SensorData;
+import com.dylanlxlx.instameasure.model.StepEvent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * 传感器相关数据的存储库
  * 应用程序中所有传感器数据的单一事实来源
+ * <p>
+ * 传感器样本、重置、校准等都是提交给 {@link RepositoryActor} 的命令，{@link SensorDataManager}
+ * 只在其线程上运行，不再被传感器线程和主线程同时修改。结果通过 LiveData 发布；
+ * 模型、校准状态和运行统计以不可变的 {@link Snapshot} 发布，查询直接读取快照，不会阻塞调用线程。
  */
 public class SensorRepository implements SensorDataManager.SensorDataCallback {
     private static volatile SensorRepository instance;
 
+    // 处理传感器样本时发布快照的最短间隔(毫秒，传感器时间)
+    private static final long SNAPSHOT_INTERVAL_MS = 500;
+
+    /**
+     * 传感器处理状态的不可变快照
+     * 配置类命令执行后立即发布，样本处理期间按间隔发布，因此可能稍微滞后于刚提交的命令
+     */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(true, false, 0, null, null,
+                new OrientationMetrics(0, 0, 0, 0, 0, 0), "");
+
+        private final boolean requiresRawSensors;
+        private final boolean magnetometerCalibrated;
+        private final int magnetometerCalibrationVersion;
+        private final double[] magnetometerCalibration;
+        private final double[] stepLengthModel;
+        private final OrientationMetrics orientationMetrics;
+        private final String stageTimingReport;
+
+        Snapshot(boolean requiresRawSensors, boolean magnetometerCalibrated,
+                 int magnetometerCalibrationVersion, double[] magnetometerCalibration, double[] stepLengthModel,
+                 OrientationMetrics orientationMetrics, String stageTimingReport) {
+            this.requiresRawSensors = requiresRawSensors;
+            this.magnetometerCalibrated = magnetometerCalibrated;
+            this.magnetometerCalibrationVersion = magnetometerCalibrationVersion;
+            this.magnetometerCalibration = magnetometerCalibration;
+            this.stepLengthModel = stepLengthModel;
+            this.orientationMetrics = orientationMetrics;
+            this.stageTimingReport = stageTimingReport;
+        }
+
+        public boolean requiresRawSensors() {
+            return requiresRawSensors;
+        }
+
+        public boolean isMagnetometerCalibrated() {
+            return magnetometerCalibrated;
+        }
+
+        /**
+         * 磁力计校正参数版本号，每次得到或恢复参数时加一
+         */
+        public int getMagnetometerCalibrationVersion() {
+            return magnetometerCalibrationVersion;
+        }
+
+        /**
+         * 磁力计校正参数(副本)，还没有处理过样本时为 null
+         */
+        public double[] getMagnetometerCalibration() {
+            return magnetometerCalibration != null ? magnetometerCalibration.clone() : null;
+        }
+
+        /**
+         * 已学习的步长模型(副本)，还没有处理过样本时为 null
+         */
+        public double[] getStepLengthModel() {
+            return stepLengthModel != null ? stepLengthModel.clone() : null;
+        }
+
+        public OrientationMetrics getOrientationMetrics() {
+            return orientationMetrics;
+        }
+
+        public String getStageTimingReport() {
+            return stageTimingReport;
+        }
+    }
+
     // 要观察的 LiveData 对象
     private final MutableLiveData<Integer> stepCount = new MutableLiveData<>(0);
     private final MutableLiveData<Float> orientation = new MutableLiveData<>(0f);
@@ -20,14 +101,52 @@ public class SensorRepository implements SensorDataManager.SensorDataCallback {
     private final MutableLiveData<float[]> gyroscopeData = new MutableLiveData<>(new float[3]);
     private final MutableLiveData<float[]> magneticFieldData = new MutableLiveData<>(new float[3]);
     private final MutableLiveData<Float> stepLength = new MutableLiveData<>(0.7f);
+    private final MutableLiveData<String> walkingState = new MutableLiveData<>("STILL");
 
-    // SensorDataManager 用于处理原始传感器数据
+    // SensorDataManager 用于处理原始传感器数据，只在写线程上访问
     private final SensorDataManager sensorDataManager;
 
+    private final RepositoryActor actor = new RepositoryActor("SensorRepository");
+
+    // 最近发布的快照，任意线程可读
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    // 上次发布快照时的传感器时间，只在写线程上访问
+    private long lastSnapshotTimestamp = 0;
+
+    // 原始传感器事件监听器(图表等需要每个事件及其时间戳的场景)
+    private final List<RawSampleListener> rawSampleListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 原始传感器事件监听器
+     * 在传感器线程上回调，values 在回调返回后可能被复用，需要保存时应复制
+     */
+    public interface RawSampleListener {
+        /**
+         * @param sensorType 传感器类型(Sensor.TYPE_*)
+         * @param timestampNanos 事件时间戳(开机以来的纳秒数)
+         * @param values 传感器数值
+         */
+        void onRawSample(int sensorType, long timestampNanos, float[] values);
+    }
+
+    // 步伐事件接收方(位置处理管线)
+    private volatile StepEventListener stepEventListener;
+
+    /**
+     * 步伐事件监听器
+     * 在传感器处理线程上回调，每一步都会回调一次，不会像 LiveData 一样合并。
+     * 接收方处理完后负责调用 {@link StepEvent#recycle}
+     */
+    public interface StepEventListener {
+        void onStepEvent(StepEvent event);
+    }
+
     // 私有构造函数，用于防止直接实例化
     private SensorRepository() {
         // 使用此存储库作为回调初始化 SensorDataManager
         sensorDataManager = new SensorDataManager(this);
+        actor.tell(this::publishSnapshot);
     }
 
     public static SensorRepository getInstance() {
@@ -47,12 +166,143 @@ public class SensorRepository implements SensorDataManager.SensorDataCallback {
      */
     public void processSensorData(SensorData sensorData) {
         // 将数据传递给 SensorDataManager 进行处理
-        sensorDataManager.processSensorData(sensorData);
+        actor.tell(() -> {
+            sensorDataManager.processSensorData(sensorData);
+            publishSnapshotPeriodically(sensorData.getTimestamp());
+        });
 
         // 使用原始传感器值更新 LiveData
         accelerometerData.postValue(sensorData.getAccelerometer());
-        gyroscopeData.postValue(sensorData.getGyroscope());
-        magneticFieldData.postValue(sensorData.getMagnetometer());
+        if (sensorData.getGyroscope() != null) {
+            gyroscopeData.postValue(sensorData.getGyroscope());
+        }
+        if (sensorData.getMagnetometer() != null) {
+            magneticFieldData.postValue(sensorData.getMagnetometer());
+        }
+    }
+
+    /**
+     * 分发单个原始传感器事件
+     * 每个传感器按自己的事件节拍和时间戳分发，不受加速度计节拍和 LiveData 合并的影响
+     * @param sensorType 传感器类型(Sensor.TYPE_*)
+     * @param timestampNanos 事件时间戳(纳秒)
+     * @param values 传感器数值
+     */
+    public void dispatchRawSample(int sensorType, long timestampNanos, float[] values) {
+        if (rawSampleListeners.isEmpty()) {
+            return;
+        }
+        for (RawSampleListener listener : rawSampleListeners) {
+            listener.onRawSample(sensorType, timestampNanos, values);
+        }
+    }
+
+    public void addRawSampleListener(RawSampleListener listener) {
+        rawSampleListeners.add(listener);
+    }
+
+    public void removeRawSampleListener(RawSampleListener listener) {
+        rawSampleListeners.remove(listener);
+    }
+
+    /**
+     * 处理旋转矢量传感器数据
+     * @param rotationVector 旋转矢量 [x,y,z,(w)]
+     * @param timestamp 时间戳(毫秒)
+     */
+    public void processRotationVector(float[] rotationVector, long timestamp) {
+        actor.tell(() -> {
+            sensorDataManager.processRotationVector(rotationVector, timestamp);
+            publishSnapshotPeriodically(timestamp);
+        });
+    }
+
+    /**
+     * 设置方向数据源
+     * @param source 方向数据源
+     */
+    public void setOrientationSource(OrientationSource source) {
+        actor.tell(() -> {
+            sensorDataManager.setOrientationSource(source);
+            publishSnapshot();
+        });
+    }
+
+    /**
+     * 当前方向源是否需要原始磁力计和陀螺仪数据
+     */
+    public boolean requiresRawSensors() {
+        return snapshot.requiresRawSensors();
+    }
+
+    /**
+     * 设置方向修正与回调的间隔
+     * @param intervalMs 间隔(毫秒)
+     */
+    public void setOrientationUpdateInterval(long intervalMs) {
+        actor.tell(() -> sensorDataManager.setOrientationUpdateInterval(intervalMs));
+    }
+
+    /**
+     * 获取方向计算的运行统计
+     */
+    public OrientationMetrics getOrientationMetrics() {
+        return snapshot.getOrientationMetrics();
+    }
+
+    /**
+     * 添加处理图的消费者(记录、融合等)，在写线程上与处理阶段同步执行
+     * @param name 消费者名，用于计时报告
+     * @param sink 消费者，收到的帧会被复用，跨线程保存时需要复制
+     */
+    public void addProcessingSink(String name, ProcessingGraph.Stage sink) {
+        actor.tell(() -> sensorDataManager.addSink(name, sink));
+    }
+
+    /**
+     * 移除处理图的消费者
+     */
+    public void removeProcessingSink(ProcessingGraph.Stage sink) {
+        actor.tell(() -> sensorDataManager.removeSink(sink));
+    }
+
+    /**
+     * 各处理阶段的平均耗时
+     */
+    public String getStageTimingReport() {
+        return snapshot.getStageTimingReport();
+    }
+
+    /**
+     * 最近发布的快照，任意线程可读
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 处理样本期间按间隔发布快照(写线程)
+     * @param timestamp 样本时间(毫秒)
+     */
+    private void publishSnapshotPeriodically(long timestamp) {
+        if (timestamp - lastSnapshotTimestamp >= SNAPSHOT_INTERVAL_MS || timestamp < lastSnapshotTimestamp) {
+            publishSnapshot();
+            lastSnapshotTimestamp = timestamp;
+        }
+    }
+
+    /**
+     * 发布模型、校准状态和运行统计的快照(写线程)
+     */
+    private void publishSnapshot() {
+        snapshot = new Snapshot(
+                sensorDataManager.requiresRawSensors(),
+                sensorDataManager.isMagnetometerCalibrated(),
+                sensorDataManager.getMagnetometerCalibrationVersion(),
+                sensorDataManager.getMagnetometerCalibration(),
+                sensorDataManager.getStepLengthModel(),
+                sensorDataManager.getOrientationMetrics(),
+                sensorDataManager.getStageTimingReport());
     }
 
     @Override
@@ -60,6 +310,24 @@ public class SensorRepository implements SensorDataManager.SensorDataCallback {
         stepCount.postValue(count);
     }
 
+    @Override
+    public void onStepEvent(StepEvent event) {
+        StepEventListener listener = stepEventListener;
+        if (listener != null) {
+            listener.onStepEvent(event);
+        } else {
+            event.recycle();
+        }
+    }
+
+    /**
+     * 设置步伐事件接收方
+     * @param listener 接收方，null 表示停止接收
+     */
+    public void setStepEventListener(StepEventListener listener) {
+        stepEventListener = listener;
+    }
+
     @Override
     public void onOrientationCalculated(float azimuth) {
         orientation.postValue(azimuth);
@@ -70,12 +338,29 @@ public class SensorRepository implements SensorDataManager.SensorDataCallback {
         stepLength.postValue(length);
     }
 
+    @Override
+    public void onWalkingStateChanged(String state) {
+        walkingState.postValue(state);
+    }
+
+    /**
+     * 为降低功耗暂停的传感器已恢复
+     * @param timestamp 恢复时刻(毫秒，与传感器事件相同的开机时间基准)
+     */
+    public void onSensorsResumed(long timestamp) {
+        actor.tell(() -> sensorDataManager.onSensorsResumed(timestamp));
+    }
+
     /**
      * 重置传感器处理器
      */
     public void resetSensorProcessors() {
-        sensorDataManager.reset();
-        stepCount.postValue(0);
+        actor.tell(() -> {
+            sensorDataManager.reset();
+            publishSnapshot();
+            stepCount.postValue(0);
+            walkingState.postValue("STILL");
+        });
     }
 
     /**
@@ -83,7 +368,7 @@ public class SensorRepository implements SensorDataManager.SensorDataCallback {
      * @param gpsBearing GPS方位角(度)
      */
     public void calibrateOrientationWithGps(float gpsBearing) {
-        sensorDataManager.calibrateWithGps(gpsBearing);
+        actor.tell(() -> sensorDataManager.calibrateWithGps(gpsBearing));
     }
 
     /**
@@ -91,7 +376,7 @@ public class SensorRepository implements SensorDataManager.SensorDataCallback {
      * @param height 身高(米)
      */
     public void setUserHeight(float height) {
-        sensorDataManager.setUserHeight(height);
+        actor.tell(() -> sensorDataManager.setUserHeight(height));
     }
 
     /**
@@ -100,7 +385,81 @@ public class SensorRepository implements SensorDataManager.SensorDataCallback {
      * @param stepCount 步数
      */
     public void calibrateStepLength(float actualDistance, int stepCount) {
-        sensorDataManager.calibrateStepLength(actualDistance, stepCount);
+        actor.tell(() -> {
+            sensorDataManager.calibrateStepLength(actualDistance, stepCount);
+            publishSnapshot();
+        });
+    }
+
+    /**
+     * 使用GPS定位在线校准步长
+     * @param gpsData GPS数据
+     */
+    public void calibrateStepLengthWithGps(GpsData gpsData) {
+        actor.tell(() -> {
+            sensorDataManager.calibrateStepLengthWithGps(
+                    gpsData.getLatitude(), gpsData.getLongitude(),
+                    gpsData.getAccuracy(), gpsData.getTimestamp());
+            publishSnapshot();
+        });
+    }
+
+    /**
+     * 获取已学习的步长模型(读取快照)
+     */
+    public double[] getStepLengthModel() {
+        return snapshot.getStepLengthModel();
+    }
+
+    /**
+     * 恢复已学习的步长模型
+     */
+    public void restoreStepLengthModel(double[] model) {
+        actor.tell(() -> {
+            sensorDataManager.restoreStepLengthModel(model);
+            publishSnapshot();
+        });
+    }
+
+    /**
+     * 重新开始磁力计校准
+     */
+    public void restartMagnetometerCalibration() {
+        actor.tell(() -> {
+            sensorDataManager.restartMagnetometerCalibration();
+            publishSnapshot();
+        });
+    }
+
+    /**
+     * 磁力计是否已校准(读取快照)
+     */
+    public boolean isMagnetometerCalibrated() {
+        return snapshot.isMagnetometerCalibrated();
+    }
+
+    /**
+     * 获取磁力计校正参数(读取快照)
+     */
+    public double[] getMagnetometerCalibration() {
+        return snapshot.getMagnetometerCalibration();
+    }
+
+    /**
+     * 磁力计校正参数版本号(读取快照)，用于判断一次校准是否得到了新的参数
+     */
+    public int getMagnetometerCalibrationVersion() {
+        return snapshot.getMagnetometerCalibrationVersion();
+    }
+
+    /**
+     * 恢复磁力计校正参数
+     */
+    public void restoreMagnetometerCalibration(double[] calibration) {
+        actor.tell(() -> {
+            sensorDataManager.restoreMagnetometerCalibration(calibration);
+            publishSnapshot();
+        });
     }
 
     public LiveData<Integer> getStepCount() {
@@ -115,6 +474,13 @@ public class SensorRepository implements SensorDataManager.SensorDataCallback {
         return stepLength;
     }
 
+    /**
+     * 行走状态 STILL / WALKING / RUNNING
+     */
+    public LiveData<String> getWalkingState() {
+        return walkingState;
+    }
+
     public LiveData<float[]> getAccelerometerData() {
         return accelerometerData;
     }
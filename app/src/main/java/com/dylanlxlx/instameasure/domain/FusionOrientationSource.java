@@ -0,0 +1,57 @@
+package com.dylanlxlx.instameasure.domain;
+
+import com.dylanlxlx.instameasure.utils.AhrsFilter;
+
+/**
+ * 软件融合方向源
+ * 在没有硬件旋转矢量传感器的设备上，使用加速度计、磁力计和陀螺仪在Java中做姿态融合
+ */
+public class FusionOrientationSource implements OrientationSource {
+    private final AhrsFilter ahrsFilter = new AhrsFilter();
+
+    @Override
+    public boolean requiresRawSensors() {
+        return true;
+    }
+
+    @Override
+    public void predict(float[] gyro, long timestamp) {
+        ahrsFilter.predict(gyro, timestamp);
+    }
+
+    @Override
+    public float correct(float[] accel, float[] mag, long timestamp) {
+        return ahrsFilter.correct(accel, mag, timestamp);
+    }
+
+    @Override
+    public float onRotationVector(float[] rotationVector, long timestamp) {
+        // 软件融合不使用旋转矢量
+        return ahrsFilter.getAzimuth();
+    }
+
+    @Override
+    public float getAzimuth() {
+        return ahrsFilter.getAzimuth();
+    }
+
+    @Override
+    public void onSensorsResumed(long timestamp) {
+        ahrsFilter.resume(timestamp);
+    }
+
+    @Override
+    public void calibrateWithGps(float gpsBearing) {
+        ahrsFilter.calibrateWithGps(gpsBearing);
+    }
+
+    @Override
+    public void onMagneticCalibrationChanged() {
+        ahrsFilter.resetMagneticReference();
+    }
+
+    @Override
+    public void reset() {
+        ahrsFilter.reset();
+    }
+}
@@ -3,7 +3,8 @@ package com.dylanlxlx.instameasure.domain;
 import android.location.Location;
 
 import com.dylanlxlx.instameasure.model.GpsData;
-import com.dylanlxlx.instameasure.utils.KalmanFilter1D;
+import com.dylanlxlx.instameasure.utils.GpsKalmanFilter;
+import com.dylanlxlx.instameasure.utils.LocalTangentProjector;
 
 /**
  * GPS数据管理器
@@ -19,9 +20,8 @@ public class GpsDataManager {
 
     private final GpsDataCallback callback;
 
-    // 卡尔曼滤波器（用于滤波经纬度）
-    private final KalmanFilter1D latitudeFilter;
-    private final KalmanFilter1D longitudeFilter;
+    // 卡尔曼滤波器（在本地东-北平面上滤波位置和速度）
+    private final GpsKalmanFilter positionFilter = new GpsKalmanFilter();
 
     // 最近的有效GPS数据
     private GpsData lastValidGpsData = null;
@@ -38,11 +38,6 @@ public class GpsDataManager {
      */
     public GpsDataManager(GpsDataCallback callback) {
         this.callback = callback;
-
-        // 初始化卡尔曼滤波器
-        // 参数: 初始状态、初始协方差、过程噪声协方差、测量噪声协方差
-        this.latitudeFilter = new KalmanFilter1D(0, 1, 0.00001, 0.001);
-        this.longitudeFilter = new KalmanFilter1D(0, 1, 0.00001, 0.001);
     }
 
     /**
@@ -65,20 +60,38 @@ public class GpsDataManager {
             return;
         }
 
-        // 应用卡尔曼滤波
-        double filteredLat = latitudeFilter.filter(location.getLatitude());
-        double filteredLon = longitudeFilter.filter(location.getLongitude());
+        // 定位时间使用开机时间基准，与步伐事件的时间戳可以直接比较
+        long timestamp = location.getElapsedRealtimeNanos() / 1_000_000L;
+
+        // 应用卡尔曼滤波，不符合运动预测的离群点被拒绝
+        // 速度只有和方位一起才能分解成速度向量，缺少任一项都视为没有速度观测
+        boolean accepted = positionFilter.update(
+                location.getLatitude(),
+                location.getLongitude(),
+                location.getAccuracy(),
+                location.hasSpeed() && location.hasBearing() ? location.getSpeed() : -1,
+                location.getBearing(),
+                timestamp);
+        if (!accepted) {
+            if (callback != null) {
+                callback.onGpsUnavailable();
+            }
+            return;
+        }
 
-        // 创建GpsData对象
+        // 创建GpsData对象，速度和方向取滤波后的估计
+        // 本地坐标直接取自滤波器，下游不再重复投影
         GpsData gpsData = new GpsData(
-                filteredLat,
-                filteredLon,
+                positionFilter.getLatitude(),
+                positionFilter.getLongitude(),
                 location.getAltitude(),
                 location.getAccuracy(),
-                location.getSpeed(),
-                location.getBearing(),
-                location.getTime(),
-                location.getExtras() != null ? location.getExtras().getInt("satellites", 0) : 0
+                (float) positionFilter.getSpeed(),
+                (float) positionFilter.getBearing(),
+                timestamp,
+                location.getExtras() != null ? location.getExtras().getInt("satellites", 0) : 0,
+                positionFilter.getEast(),
+                positionFilter.getNorth()
         );
 
         // 更新最近的有效GPS数据
@@ -102,40 +115,27 @@ public class GpsDataManager {
         }
 
         // 检查速度异常
-        if (location.hasSpeed() && location.getSpeed() > SPEED_THRESHOLD) {
-            return false;
-        }
-
-        // 检查与上一个点的合理性
-        if (lastValidGpsData != null) {
-            double distance = com.dylanlxlx.instameasure.utils.LocationUtils.calculateDistance(
-                    lastValidGpsData.getLatitude(), lastValidGpsData.getLongitude(),
-                    location.getLatitude(), location.getLongitude());
-            long timeDiff = location.getTime() - lastValidGpsData.getTimestamp();
-
-            // 如果时间差太小但距离很大，可能是异常点
-            if (timeDiff < 1000 && distance > 10) {
-                return false;
-            }
-
-            // 如果计算出的速度不合理，可能是异常点
-            double speed = distance / (timeDiff / 1000.0);
-            if (speed > SPEED_THRESHOLD) {
-                return false;
-            }
-        }
-
-        return true;
+        // 与上一个点的跳变由滤波器的新息门限判断
+        return !location.hasSpeed() || location.getSpeed() <= SPEED_THRESHOLD;
     }
 
     /**
      * 重置滤波器
      */
     public void resetFilters() {
-        // 重新初始化滤波器
+        // 重新初始化滤波器，下一个定位将成为新的原点
+        positionFilter.reset();
         lastValidGpsData = null;
     }
 
+    /**
+     * 本地坐标使用的投影，第一个定位之前为 null
+     * 重置滤波器后，下一个定位成为新的原点
+     */
+    public LocalTangentProjector getProjector() {
+        return positionFilter.getProjector();
+    }
+
     /**
      * 获取最后一个有效的GPS数据
      */
@@ -0,0 +1,68 @@
+package com.dylanlxlx.instameasure.domain;
+
+/**
+ * 方向(方位角)数据源
+ * 不同实现使用不同的传感器输入，SensorDataManager 只通过此接口获取方位角
+ */
+public interface OrientationSource {
+
+    /**
+     * 是否需要原始的磁力计和陀螺仪数据
+     * 返回 false 时传感器服务只需订阅加速度计(计步)和旋转矢量传感器
+     */
+    boolean requiresRawSensors();
+
+    /**
+     * 预测步：以陀螺仪全速率积分，开销应尽量小
+     * @param gyro 滤波后的角速度 [x,y,z]
+     * @param timestamp 时间戳(毫秒)
+     */
+    void predict(float[] gyro, long timestamp);
+
+    /**
+     * 修正步：用加速度计和磁力计修正姿态，可以以较低频率调用
+     * @param accel 滤波后的加速度 [x,y,z]
+     * @param mag 滤波后的磁场 [x,y,z]
+     * @param timestamp 时间戳(毫秒)
+     * @return 方位角(0-360度)
+     */
+    float correct(float[] accel, float[] mag, long timestamp);
+
+    /**
+     * 处理旋转矢量传感器数据
+     * @param rotationVector 旋转矢量 [x,y,z,(w)]
+     * @param timestamp 时间戳(毫秒)
+     * @return 方位角(0-360度)
+     */
+    float onRotationVector(float[] rotationVector, long timestamp);
+
+    /**
+     * 获取当前方位角
+     * @return 方位角(0-360度)
+     */
+    float getAzimuth();
+
+    /**
+     * 使用GPS方位校准方向
+     * @param gpsBearing GPS方位角(度)
+     */
+    void calibrateWithGps(float gpsBearing);
+
+    /**
+     * 磁力计校准参数已更新
+     * 校准前后的场强不同，依赖磁场参考值的实现需要重新建立参考
+     */
+    void onMagneticCalibrationChanged();
+
+    /**
+     * 为降低功耗暂停的传感器已恢复
+     * 暂停期间设备静止，应从暂停前的状态继续，而不是重新初始化
+     * @param timestamp 恢复时刻(毫秒)
+     */
+    void onSensorsResumed(long timestamp);
+
+    /**
+     * 重置
+     */
+    void reset();
+}
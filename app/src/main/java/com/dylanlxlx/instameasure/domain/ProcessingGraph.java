@@ -0,0 +1,171 @@
+package com.dylanlxlx.instameasure.domain;
+
+import java.util.Locale;
+
+/**
+ * 传感器处理图
+ * <p>
+ * 处理阶段(滤波、检测、估计)和消费者(界面、记录、融合)在这里声明，而不是在代码里层层回调。
+ * 声明的阶段被编译成一个数组，每个样本只在一个循环里依次执行所有阶段，
+ * 所有阶段和消费者共享同一个 {@link SensorFrame}，扇出到多个消费者时不复制数据。
+ * <p>
+ * {@link #process} 只能在处理线程上调用；添加或移除阶段可以在任意线程进行，
+ * 新的编译结果从下一个样本开始生效。
+ * 每隔 {@link #TIMING_SAMPLE_INTERVAL} 个样本对每个阶段计时一次，用于评估各阶段的开销。
+ */
+public class ProcessingGraph {
+    private static final int TIMING_SAMPLE_INTERVAL = 64;
+
+    /**
+     * 处理阶段，读取帧中前面阶段的结果并写入自己的结果
+     */
+    public interface Stage {
+        void process(SensorFrame frame);
+    }
+
+    /**
+     * 编译后的处理图：处理阶段在前，消费者在后
+     */
+    private static final class Compiled {
+        final Stage[] stages;
+        final String[] names;
+        final int stageCount;       // 前 stageCount 个是处理阶段，其余是消费者
+        final long[] timedNanos;    // 每个阶段计时样本的累计耗时
+        final long[] timedSamples;  // 每个阶段的计时样本数
+
+        Compiled(Stage[] stages, String[] names, int stageCount) {
+            this.stages = stages;
+            this.names = names;
+            this.stageCount = stageCount;
+            this.timedNanos = new long[stages.length];
+            this.timedSamples = new long[stages.length];
+        }
+    }
+
+    private volatile Compiled compiled = new Compiled(new Stage[0], new String[0], 0);
+    private long frameCount = 0;
+
+    /**
+     * 添加处理阶段，按添加顺序执行，且总在消费者之前
+     * @param name 阶段名，用于计时报告
+     */
+    public synchronized void addStage(String name, Stage stage) {
+        insert(compiled.stageCount, name, stage, true);
+    }
+
+    /**
+     * 添加消费者，在所有处理阶段之后按添加顺序执行
+     * @param name 消费者名，用于计时报告
+     */
+    public synchronized void addSink(String name, Stage sink) {
+        insert(compiled.stages.length, name, sink, false);
+    }
+
+    /**
+     * 移除处理阶段或消费者
+     * @return 是否找到并移除
+     */
+    public synchronized boolean remove(Stage stage) {
+        Compiled old = compiled;
+        for (int i = 0; i < old.stages.length; i++) {
+            if (old.stages[i] != stage) continue;
+
+            int n = old.stages.length - 1;
+            Stage[] stages = new Stage[n];
+            String[] names = new String[n];
+            System.arraycopy(old.stages, 0, stages, 0, i);
+            System.arraycopy(old.stages, i + 1, stages, i, n - i);
+            System.arraycopy(old.names, 0, names, 0, i);
+            System.arraycopy(old.names, i + 1, names, i, n - i);
+            compiled = carryTimings(old, new Compiled(stages, names,
+                    i < old.stageCount ? old.stageCount - 1 : old.stageCount));
+            return true;
+        }
+        return false;
+    }
+
+    private void insert(int position, String name, Stage stage, boolean isStage) {
+        Compiled old = compiled;
+        int n = old.stages.length + 1;
+        Stage[] stages = new Stage[n];
+        String[] names = new String[n];
+        System.arraycopy(old.stages, 0, stages, 0, position);
+        System.arraycopy(old.stages, position, stages, position + 1, old.stages.length - position);
+        System.arraycopy(old.names, 0, names, 0, position);
+        System.arraycopy(old.names, position, names, position + 1, old.names.length - position);
+        stages[position] = stage;
+        names[position] = name;
+        compiled = carryTimings(old, new Compiled(stages, names,
+                isStage ? old.stageCount + 1 : old.stageCount));
+    }
+
+    /**
+     * 重新编译后保留已有阶段的计时
+     */
+    private static Compiled carryTimings(Compiled old, Compiled next) {
+        for (int i = 0; i < next.stages.length; i++) {
+            for (int j = 0; j < old.stages.length; j++) {
+                if (old.stages[j] == next.stages[i]) {
+                    next.timedNanos[i] = old.timedNanos[j];
+                    next.timedSamples[i] = old.timedSamples[j];
+                    break;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * 让一个样本依次流过所有阶段和消费者
+     */
+    public void process(SensorFrame frame) {
+        Compiled graph = compiled;
+        Stage[] stages = graph.stages;
+
+        if (frameCount++ % TIMING_SAMPLE_INTERVAL != 0) {
+            for (Stage stage : stages) {
+                stage.process(frame);
+            }
+            return;
+        }
+
+        // 计时样本：逐个阶段计时
+        long start = System.nanoTime();
+        for (int i = 0; i < stages.length; i++) {
+            stages[i].process(frame);
+            long end = System.nanoTime();
+            graph.timedNanos[i] += end - start;
+            graph.timedSamples[i]++;
+            start = end;
+        }
+    }
+
+    /**
+     * 已处理的样本数
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * 每个阶段的平均耗时报告，例如 "filter=1.2us stepDetector=0.8us | recorder=0.3us"
+     * 竖线之后是消费者
+     */
+    public String getTimingReport() {
+        Compiled graph = compiled;
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < graph.stages.length; i++) {
+            if (i > 0) {
+                report.append(i == graph.stageCount ? " | " : " ");
+            } else if (graph.stageCount == 0) {
+                report.append("| ");
+            }
+            long samples = graph.timedSamples[i];
+            double averageMicros = samples > 0 ? graph.timedNanos[i] / 1000.0 / samples : 0;
+            report.append(graph.names[i])
+                    .append('=')
+                    .append(String.format(Locale.US, "%.1fus", averageMicros));
+        }
+        return report.toString();
+    }
+}
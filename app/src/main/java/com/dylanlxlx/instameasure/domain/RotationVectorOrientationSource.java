@@ -0,0 +1,96 @@
+package com.dylanlxlx.instameasure.domain;
+
+/**
+ * 硬件旋转矢量方向源
+ * 直接使用传感器中枢融合好的 TYPE_ROTATION_VECTOR，只需订阅一个传感器，
+ * Java 层不再处理磁力计和陀螺仪数据
+ */
+public class RotationVectorOrientationSource implements OrientationSource {
+    // GPS校准参数，与软件融合保持一致
+    private static final float MAX_CALIBRATION_DIFF = 45.0f;
+    private static final float CALIBRATION_RATE = 0.3f;
+
+    private float rawAzimuth = 0f;       // 传感器给出的方位角
+    private float headingOffset = 0f;    // GPS校准得到的修正量
+    private boolean initialized = false;
+
+    @Override
+    public boolean requiresRawSensors() {
+        return false;
+    }
+
+    @Override
+    public void predict(float[] gyro, long timestamp) {
+        // 姿态积分由传感器中枢完成
+    }
+
+    @Override
+    public float correct(float[] accel, float[] mag, long timestamp) {
+        return getAzimuth();
+    }
+
+    @Override
+    public float onRotationVector(float[] rotationVector, long timestamp) {
+        if (rotationVector == null || rotationVector.length < 3) {
+            return getAzimuth();
+        }
+
+        float x = rotationVector[0];
+        float y = rotationVector[1];
+        float z = rotationVector[2];
+        float w;
+        if (rotationVector.length >= 4) {
+            w = rotationVector[3];
+        } else {
+            // 旧设备只提供前三个分量
+            float t = 1 - x * x - y * y - z * z;
+            w = t > 0 ? (float) Math.sqrt(t) : 0;
+        }
+
+        // 与 SensorManager.getRotationMatrixFromVector + getOrientation 相同：
+        // azimuth = atan2(R[1], R[4])，这里直接由四元数计算这两个元素
+        float r01 = 2 * (x * y - z * w);
+        float r11 = 1 - 2 * (x * x + z * z);
+        rawAzimuth = (float) Math.toDegrees(Math.atan2(r01, r11));
+        initialized = true;
+
+        return getAzimuth();
+    }
+
+    @Override
+    public float getAzimuth() {
+        float azimuth = (rawAzimuth + headingOffset) % 360;
+        if (azimuth < 0) azimuth += 360;
+        return azimuth;
+    }
+
+    @Override
+    public void calibrateWithGps(float gpsBearing) {
+        if (!initialized) return;
+
+        float diff = gpsBearing - getAzimuth();
+        if (diff > 180) diff -= 360;
+        if (diff < -180) diff += 360;
+
+        // 小于45度才校准，每次只校准30%，避免突变
+        if (Math.abs(diff) < MAX_CALIBRATION_DIFF) {
+            headingOffset = (headingOffset + CALIBRATION_RATE * diff) % 360;
+        }
+    }
+
+    @Override
+    public void onMagneticCalibrationChanged() {
+        // 旋转矢量由传感器中枢自行校准磁力计
+    }
+
+    @Override
+    public void onSensorsResumed(long timestamp) {
+        // 旋转矢量由传感器中枢维护，恢复后直接使用新的读数
+    }
+
+    @Override
+    public void reset() {
+        // 保留GPS校准得到的修正量
+        initialized = false;
+    }
+}
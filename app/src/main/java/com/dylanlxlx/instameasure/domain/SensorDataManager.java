@@ -1,25 +1,51 @@
 package com.dylanlxlx.instameasure.domain;
 
+import com.dylanlxlx.instameasure.model.OrientationMetrics;
 import com.dylanlxlx.instameasure.model.SensorData;
+import com.dylanlxlx.instameasure.model.StepEvent;
 import com.dylanlxlx.instameasure.utils.SensorFilter;
 import com.dylanlxlx.instameasure.utils.StepDetector;
-import com.dylanlxlx.instameasure.utils.ImprovedOrientationCalculator;
 import com.dylanlxlx.instameasure.utils.DynamicStepLengthEstimator;
+import com.dylanlxlx.instameasure.utils.MagnetometerCalibrator;
 
 /**
  * SensorDataManager 用于处理传感器数据，完成滤波、步数检测和方向计算。
+ * 处理流程声明为 {@link ProcessingGraph} 中的阶段：滤波 → 磁力计校准 → 陀螺仪预测 → 步数检测 → 方向修正与发布，
+ * 其他模块可以通过 {@link #addSink} 接入同一个样本帧。
+ * 陀螺仪积分以传感器全速率运行；加速度计/磁力计修正和方向回调只按设定的间隔执行，
+ * 检测到步伐时会立即执行一次，保证轨迹使用的方向是最新的。
  */
 public class SensorDataManager {
 
     // 传感器处理组件
     private SensorFilter sensorFilter;
     private StepDetector stepDetector;
-    private ImprovedOrientationCalculator orientationCalculator;
+    private OrientationSource orientationSource;
     private DynamicStepLengthEstimator stepLengthEstimator;
+    private MagnetometerCalibrator magnetometerCalibrator;
+    private final float[] calibratedMag = new float[3];
+
+    // 处理图和共享的样本帧
+    private final ProcessingGraph graph = new ProcessingGraph();
+    private final SensorFrame frame = new SensorFrame();
+    private boolean hasFrame = false;
 
     // 时间戳管理
     private long lastTimestamp = 0;
 
+    // 方向修正与发布间隔(毫秒)
+    public static final long DEFAULT_ORIENTATION_INTERVAL_MS = 100;
+    private long orientationIntervalMs = DEFAULT_ORIENTATION_INTERVAL_MS;
+    private long lastPublishTimestamp = 0;
+
+    // 运行统计
+    private long sampleCount = 0;
+    private long eligibleCount = 0;
+    private long correctionCount = 0;
+    private long publishCount = 0;
+    private long predictNanos = 0;
+    private long correctNanos = 0;
+
     // 当前的步长(米)
     private float currentStepLength = 0.7f;
 
@@ -28,6 +54,13 @@ public class SensorDataManager {
         void onStepDetected(int stepCount);
         void onOrientationCalculated(float orientation);
         void onStepLengthCalculated(float stepLength);
+        void onWalkingStateChanged(String walkingState);
+
+        /**
+         * 步伐事件，包含同一时刻的步长和方向
+         * 事件来自对象池，接收方处理完后负责调用 {@link StepEvent#recycle}
+         */
+        void onStepEvent(StepEvent event);
     }
 
     private SensorDataCallback callback;
@@ -54,15 +87,84 @@ public class SensorDataManager {
 
             @Override
             public void onWalkingStateChanged(String newState) {
-                // 可以在这里处理行走状态变化
+                if (callback != null) {
+                    callback.onWalkingStateChanged(newState);
+                }
             }
         });
 
-        // 初始化方向计算器
-        orientationCalculator = new ImprovedOrientationCalculator();
+        // 默认使用软件融合方向源，传感器服务可根据设备能力替换
+        orientationSource = new FusionOrientationSource();
 
         // 初始化动态步长估计器
         stepLengthEstimator = new DynamicStepLengthEstimator();
+
+        // 初始化磁力计校准器
+        magnetometerCalibrator = new MagnetometerCalibrator();
+
+        // 声明处理阶段，每个样本在一个循环里依次执行
+        graph.addStage("filter", this::filterStage);
+        graph.addStage("magCalibration", this::magCalibrationStage);
+        graph.addStage("predict", this::predictStage);
+        graph.addStage("stepDetector", f -> stepDetector.processSensorData(f.getFilteredAccel()));
+        graph.addStage("orientation", this::orientationStage);
+    }
+
+    /**
+     * 添加样本帧的消费者，在所有处理阶段之后执行
+     * 消费者在处理线程上同步调用，收到的帧会被下一个样本覆盖，跨线程保存时需要复制
+     * @param name 消费者名，用于计时报告
+     * @param sink 消费者
+     */
+    public void addSink(String name, ProcessingGraph.Stage sink) {
+        graph.addSink(name, sink);
+    }
+
+    /**
+     * 移除样本帧的消费者
+     */
+    public void removeSink(ProcessingGraph.Stage sink) {
+        graph.remove(sink);
+    }
+
+    /**
+     * 各处理阶段和消费者的平均耗时
+     */
+    public String getStageTimingReport() {
+        return graph.getTimingReport();
+    }
+
+    /**
+     * 设置方向数据源
+     * @param source 方向数据源
+     */
+    public void setOrientationSource(OrientationSource source) {
+        if (source != null) {
+            orientationSource = source;
+        }
+    }
+
+    /**
+     * 当前方向源是否需要原始磁力计和陀螺仪数据
+     */
+    public boolean requiresRawSensors() {
+        return orientationSource.requiresRawSensors();
+    }
+
+    /**
+     * 设置方向修正与回调的间隔
+     * @param intervalMs 间隔(毫秒)，0 表示每个样本都执行
+     */
+    public void setOrientationUpdateInterval(long intervalMs) {
+        orientationIntervalMs = Math.max(0, intervalMs);
+    }
+
+    /**
+     * 获取方向计算的运行统计
+     */
+    public OrientationMetrics getOrientationMetrics() {
+        return new OrientationMetrics(sampleCount, eligibleCount, correctionCount, publishCount,
+                predictNanos, correctNanos);
     }
 
     /**
@@ -84,39 +186,180 @@ public class SensorDataManager {
         stepLengthEstimator.calibrate(actualDistance, stepCount);
     }
 
+    /**
+     * 使用GPS定位在线校准步长
+     * @param latitude 纬度
+     * @param longitude 经度
+     * @param accuracy 定位精度(米)
+     * @param timestamp 定位时间(毫秒)
+     */
+    public void calibrateStepLengthWithGps(double latitude, double longitude, float accuracy, long timestamp) {
+        stepLengthEstimator.calibrateWithGps(latitude, longitude, accuracy, timestamp);
+    }
+
+    /**
+     * 获取已学习的步长模型(用于持久化)
+     */
+    public double[] getStepLengthModel() {
+        return stepLengthEstimator.getCalibrationState();
+    }
+
+    /**
+     * 恢复已学习的步长模型
+     */
+    public void restoreStepLengthModel(double[] model) {
+        stepLengthEstimator.restoreCalibrationState(model);
+    }
+
+    /**
+     * 重新开始收集磁力计校准样本(用户转动手机校准时调用)
+     */
+    public void restartMagnetometerCalibration() {
+        magnetometerCalibrator.restart();
+    }
+
+    /**
+     * 磁力计是否已校准
+     */
+    public boolean isMagnetometerCalibrated() {
+        return magnetometerCalibrator.isCalibrated();
+    }
+
+    /**
+     * 磁力计校正参数版本号，每次得到或恢复参数时加一
+     */
+    public int getMagnetometerCalibrationVersion() {
+        return magnetometerCalibrator.getVersion();
+    }
+
+    /**
+     * 获取磁力计校正参数(用于持久化)
+     */
+    public double[] getMagnetometerCalibration() {
+        return magnetometerCalibrator.getState();
+    }
+
+    /**
+     * 恢复磁力计校正参数
+     */
+    public void restoreMagnetometerCalibration(double[] calibration) {
+        magnetometerCalibrator.setState(calibration);
+        orientationSource.onMagneticCalibrationChanged();
+    }
+
     /**
      * 处理传感器数据
      * @param sensorData 封装后的传感器数据
      */
     public void processSensorData(SensorData sensorData) {
         // 当前时间戳
-        long currentTimestamp = System.currentTimeMillis();
+        long currentTimestamp = sensorData.getTimestamp();
 
         // 首次调用初始化时间戳
         if (lastTimestamp == 0) {
             lastTimestamp = currentTimestamp;
         }
+        sampleCount++;
 
-        // 对传感器数据进行滤波
-        float[] filteredAccel = sensorFilter.filterAccelerometer(sensorData.getAccelerometer());
-        float[] filteredMag = sensorFilter.filterMagneticField(sensorData.getMagnetometer());
-        float[] filteredGyro = sensorFilter.filterGyroscope(sensorData.getGyroscope());
+        frame.set(currentTimestamp, sensorData.getAccelerometer(),
+                sensorData.getGyroscope(), sensorData.getMagnetometer());
+        hasFrame = true;
+        graph.process(frame);
 
-        // 处理步数检测（此处只用加速度数据即可）
-        stepDetector.processSensorData(filteredAccel);
+        // 更新时间戳
+        lastTimestamp = currentTimestamp;
+    }
 
-        // 计算方向，传入滤波后的加速度与地磁数据和陀螺仪数据
-        float orientation = orientationCalculator.calculateAzimuth(
-                filteredAccel, filteredMag, filteredGyro, currentTimestamp
-        );
+    /**
+     * 滤波阶段：加速度计滤波结果写入帧中
+     */
+    private void filterStage(SensorFrame f) {
+        sensorFilter.filterAccelerometer(f.getAccel(), f.getFilteredAccel());
+    }
 
-        // 通过回调返回处理结果
-        if (callback != null) {
-            callback.onOrientationCalculated(orientation);
+    /**
+     * 磁力计校准阶段：只要样本中有磁力计数据就以全速率收集校准样本，
+     * 不受方向修正间隔和方向源的影响
+     */
+    private void magCalibrationStage(SensorFrame f) {
+        if (f.hasMag() && magnetometerCalibrator.addSample(f.getMag())) {
+            orientationSource.onMagneticCalibrationChanged();
         }
+    }
 
-        // 更新时间戳
-        lastTimestamp = currentTimestamp;
+    /**
+     * 预测阶段：全速率积分陀螺仪
+     * 硬件旋转矢量方向源不需要处理磁力计和陀螺仪
+     */
+    private void predictStage(SensorFrame f) {
+        if (!hasRawSensors(f)) return;
+
+        long start = System.nanoTime();
+        sensorFilter.filterGyroscope(f.getGyro(), f.getFilteredGyro());
+        orientationSource.predict(f.getFilteredGyro(), f.getTimestamp());
+        predictNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * 方向阶段：修正步和回调按间隔执行
+     */
+    private void orientationStage(SensorFrame f) {
+        long timestamp = f.getTimestamp();
+        boolean rawSensors = hasRawSensors(f);
+        if (rawSensors) {
+            eligibleCount++;
+        }
+        if (timestamp - lastPublishTimestamp >= orientationIntervalMs) {
+            if (rawSensors) {
+                correctOrientation(timestamp);
+            }
+            publishOrientation(timestamp);
+        }
+    }
+
+    /**
+     * 处理旋转矢量传感器数据
+     * @param rotationVector 旋转矢量 [x,y,z,(w)]
+     * @param timestamp 时间戳(毫秒)
+     */
+    public void processRotationVector(float[] rotationVector, long timestamp) {
+        if (orientationSource.requiresRawSensors()) return;
+
+        orientationSource.onRotationVector(rotationVector, timestamp);
+        if (timestamp - lastPublishTimestamp >= orientationIntervalMs) {
+            publishOrientation(timestamp);
+        }
+    }
+
+    private boolean hasRawSensors(SensorFrame f) {
+        return orientationSource.requiresRawSensors() && f.hasMag() && f.hasGyro();
+    }
+
+    /**
+     * 修正步：磁力计校正、滤波，并用加速度计/磁力计修正姿态
+     */
+    private void correctOrientation(long timestamp) {
+        long start = System.nanoTime();
+
+        // 先做硬铁/软铁校正，再滤波
+        magnetometerCalibrator.apply(frame.getMag(), calibratedMag);
+        sensorFilter.filterMagneticField(calibratedMag, calibratedMag);
+
+        orientationSource.correct(frame.getFilteredAccel(), calibratedMag, timestamp);
+
+        correctNanos += System.nanoTime() - start;
+        correctionCount++;
+    }
+
+    /**
+     * 通过回调发布当前方向
+     */
+    private void publishOrientation(long timestamp) {
+        lastPublishTimestamp = timestamp;
+        publishCount++;
+        if (callback != null) {
+            callback.onOrientationCalculated(orientationSource.getAzimuth());
+        }
     }
 
     /**
@@ -140,6 +383,20 @@ public class SensorDataManager {
         // 动态估计步长
         currentStepLength = stepLengthEstimator.estimateStepLength(accelMagnitude);
 
+        // 步伐事件需要最新的方向，先于步长回调发布
+        long timestamp = lastTimestamp;
+        if (hasFrame) {
+            timestamp = frame.getTimestamp();
+            if (hasRawSensors(frame)) {
+                correctOrientation(timestamp);
+            }
+            publishOrientation(timestamp);
+        }
+
+        // 步长和方向作为一个事件发给位置处理，不经过 LiveData
+        callback.onStepEvent(StepEvent.obtain(timestamp, currentStepLength,
+                orientationSource.getAzimuth(), stepCount, stepDetector.getLastStepConfidence()));
+
         // 通知回调
         callback.onStepDetected(stepCount);
         callback.onStepLengthCalculated(currentStepLength);
@@ -150,7 +407,15 @@ public class SensorDataManager {
      * @param gpsBearing GPS方位角(度)
      */
     public void calibrateWithGps(float gpsBearing) {
-        orientationCalculator.calibrateWithGps(gpsBearing);
+        orientationSource.calibrateWithGps(gpsBearing);
+    }
+
+    /**
+     * 为降低功耗暂停的传感器已恢复，滤波器和姿态从暂停前的状态继续
+     * @param timestamp 恢复时刻(毫秒)
+     */
+    public void onSensorsResumed(long timestamp) {
+        orientationSource.onSensorsResumed(timestamp);
     }
 
     /**
@@ -158,8 +423,10 @@ public class SensorDataManager {
      */
     public void reset() {
         stepDetector.reset();
-        orientationCalculator.reset();
+        orientationSource.reset();
+        stepLengthEstimator.resetCalibrationSegment();
         lastTimestamp = 0;
+        lastPublishTimestamp = 0;
     }
 
     /**
@@ -0,0 +1,47 @@
+package com.dylanlxlx.instameasure.domain;
+
+/**
+ * 处理图中流动的传感器帧
+ * <p>
+ * 整个处理图只使用一个帧对象：每个样本到达时覆盖写入原始数据，各阶段把中间结果写入
+ * 帧中预分配的数组，后面的阶段和消费者直接读取，不复制也不分配内存。
+ * 帧只在处理线程上有效，消费者需要跨线程保存数据时必须自行复制。
+ */
+public class SensorFrame {
+    private long timestamp;                                 // 样本时间(毫秒，开机时间基准)
+    private final float[] accel = new float[3];             // 原始加速度
+    private final float[] filteredAccel = new float[3];     // 滤波后的加速度
+    private final float[] gyro = new float[3];              // 原始陀螺仪
+    private final float[] filteredGyro = new float[3];      // 滤波后的陀螺仪
+    private final float[] mag = new float[3];               // 原始磁力计
+    private boolean hasGyro;
+    private boolean hasMag;
+
+    /**
+     * 写入一个新样本
+     * @param gyroscope 陀螺仪，可以为 null
+     * @param magnetometer 磁力计，可以为 null
+     */
+    void set(long timestamp, float[] accelerometer, float[] gyroscope, float[] magnetometer) {
+        this.timestamp = timestamp;
+        System.arraycopy(accelerometer, 0, accel, 0, 3);
+        hasGyro = gyroscope != null;
+        if (hasGyro) {
+            System.arraycopy(gyroscope, 0, gyro, 0, 3);
+        }
+        hasMag = magnetometer != null;
+        if (hasMag) {
+            System.arraycopy(magnetometer, 0, mag, 0, 3);
+        }
+    }
+
+    // Getters，返回的数组会被下一个样本覆盖
+    public long getTimestamp() { return timestamp; }
+    public float[] getAccel() { return accel; }
+    public float[] getFilteredAccel() { return filteredAccel; }
+    public float[] getGyro() { return gyro; }
+    public float[] getFilteredGyro() { return filteredGyro; }
+    public float[] getMag() { return mag; }
+    public boolean hasGyro() { return hasGyro; }
+    public boolean hasMag() { return hasMag; }
+}
@@ -1,5 +1,7 @@
 package com.dylanlxlx.instameasure.model;
 
+import com.dylanlxlx.instameasure.utils.PolygonGeometry;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Date;
@@ -7,6 +9,8 @@ import java.util.Date;
 /**
  * AR测量结果模型
  * 保存测量点、距离和面积信息
+ * 几何量由 {@link PolygonGeometry} 增量维护：面积在最小二乘拟合平面上计算，
+ * 适用于地面、墙面和斜面；添加或移动点时只重新计算相邻的边
  */
 public class ArMeasurementResult {
     private List<MeasurementPoint> points;  // 测量点列表
@@ -16,6 +20,7 @@ public class ArMeasurementResult {
     private boolean isClosed;               // 是否闭合
     private Date timestamp;                 // 测量时间
     private String name;                    // 测量名称
+    private final PolygonGeometry geometry = new PolygonGeometry();
 
     public ArMeasurementResult() {
         this.points = new ArrayList<>();
@@ -36,17 +41,39 @@ public class ArMeasurementResult {
         if (isClosed) return;
 
         points.add(point);
+        float[] position = point.getPosition();
+        geometry.addPoint(position[0], position[1], position[2]);
 
         // 如果有两个及以上的点，计算新距离
         if (points.size() > 1) {
-            float newDistance = calculateDistance(
-                    points.get(points.size() - 2),
-                    points.get(points.size() - 1)
-            );
+            distances.add((float) geometry.getEdgeLength(points.size() - 2));
+            totalDistance = (float) geometry.getPerimeter(false);
+        }
+    }
+
+    /**
+     * 更新测量点的位置(例如锚点位姿被ARCore修正后)
+     * 只重新计算与该点相邻的边，闭合时同时更新面积
+     * @param index 点序号
+     * @param x 世界坐标x
+     * @param y 世界坐标y
+     * @param z 世界坐标z
+     */
+    public void setPoint(int index, float x, float y, float z) {
+        points.get(index).updatePosition(x, y, z);
+        geometry.setPoint(index, x, y, z);
 
-            distances.add(newDistance);
-            totalDistance += newDistance;
+        if (index > 0) {
+            distances.set(index - 1, (float) geometry.getEdgeLength(index - 1));
+        }
+        if (index < points.size() - 1) {
+            distances.set(index, (float) geometry.getEdgeLength(index));
+        }
+        if (isClosed) {
+            distances.set(distances.size() - 1, (float) geometry.getClosingEdgeLength());
+            area = (float) geometry.getArea();
         }
+        totalDistance = (float) geometry.getPerimeter(isClosed);
     }
 
     /**
@@ -56,17 +83,14 @@ public class ArMeasurementResult {
         if (points.size() < 3 || isClosed) return;
 
         // 计算从最后一点到第一点的距离
-        float closingDistance = calculateDistance(
-                points.get(points.size() - 1),
-                points.get(0)
-        );
+        float closingDistance = (float) geometry.getClosingEdgeLength();
 
         distances.add(closingDistance);
-        totalDistance += closingDistance;
+        totalDistance = (float) geometry.getPerimeter(true);
         isClosed = true;
 
         // 计算面积
-        calculateArea();
+        area = (float) geometry.getArea();
     }
 
     /**
@@ -77,10 +101,7 @@ public class ArMeasurementResult {
     public boolean tryAutoClose(float threshold) {
         if (points.size() < 3 || isClosed) return false;
 
-        MeasurementPoint firstPoint = points.get(0);
-        MeasurementPoint lastPoint = points.get(points.size() - 1);
-
-        float distance = calculateDistance(firstPoint, lastPoint);
+        double distance = geometry.getClosingEdgeLength();
 
         if (distance <= threshold) {
             closeArea();
@@ -90,47 +111,6 @@ public class ArMeasurementResult {
         return false;
     }
 
-    /**
-     * 计算两个测量点之间的3D距离
-     */
-    private float calculateDistance(MeasurementPoint p1, MeasurementPoint p2) {
-        float[] pos1 = p1.getPosition();
-        float[] pos2 = p2.getPosition();
-
-        return (float) Math.sqrt(
-                Math.pow(pos2[0] - pos1[0], 2) +
-                        Math.pow(pos2[1] - pos1[1], 2) +
-                        Math.pow(pos2[2] - pos1[2], 2)
-        );
-    }
-
-    /**
-     * 计算3D多边形面积
-     */
-    private void calculateArea() {
-        if (points.size() < 3) return;
-
-        // 获取所有点的3D坐标
-        List<float[]> coords = new ArrayList<>();
-        for (MeasurementPoint point : points) {
-            coords.add(point.getPosition());
-        }
-
-        // 找到最佳投影平面
-        // 这里简化为假设XZ平面(地面平面)
-        float area = 0;
-
-        for (int i = 0; i < points.size(); i++) {
-            float[] p1 = points.get(i).getPosition();
-            float[] p2 = points.get((i + 1) % points.size()).getPosition();
-
-            // 使用鞋带公式
-            area += (p1[0] * p2[2] - p2[0] * p1[2]);
-        }
-
-        this.area = Math.abs(area) / 2.0f;
-    }
-
     /**
      * 重置测量结果
      */
@@ -142,6 +122,7 @@ public class ArMeasurementResult {
 
         points.clear();
         distances.clear();
+        geometry.clear();
         totalDistance = 0f;
         area = 0f;
         isClosed = false;
@@ -154,11 +135,11 @@ public class ArMeasurementResult {
     public Measurement toMeasurement() {
         List<TrajectoryPoint> trajectoryPoints = new ArrayList<>();
 
-        // 将3D点转换为2D轨迹点
-        for (MeasurementPoint point : points) {
-            float[] pos = point.getPosition();
-            // 使用x,z坐标作为平面坐标
-            trajectoryPoints.add(new TrajectoryPoint(pos[0], pos[2]));
+        // 将3D点转换为拟合平面内的2D轨迹点
+        double[] planeCoordinates = new double[2];
+        for (int i = 0; i < points.size(); i++) {
+            geometry.getPlaneCoordinates(i, planeCoordinates);
+            trajectoryPoints.add(new TrajectoryPoint(planeCoordinates[0], planeCoordinates[1]));
         }
 
         // 如果已闭合，确保轨迹也闭合
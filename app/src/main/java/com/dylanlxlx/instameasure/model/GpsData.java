@@ -12,12 +12,25 @@ public class GpsData {
     private final float accuracy;     // 精度（米）
     private final float speed;        // 速度（米/秒）
     private final float bearing;      // 方位角（度）
-    private final long timestamp;     // 时间戳
+    private final long timestamp;     // 定位时间（毫秒，开机时间基准，与步伐事件一致）
     private final int satelliteCount; // 卫星数量
+    private final double localX;      // 本地东向坐标（米），未投影时为 NaN
+    private final double localY;      // 本地北向坐标（米），未投影时为 NaN
 
     public GpsData(double latitude, double longitude, double altitude,
                    float accuracy, float speed, float bearing,
                    long timestamp, int satelliteCount) {
+        this(latitude, longitude, altitude, accuracy, speed, bearing, timestamp, satelliteCount,
+                Double.NaN, Double.NaN);
+    }
+
+    /**
+     * @param localX 本地东向坐标（米），由处理定位时的投影给出
+     * @param localY 本地北向坐标（米）
+     */
+    public GpsData(double latitude, double longitude, double altitude,
+                   float accuracy, float speed, float bearing,
+                   long timestamp, int satelliteCount, double localX, double localY) {
         this.latitude = latitude;
         this.longitude = longitude;
         this.altitude = altitude;
@@ -26,6 +39,8 @@ public class GpsData {
         this.bearing = bearing;
         this.timestamp = timestamp;
         this.satelliteCount = satelliteCount;
+        this.localX = localX;
+        this.localY = localY;
     }
 
     // Getters
@@ -37,4 +52,7 @@ public class GpsData {
     public float getBearing() { return bearing; }
     public long getTimestamp() { return timestamp; }
     public int getSatelliteCount() { return satelliteCount; }
+    public double getLocalX() { return localX; }
+    public double getLocalY() { return localY; }
+    public boolean hasLocalCoordinates() { return !Double.isNaN(localX); }
 }
\ No newline at end of file
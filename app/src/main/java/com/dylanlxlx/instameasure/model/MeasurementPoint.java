@@ -1,6 +1,7 @@
 package com.dylanlxlx.instameasure.model;
 
 import com.google.ar.core.Anchor;
+import com.google.ar.core.Pose;
 import com.google.ar.sceneform.AnchorNode;
 import com.google.ar.sceneform.math.Vector3;
 import com.google.ar.sceneform.rendering.Color;
@@ -20,6 +21,12 @@ public class MeasurementPoint {
         this.anchor = anchor;
         this.position = new float[3];
 
+        // 以锚点位姿作为初始位置，保证加入测量结果时即可计算距离
+        if (anchor != null) {
+            Pose pose = anchor.getPose();
+            updatePosition(pose.tx(), pose.ty(), pose.tz());
+        }
+
         // 默认颜色 - 首个点为绿色，其他为红色
         this.color = (id == 0) ? new Color(0f, 1f, 0f) : new Color(1f, 0f, 0f);
     }
@@ -29,6 +36,13 @@ public class MeasurementPoint {
         this.position = position;
     }
 
+    // 原地更新点的3D位置，避免每帧分配数组
+    public void updatePosition(float x, float y, float z) {
+        position[0] = x;
+        position[1] = y;
+        position[2] = z;
+    }
+
     // 从AnchorNode获取3D位置
     public void updatePositionFromAnchorNode() {
         if (anchorNode != null) {
@@ -0,0 +1,56 @@
+package com.dylanlxlx.instameasure.model;
+
+import java.util.Locale;
+
+// 方向计算流水线的运行统计(不可变快照)
+public class OrientationMetrics {
+    private final long sampleCount;       // 处理的传感器样本数
+    private final long eligibleCount;     // 可以执行修正的样本数(软件融合方向源且有陀螺仪和磁力计)
+    private final long correctionCount;   // 执行的加速度计/磁力计修正次数
+    private final long publishCount;      // 发布方向结果的次数
+    private final long predictNanos;      // 陀螺仪预测累计耗时(纳秒)
+    private final long correctNanos;      // 修正累计耗时(纳秒)
+
+    public OrientationMetrics(long sampleCount, long eligibleCount, long correctionCount,
+                              long publishCount, long predictNanos, long correctNanos) {
+        this.sampleCount = sampleCount;
+        this.eligibleCount = eligibleCount;
+        this.correctionCount = correctionCount;
+        this.publishCount = publishCount;
+        this.predictNanos = predictNanos;
+        this.correctNanos = correctNanos;
+    }
+
+    // Getters
+    public long getSampleCount() { return sampleCount; }
+    public long getEligibleCount() { return eligibleCount; }
+    public long getCorrectionCount() { return correctionCount; }
+    public long getPublishCount() { return publishCount; }
+    public long getPredictNanos() { return predictNanos; }
+    public long getCorrectNanos() { return correctNanos; }
+
+    /**
+     * 单次修正的平均耗时(纳秒)
+     */
+    public long getAverageCorrectionNanos() {
+        return correctionCount > 0 ? correctNanos / correctionCount : 0;
+    }
+
+    /**
+     * 估算因降频而省下的修正耗时(纳秒)
+     * 即每个可修正的样本都执行修正时的耗时减去实际耗时；
+     * 旋转矢量方向源或缺少陀螺仪/磁力计的样本本来就不会修正，不计入
+     */
+    public long getEstimatedSavedNanos() {
+        long skipped = Math.max(0, eligibleCount - correctionCount);
+        return skipped * getAverageCorrectionNanos();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "samples=%d eligible=%d corrections=%d publishes=%d predict=%.1fms correct=%.1fms saved~%.1fms",
+                sampleCount, eligibleCount, correctionCount, publishCount,
+                predictNanos / 1e6, correctNanos / 1e6, getEstimatedSavedNanos() / 1e6);
+    }
+}
@@ -0,0 +1,72 @@
+package com.dylanlxlx.instameasure.model;
+
+/**
+ * 步伐事件
+ * 在检测到步伐的同一时刻记录步长和方向，作为一个整体交给位置处理，避免分别读取 LiveData 时
+ * 被合并或取到不同时刻的值。
+ * <p>
+ * 事件对象来自对象池：通过 {@link #obtain} 获取，最终接收方处理完后调用 {@link #recycle} 归还。
+ * 对象池可在任意线程访问。
+ */
+public class StepEvent {
+    private static final int MAX_POOL_SIZE = 16;
+    private static final Object POOL_LOCK = new Object();
+    private static StepEvent pool;
+    private static int poolSize = 0;
+
+    private long timestamp;     // 步伐时间(毫秒，开机时间基准)
+    private float stepLength;   // 步长(米)
+    private float heading;      // 方向(度，0=北，90=东)
+    private int stepIndex;      // 累计步数
+    private float confidence;   // 检测置信度 [0,1]
+
+    private StepEvent next;
+
+    private StepEvent() {
+    }
+
+    /**
+     * 从对象池获取一个事件并填充数据
+     */
+    public static StepEvent obtain(long timestamp, float stepLength, float heading,
+                                   int stepIndex, float confidence) {
+        StepEvent event = null;
+        synchronized (POOL_LOCK) {
+            if (pool != null) {
+                event = pool;
+                pool = event.next;
+                event.next = null;
+                poolSize--;
+            }
+        }
+        if (event == null) {
+            event = new StepEvent();
+        }
+        event.timestamp = timestamp;
+        event.stepLength = stepLength;
+        event.heading = heading;
+        event.stepIndex = stepIndex;
+        event.confidence = confidence;
+        return event;
+    }
+
+    /**
+     * 归还到对象池，调用后不能再使用该事件
+     */
+    public void recycle() {
+        synchronized (POOL_LOCK) {
+            if (poolSize < MAX_POOL_SIZE) {
+                next = pool;
+                pool = this;
+                poolSize++;
+            }
+        }
+    }
+
+    // Getters
+    public long getTimestamp() { return timestamp; }
+    public float getStepLength() { return stepLength; }
+    public float getHeading() { return heading; }
+    public int getStepIndex() { return stepIndex; }
+    public float getConfidence() { return confidence; }
+}
@@ -9,28 +9,36 @@ import android.location.LocationManager;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.lifecycle.Observer;
 
 import com.dylanlxlx.instameasure.data.repository.GpsRepository;
 import com.dylanlxlx.instameasure.data.repository.LocationRepository;
 import com.dylanlxlx.instameasure.data.repository.SensorRepository;
 import com.dylanlxlx.instameasure.domain.GpsDataManager;
 import com.dylanlxlx.instameasure.model.GpsData;
+import com.dylanlxlx.instameasure.utils.GpsUpdateScheduler;
 
 /**
  * 位置服务
  * 负责GPS定位和轨迹跟踪
+ * 定位请求间隔由 {@link GpsUpdateScheduler} 根据步行速度、融合滤波器的不确定性和行走状态调整
  */
 public class LocationService extends Service implements LocationListener, GpsDataManager.GpsDataCallback {
     private static final String TAG = LocationService.class.getSimpleName();
-    private static final long MIN_TIME_MS = 1000; // 1秒
     private static final float MIN_DISTANCE_M = 0.5f; // 0.5米
+    private static final long RESCHEDULE_PERIOD_MS = 2000; // 重新评估请求间隔的周期
+    private static final long MAX_LAST_KNOWN_AGE_MS = 10_000; // 可作为原点的最近已知定位的最长时间
+    private static final float MAX_LAST_KNOWN_ACCURACY_M = 20f; // 可作为原点的最近已知定位的最大误差(米)
 
     private LocationManager locationManager;
     private GpsRepository gpsRepository;
@@ -38,10 +46,25 @@ public class LocationService extends Service implements LocationListener, GpsDat
     private SensorRepository sensorRepository;
     private GpsDataManager gpsDataManager;
 
-    private Location lastLocation;
     private boolean isTracking = false;
     private int satelliteCount = 0;
 
+    // 定位请求间隔调度
+    private final GpsUpdateScheduler scheduler = new GpsUpdateScheduler();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private long requestedIntervalMs = GpsUpdateScheduler.PAUSED;
+    private final Observer<String> walkingStateObserver = state -> {
+        scheduler.setStill("STILL".equals(state), SystemClock.elapsedRealtime());
+        rescheduleUpdates();
+    };
+    private final Runnable rescheduleTask = new Runnable() {
+        @Override
+        public void run() {
+            rescheduleUpdates();
+            handler.postDelayed(this, RESCHEDULE_PERIOD_MS);
+        }
+    };
+
     // GNSS状态监听器（适用于API 24及以上）
     @RequiresApi(api = Build.VERSION_CODES.N)
     private final GnssStatus.Callback gnssStatusCallback = new GnssStatus.Callback() {
@@ -82,6 +105,9 @@ public class LocationService extends Service implements LocationListener, GpsDat
         // 初始化GPS数据管理器
         gpsDataManager = new GpsDataManager(this);
 
+        // 静止时暂停定位
+        sensorRepository.getWalkingState().observeForever(walkingStateObserver);
+
         // 注册GNSS状态监听器（适用于API 24及以上）
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             try {
@@ -116,6 +142,8 @@ public class LocationService extends Service implements LocationListener, GpsDat
     public void onDestroy() {
         super.onDestroy();
         stopTracking();
+        sensorRepository.getWalkingState().removeObserver(walkingStateObserver);
+        Log.d(TAG, "GPS request intervals: " + scheduler.getSummary(SystemClock.elapsedRealtime()));
 
         // 注销GNSS状态监听器（适用于API 24及以上）
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
@@ -135,21 +163,21 @@ public class LocationService extends Service implements LocationListener, GpsDat
     public void startTracking() {
         if (locationManager != null && !isTracking) {
             try {
-                // 请求位置更新
-                locationManager.requestLocationUpdates(
-                        LocationManager.GPS_PROVIDER,
-                        MIN_TIME_MS,
-                        MIN_DISTANCE_M,
-                        this
-                );
+                // 先以最快间隔请求位置更新，之后由调度器调整
+                // 观察者只在行走状态变化时回调，开始时的状态直接取当前值
+                scheduler.reset(SystemClock.elapsedRealtime(),
+                        "STILL".equals(sensorRepository.getWalkingState().getValue()));
+                requestUpdates(scheduler.getIntervalMs());
                 isTracking = true;
+                handler.postDelayed(rescheduleTask, RESCHEDULE_PERIOD_MS);
                 Log.d(TAG, "Started location tracking");
 
-                // 获取当前位置初始化轨迹
+                // 重置滤波器，本次跟踪的第一个定位成为本地坐标原点
+                gpsDataManager.resetFilters();
+
+                // 最近已知定位足够新且足够准时直接作为原点，否则等待开始跟踪后的第一个定位
                 Location location = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
-                if (location != null) {
-                    lastLocation = location;
-                    // 处理初始GPS位置
+                if (isRecentFix(location)) {
                     gpsDataManager.processGpsLocation(location);
                     // 清除轨迹点
                     locationRepository.clearTrajectoryPoints();
@@ -162,13 +190,28 @@ public class LocationService extends Service implements LocationListener, GpsDat
         }
     }
 
+    /**
+     * 最近已知定位可能是几分钟甚至几小时前、几公里外的，作为原点会让之后的轨迹整体偏移
+     */
+    private boolean isRecentFix(Location location) {
+        if (location == null || !location.hasAccuracy()
+                || location.getAccuracy() > MAX_LAST_KNOWN_ACCURACY_M) {
+            return false;
+        }
+        long ageMs = (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1_000_000L;
+        return ageMs >= 0 && ageMs <= MAX_LAST_KNOWN_AGE_MS;
+    }
+
     /**
      * 停止GPS定位跟踪
      */
     public void stopTracking() {
         if (locationManager != null && isTracking) {
             try {
+                handler.removeCallbacks(rescheduleTask);
                 locationManager.removeUpdates(this);
+                requestedIntervalMs = GpsUpdateScheduler.PAUSED;
+                scheduler.stop(SystemClock.elapsedRealtime());
                 isTracking = false;
                 Log.d(TAG, "Stopped location tracking");
             } catch (SecurityException e) {
@@ -177,6 +220,46 @@ public class LocationService extends Service implements LocationListener, GpsDat
         }
     }
 
+    /**
+     * 根据当前速度、融合精度和行走状态重新评估请求间隔
+     */
+    private void rescheduleUpdates() {
+        if (!isTracking) return;
+
+        LocationRepository.Snapshot snapshot = locationRepository.getSnapshot();
+        if (scheduler.update(SystemClock.elapsedRealtime(), snapshot.getSpeed(), snapshot.getAccuracy())) {
+            try {
+                requestUpdates(scheduler.getIntervalMs());
+            } catch (SecurityException e) {
+                Log.e(TAG, "Location permission denied", e);
+            }
+        }
+    }
+
+    /**
+     * 以新的间隔请求位置更新，{@link GpsUpdateScheduler#PAUSED} 表示暂停
+     */
+    private void requestUpdates(long intervalMs) {
+        if (intervalMs == requestedIntervalMs) return;
+
+        // 同一个监听器需要先移除才能修改间隔
+        if (requestedIntervalMs != GpsUpdateScheduler.PAUSED) {
+            locationManager.removeUpdates(this);
+        }
+        if (intervalMs != GpsUpdateScheduler.PAUSED) {
+            locationManager.requestLocationUpdates(
+                    LocationManager.GPS_PROVIDER,
+                    intervalMs,
+                    MIN_DISTANCE_M,
+                    this
+            );
+            Log.d(TAG, "GPS request interval: " + intervalMs + " ms");
+        } else {
+            Log.d(TAG, "GPS paused while still");
+        }
+        requestedIntervalMs = intervalMs;
+    }
+
     /**
      * 开始GPS跟踪
      */
@@ -238,34 +321,13 @@ public class LocationService extends Service implements LocationListener, GpsDat
         // 更新GPS数据到存储库
         gpsData = updateSatelliteCount(gpsData);
         gpsRepository.updateGpsData(gpsData);
+        scheduler.onFix(gpsData.getAccuracy());
 
-        // 创建Location对象用于计算位移
-        Location newLocation = new Location("gps");
-        newLocation.setLatitude(gpsData.getLatitude());
-        newLocation.setLongitude(gpsData.getLongitude());
-
-        if (lastLocation != null) {
-            // 计算从上一个位置的位移
-            float[] results = new float[3];
-            Location.distanceBetween(
-                    lastLocation.getLatitude(), lastLocation.getLongitude(),
-                    newLocation.getLatitude(), newLocation.getLongitude(),
-                    results
-            );
-
-            float distance = results[0]; // 距离（米）
-            float bearing = results[1]; // 方位角（度）
-
-            // 计算东向和北向位移
-            float dx = (float)(distance * Math.sin(Math.toRadians(bearing)));
-            float dy = (float)(distance * Math.cos(Math.toRadians(bearing)));
-
-            // 添加轨迹点
-            locationRepository.addTrajectoryPoint(dx, dy);
-        }
+        // 使用高精度GPS分段在线校准步长
+        sensorRepository.calibrateStepLengthWithGps(gpsData);
 
-        // 更新最后位置
-        lastLocation = newLocation;
+        // 本地坐标在滤波时已经投影(原点为本次跟踪的第一个定位)，直接作为轨迹点
+        locationRepository.addTrajectoryPoint(gpsData.getLocalX(), gpsData.getLocalY());
     }
 
     @Override
@@ -286,7 +348,9 @@ public class LocationService extends Service implements LocationListener, GpsDat
                     gpsData.getSpeed(),
                     gpsData.getBearing(),
                     gpsData.getTimestamp(),
-                    satelliteCount
+                    satelliteCount,
+                    gpsData.getLocalX(),
+                    gpsData.getLocalY()
             );
         }
         return gpsData;
@@ -1,24 +1,36 @@
 package com.dylanlxlx.instameasure.service;
 
+import android.Manifest;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
 import android.os.Binder;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.lifecycle.Observer;
 
+import com.dylanlxlx.instameasure.domain.FusionOrientationSource;
+import com.dylanlxlx.instameasure.domain.RotationVectorOrientationSource;
 import com.dylanlxlx.instameasure.model.SensorData;
+import com.dylanlxlx.instameasure.utils.SensorPowerPolicy;
+import com.dylanlxlx.instameasure.utils.SensorResampler;
 import com.dylanlxlx.instameasure.data.repository.SensorRepository;
 
 /**
  * 用于在后台收集传感器数据的服务。
  * 处理数据并将其传递到 SensorRepository。
+ * 长时间静止时由 {@link SensorPowerPolicy} 逐级降低采样率、注销传感器，
+ * 依靠硬件步伐检测或显著运动传感器唤醒。
  */
 public class SensorService extends Service implements SensorEventListener {
     private static final String TAG = SensorService.class.getSimpleName();
@@ -28,14 +40,44 @@ public class SensorService extends Service implements SensorEventListener {
     private Sensor accelerometerSensor;
     private Sensor magneticFieldSensor;
     private Sensor gyroscopeSensor;
+    private Sensor rotationVectorSensor;
+    private Sensor stepDetectorSensor;       // 低功耗档位的唤醒传感器
+    private Sensor significantMotionSensor;  // 步伐检测传感器不可用或未授权时的唤醒传感器
+
+    // 是否使用硬件融合的旋转矢量计算方向
+    private boolean useRotationVector = false;
+    // 是否需要原始磁力计/陀螺仪数据流(例如图表界面)
+    private boolean rawSensorStreamsEnabled = false;
+    private boolean rawSensorsRegistered = false;
 
     // Repository
     private SensorRepository sensorRepository;
 
-    // 原始传感器数据存储
-    private float[] accelerometerValues = null;
-    private float[] magneticValues = null;
-    private float[] gyroscopeValues = null;
+    // 融合帧周期(毫秒)，与 SENSOR_DELAY_GAME 的名义间隔一致
+    private static final long FRAME_PERIOD_MS = 20;
+
+    // IDLE 档位的融合帧周期，与 SENSOR_DELAY_UI 的名义间隔一致
+    private static final long IDLE_FRAME_PERIOD_MS = 66;
+
+    // 把各传感器的事件按时间对齐，每个节拍输出一帧
+    private final SensorResampler resampler = new SensorResampler(FRAME_PERIOD_MS, this::onResampledFrame);
+
+    // 根据行走状态切换功耗档位
+    private final SensorPowerPolicy powerPolicy = new SensorPowerPolicy(this::applyPowerTier);
+    private final Observer<String> walkingStateObserver =
+            state -> powerPolicy.onWalkingStateChanged(state, SystemClock.elapsedRealtime());
+    private boolean wakeSensorArmed = false;
+    // 步伐检测传感器需要 ACTIVITY_RECOGNITION 权限，没有授权时注册不会报错但永远不会触发
+    private boolean useStepDetector = false;
+
+    // 显著运动传感器是一次性的，触发后自动取消
+    private final TriggerEventListener significantMotionListener = new TriggerEventListener() {
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            wakeSensorArmed = false;
+            powerPolicy.onWakeEvent(SystemClock.elapsedRealtime());
+        }
+    };
 
     @Override
     public void onCreate() {
@@ -51,6 +93,8 @@ public class SensorService extends Service implements SensorEventListener {
 
     /**
      * 初始化和注册传感器
+     * 设备支持 TYPE_ROTATION_VECTOR 时只订阅加速度计(计步)和旋转矢量，
+     * 否则订阅加速度计、磁力计和陀螺仪，在Java中融合
      */
     private void initializeSensors() {
         sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
@@ -59,8 +103,19 @@ public class SensorService extends Service implements SensorEventListener {
         accelerometerSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         magneticFieldSensor = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
         gyroscopeSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        // GAME_ROTATION_VECTOR 没有磁北参考，不能直接给出方位角，因此只使用 ROTATION_VECTOR
+        rotationVectorSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        stepDetectorSensor = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR);
+        significantMotionSensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+
+        useRotationVector = rotationVectorSensor != null;
+        resampler.setStreamEnabled(SensorResampler.ROTATION_VECTOR, useRotationVector);
+        if (useRotationVector) {
+            sensorRepository.setOrientationSource(new RotationVectorOrientationSource());
+        } else {
+            sensorRepository.setOrientationSource(new FusionOrientationSource());
+        }
 
-        // 为每个传感器注册侦听器
         if (accelerometerSensor != null) {
             sensorManager.registerListener(this, accelerometerSensor, SensorManager.SENSOR_DELAY_GAME);
             Log.d(TAG, "已注册加速度计");
@@ -68,18 +123,174 @@ public class SensorService extends Service implements SensorEventListener {
             Log.e(TAG, "加速度计不可用");
         }
 
-        if (magneticFieldSensor != null) {
-            sensorManager.registerListener(this, magneticFieldSensor, SensorManager.SENSOR_DELAY_GAME);
-            Log.d(TAG, "已注册磁场传感器");
+        if (useRotationVector) {
+            sensorManager.registerListener(this, rotationVectorSensor, SensorManager.SENSOR_DELAY_GAME);
+            Log.d(TAG, "已注册旋转矢量传感器，使用硬件融合方向");
         } else {
-            Log.e(TAG, "磁场传感器不可用");
+            Log.d(TAG, "旋转矢量传感器不可用，使用软件融合方向");
         }
 
-        if (gyroscopeSensor != null) {
-            sensorManager.registerListener(this, gyroscopeSensor, SensorManager.SENSOR_DELAY_GAME);
-            Log.d(TAG, "陀螺仪已注册");
+        updateRawSensorRegistration();
+
+        selectWakeSensor();
+        sensorRepository.getWalkingState().observeForever(walkingStateObserver);
+    }
+
+    /**
+     * 启用或停用原始磁力计/陀螺仪数据流
+     * 使用硬件旋转矢量时这两个传感器默认不订阅，图表界面需要时再开启
+     * @param enabled 是否启用
+     */
+    public void setRawSensorStreamsEnabled(boolean enabled) {
+        rawSensorStreamsEnabled = enabled;
+        // 图表界面需要连续数据，打开期间保持全速率
+        powerPolicy.setPinned(enabled, SystemClock.elapsedRealtime());
+        updateRawSensorRegistration();
+    }
+
+    /**
+     * 根据方向源、界面需求和功耗档位注册或注销磁力计和陀螺仪
+     */
+    private void updateRawSensorRegistration() {
+        if (sensorManager == null) return;
+
+        boolean needed = (!useRotationVector || rawSensorStreamsEnabled)
+                && powerPolicy.getTier() == SensorPowerPolicy.TIER_ACTIVE;
+        if (needed == rawSensorsRegistered) return;
+
+        if (needed) {
+            if (magneticFieldSensor != null) {
+                sensorManager.registerListener(this, magneticFieldSensor, SensorManager.SENSOR_DELAY_GAME);
+                Log.d(TAG, "已注册磁场传感器");
+            } else {
+                Log.e(TAG, "磁场传感器不可用");
+            }
+
+            if (gyroscopeSensor != null) {
+                sensorManager.registerListener(this, gyroscopeSensor, SensorManager.SENSOR_DELAY_GAME);
+                Log.d(TAG, "陀螺仪已注册");
+            } else {
+                Log.e(TAG, "陀螺仪不可用");
+            }
         } else {
-            Log.e(TAG, "陀螺仪不可用");
+            if (magneticFieldSensor != null) {
+                sensorManager.unregisterListener(this, magneticFieldSensor);
+            }
+            if (gyroscopeSensor != null) {
+                sensorManager.unregisterListener(this, gyroscopeSensor);
+            }
+            Log.d(TAG, "已注销磁场传感器和陀螺仪");
+        }
+        rawSensorsRegistered = needed;
+
+        // 只有软件融合需要等待磁力计和陀螺仪的样本
+        resampler.setStreamEnabled(SensorResampler.MAGNETOMETER,
+                needed && !useRotationVector && magneticFieldSensor != null);
+        resampler.setStreamEnabled(SensorResampler.GYROSCOPE,
+                needed && !useRotationVector && gyroscopeSensor != null);
+    }
+
+    /**
+     * 切换功耗档位
+     * 只改变传感器注册和采样率，不重置滤波器、步数检测和姿态
+     */
+    private void applyPowerTier(int previousTier, int tier) {
+        Log.d(TAG, "传感器功耗档位: " + SensorPowerPolicy.getTierName(previousTier)
+                + " -> " + SensorPowerPolicy.getTierName(tier));
+        if (sensorManager == null) return;
+
+        if (previousTier == SensorPowerPolicy.TIER_DORMANT) {
+            // 缓存的是暂停前的样本，不能用来插值
+            resampler.reset();
+        }
+
+        switch (tier) {
+            case SensorPowerPolicy.TIER_ACTIVE:
+                // 先让方向源从暂停前的状态继续，再恢复数据流
+                sensorRepository.onSensorsResumed(SystemClock.elapsedRealtime());
+                registerContinuousSensors(SensorManager.SENSOR_DELAY_GAME, FRAME_PERIOD_MS);
+                updateRawSensorRegistration();
+                setWakeSensorArmed(false);
+                break;
+            case SensorPowerPolicy.TIER_IDLE:
+                updateRawSensorRegistration();
+                registerContinuousSensors(SensorManager.SENSOR_DELAY_UI, IDLE_FRAME_PERIOD_MS);
+                setWakeSensorArmed(true);
+                break;
+            case SensorPowerPolicy.TIER_DORMANT:
+                updateRawSensorRegistration();
+                unregisterContinuousSensors();
+                setWakeSensorArmed(true);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 以指定采样率重新注册加速度计和旋转矢量
+     * 同一个监听器重复注册不会改变采样率，因此先注销
+     */
+    private void registerContinuousSensors(int delay, long framePeriodMs) {
+        unregisterContinuousSensors();
+        if (accelerometerSensor != null) {
+            sensorManager.registerListener(this, accelerometerSensor, delay);
+        }
+        if (useRotationVector) {
+            sensorManager.registerListener(this, rotationVectorSensor, delay);
+        }
+        resampler.setPeriod(framePeriodMs);
+    }
+
+    private void unregisterContinuousSensors() {
+        if (accelerometerSensor != null) {
+            sensorManager.unregisterListener(this, accelerometerSensor);
+        }
+        if (useRotationVector) {
+            sensorManager.unregisterListener(this, rotationVectorSensor);
+        }
+    }
+
+    /**
+     * 选择唤醒传感器：已授权 ACTIVITY_RECOGNITION 时使用步伐检测传感器，否则使用显著运动传感器
+     * 两者都不可用时不允许进入 DORMANT，避免停止数据流后无法唤醒
+     */
+    private void selectWakeSensor() {
+        useStepDetector = stepDetectorSensor != null
+                && checkSelfPermission(Manifest.permission.ACTIVITY_RECOGNITION) == PackageManager.PERMISSION_GRANTED;
+        powerPolicy.setCanSleep(useStepDetector || significantMotionSensor != null,
+                SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * 运动识别权限授权结果变化后重新选择唤醒传感器
+     * 当前处于低功耗档位时换用新的唤醒传感器
+     */
+    public void onActivityRecognitionPermissionChanged() {
+        setWakeSensorArmed(false);
+        selectWakeSensor();
+        setWakeSensorArmed(powerPolicy.getTier() != SensorPowerPolicy.TIER_ACTIVE);
+    }
+
+    /**
+     * 注册或注销唤醒传感器，优先使用步伐检测传感器，其次是显著运动传感器
+     */
+    private void setWakeSensorArmed(boolean armed) {
+        if (armed == wakeSensorArmed) return;
+        wakeSensorArmed = armed;
+
+        if (useStepDetector) {
+            if (armed) {
+                sensorManager.registerListener(this, stepDetectorSensor, SensorManager.SENSOR_DELAY_NORMAL);
+            } else {
+                sensorManager.unregisterListener(this, stepDetectorSensor);
+            }
+        } else if (significantMotionSensor != null) {
+            if (armed) {
+                sensorManager.requestTriggerSensor(significantMotionListener, significantMotionSensor);
+            } else {
+                sensorManager.cancelTriggerSensor(significantMotionListener, significantMotionSensor);
+            }
         }
     }
 
@@ -93,9 +304,15 @@ public class SensorService extends Service implements SensorEventListener {
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "SensorService 已销毁");
+        Log.d(TAG, "方向计算统计: " + sensorRepository.getOrientationMetrics());
+        Log.d(TAG, "处理阶段耗时: " + sensorRepository.getStageTimingReport());
+        Log.d(TAG, "功耗档位时间: " + powerPolicy.getSummary(SystemClock.elapsedRealtime()));
+
+        sensorRepository.getWalkingState().removeObserver(walkingStateObserver);
 
         // 取消注册传感器侦听器
         if (sensorManager != null) {
+            setWakeSensorArmed(false);
             sensorManager.unregisterListener(this);
         }
     }
@@ -117,28 +334,63 @@ public class SensorService extends Service implements SensorEventListener {
     @Override
     public void onSensorChanged(SensorEvent event) {
         int sensorType = event.sensor.getType();
-        float[] values = event.values.clone();
 
-        // 根据传感器类型存储值
-        if (sensorType == Sensor.TYPE_ACCELEROMETER) {
-            accelerometerValues = values;
-        } else if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
-            magneticValues = values;
-        } else if (sensorType == Sensor.TYPE_GYROSCOPE) {
-            gyroscopeValues = values;
+        // 唤醒传感器只用于切换功耗档位
+        if (sensorType == Sensor.TYPE_STEP_DETECTOR) {
+            powerPolicy.onWakeEvent(SystemClock.elapsedRealtime());
+            return;
+        }
+
+        // 每个原始事件带着自己的时间戳分发给图表等监听器
+        // 数组会被系统复用，需要保存的监听器自行复制；没有监听器时不产生任何开销
+        if (sensorType != Sensor.TYPE_ROTATION_VECTOR) {
+            sensorRepository.dispatchRawSample(sensorType, event.timestamp, event.values);
         }
 
-        // 当拥有来自所有传感器的值时处理数据
-        if (accelerometerValues != null && magneticValues != null && gyroscopeValues != null) {
-            SensorData sensorData = new SensorData(
-                    accelerometerValues,
-                    gyroscopeValues,
-                    magneticValues
-            );
+        // 交给重采样器按时间对齐，由 onResampledFrame 统一处理
+        switch (sensorType) {
+            case Sensor.TYPE_ACCELEROMETER:
+                resampler.addSample(SensorResampler.ACCELEROMETER, event.timestamp, event.values);
+                break;
+            case Sensor.TYPE_GYROSCOPE:
+                resampler.addSample(SensorResampler.GYROSCOPE, event.timestamp, event.values);
+                break;
+            case Sensor.TYPE_MAGNETIC_FIELD:
+                resampler.addSample(SensorResampler.MAGNETOMETER, event.timestamp, event.values);
+                break;
+            case Sensor.TYPE_ROTATION_VECTOR:
+                resampler.addSample(SensorResampler.ROTATION_VECTOR, event.timestamp, event.values);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 处理一帧时间对齐的传感器数据
+     * 重采样器会复用数组，传递到其他线程前需要复制
+     */
+    private void onResampledFrame(long timestampNanos, float[] accel, float[] gyro, float[] mag, float[] rotation) {
+        // 事件时间为开机以来的纳秒数，转换为毫秒
+        long timestamp = timestampNanos / 1000000L;
+
+        // 静止时间达到阈值后降低档位
+        powerPolicy.update(SystemClock.elapsedRealtime());
 
-            // 传递到repository进行处理
-            sensorRepository.processSensorData(sensorData);
+        // 旋转矢量直接交给方向源处理
+        if (rotation != null) {
+            sensorRepository.processRotationVector(rotation.clone(), timestamp);
         }
+
+        SensorData sensorData = new SensorData(
+                accel.clone(),
+                gyro != null ? gyro.clone() : null,
+                mag != null ? mag.clone() : null,
+                timestamp
+        );
+
+        // 传递到repository进行处理
+        sensorRepository.processSensorData(sensorData);
     }
 
     @Override
@@ -0,0 +1,451 @@
+package com.dylanlxlx.instameasure.utils;
+
+/**
+ * 四元数姿态航向参考系统(AHRS)
+ * 基于Mahony互补滤波，在完整三维姿态上积分陀螺仪，
+ * 用加速度计修正俯仰/横滚，用磁力计只修正航向。
+ * 预测(陀螺仪积分)与修正(加速度计/磁力计)分开调用，修正可以以较低频率运行。
+ * <pre>
+ * 坐标系: 设备坐标系与Android一致，世界坐标系为东-北-天(ENU)
+ * 四元数 q = [w, x, y, z] 表示设备坐标系到世界坐标系的旋转
+ * </pre>
+ * 不依赖Android API，每次更新不分配内存，可直接在JVM上测试
+ */
+public class AhrsFilter {
+    // 反馈增益
+    private static final float KP = 1.0f;                 // 比例增益
+    private static final float KI = 0.02f;                // 积分增益(陀螺仪零偏估计)
+    private static final float MAX_GYRO_BIAS = 0.1f;      // 零偏估计上限(弧度/秒)
+
+    // 加速度门限：剧烈运动时不信任加速度计的重力方向
+    private static final float GRAVITY = 9.81f;
+    private static final float ACCEL_GATE = 2.5f;         // |a|与g的最大偏差(米/秒²)
+
+    // 静止检测：静止时直接用陀螺仪读数学习零偏
+    private static final float STATIONARY_GYRO = 0.05f;   // 静止判定角速度(弧度/秒)
+    private static final float STATIONARY_ACCEL = 0.3f;   // 静止判定加速度偏差(米/秒²)
+    private static final float STATIONARY_TIME = 1.0f;    // 静止持续时间(秒)
+    private static final float STATIONARY_BIAS_RATE = 0.5f; // 静止时零偏收敛速率(1/秒)
+
+    // 磁场干扰门限：场强或磁倾角偏离参考值时跳过磁力计修正
+    private static final float FIELD_NORM_TOLERANCE = 0.15f; // 场强相对偏差
+    private static final float DIP_TOLERANCE = 0.1f;         // 磁倾角正弦偏差
+    private static final float REFERENCE_RATE = 0.02f;       // 参考值跟踪速率
+    private static final int REFERENCE_WARMUP = 50;          // 建立参考值所需样本数
+
+    private static final float MAX_DT = 0.5f;                // 最大积分步长(秒)
+
+    // 姿态四元数
+    private float q0 = 1f, q1 = 0f, q2 = 0f, q3 = 0f;
+    private boolean initialized = false;
+    private long lastTimestamp = 0;            // 上次预测时间
+    private long lastCorrectionTimestamp = 0;  // 上次修正时间
+
+    // 最近一次陀螺仪读数(弧度/秒)
+    private float lastGx = 0f, lastGy = 0f, lastGz = 0f;
+
+    // 陀螺仪零偏估计(弧度/秒)
+    private float biasX = 0f, biasY = 0f, biasZ = 0f;
+    private float stationaryTime = 0f;
+
+    // 磁场参考值
+    private float referenceFieldNorm = 0f;
+    private float referenceDip = 0f;
+    private int referenceSamples = 0;
+    private boolean magneticDisturbance = false;
+
+    /**
+     * 融合一组传感器数据并计算方位角(预测与修正同频执行)
+     * @param accelerometer 加速度计数据(米/秒²)
+     * @param magnetometer 磁力计数据(微特斯拉)
+     * @param gyroscope 陀螺仪数据(弧度/秒)
+     * @param timestamp 当前时间戳(毫秒)
+     * @return 方位角(0=北，90=东，单位：度)
+     */
+    public float calculateAzimuth(float[] accelerometer, float[] magnetometer,
+                                  float[] gyroscope, long timestamp) {
+        predict(gyroscope, timestamp);
+        return correct(accelerometer, magnetometer, timestamp);
+    }
+
+    /**
+     * 预测步：以陀螺仪全速率积分姿态，开销很小
+     * @param gyroscope 陀螺仪数据(弧度/秒)
+     * @param timestamp 当前时间戳(毫秒)
+     */
+    public void predict(float[] gyroscope, long timestamp) {
+        lastGx = gyroscope[0];
+        lastGy = gyroscope[1];
+        lastGz = gyroscope[2];
+
+        if (!initialized) {
+            lastTimestamp = timestamp;
+            return;
+        }
+
+        float dt = (timestamp - lastTimestamp) / 1000.0f;
+        lastTimestamp = timestamp;
+        if (dt <= 0) {
+            return;
+        }
+        if (dt > MAX_DT) {
+            // 数据中断过久，积分已不可信，等待下一次修正时重新对准
+            initialized = false;
+            return;
+        }
+
+        integrate(lastGx - biasX, lastGy - biasY, lastGz - biasZ, dt);
+    }
+
+    /**
+     * 修正步：用加速度计修正俯仰/横滚，用磁力计修正航向，并更新零偏估计
+     * 可以以低于陀螺仪的频率调用，反馈量按距上次修正的时间缩放
+     * @param accelerometer 加速度计数据(米/秒²)
+     * @param magnetometer 磁力计数据(微特斯拉)
+     * @param timestamp 当前时间戳(毫秒)
+     * @return 方位角(0=北，90=东，单位：度)
+     */
+    public float correct(float[] accelerometer, float[] magnetometer, long timestamp) {
+        if (!initialized) {
+            // 用加速度计和磁力计数据直接求初始姿态，避免从单位四元数缓慢收敛
+            initialized = initialize(accelerometer, magnetometer);
+            lastTimestamp = timestamp;
+            lastCorrectionTimestamp = timestamp;
+            return getAzimuth();
+        }
+
+        float dt = (timestamp - lastCorrectionTimestamp) / 1000.0f;
+        lastCorrectionTimestamp = timestamp;
+        if (dt <= 0) {
+            return getAzimuth();
+        }
+        // 比例反馈不超过一次完全修正
+        dt = Math.min(dt, MAX_DT);
+
+        update(accelerometer[0], accelerometer[1], accelerometer[2],
+                magnetometer[0], magnetometer[1], magnetometer[2], dt);
+        return getAzimuth();
+    }
+
+    /**
+     * Mahony滤波修正
+     * @param dt 距上次修正的时间(秒)
+     */
+    private void update(float ax, float ay, float az,
+                        float mx, float my, float mz, float dt) {
+        float ex = 0f, ey = 0f, ez = 0f;
+
+        float accelNorm = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        boolean accelValid = accelNorm > 0 && Math.abs(accelNorm - GRAVITY) < ACCEL_GATE;
+
+        // 估计的重力方向(机体坐标系)，即旋转矩阵第三行
+        float vx = 2f * (q1 * q3 - q0 * q2);
+        float vy = 2f * (q0 * q1 + q2 * q3);
+        float vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+
+        if (accelValid) {
+            float inv = 1f / accelNorm;
+            float nax = ax * inv, nay = ay * inv, naz = az * inv;
+
+            // 测量重力与估计重力的叉积即为姿态误差
+            ex += nay * vz - naz * vy;
+            ey += naz * vx - nax * vz;
+            ez += nax * vy - nay * vx;
+
+            float fieldNorm = (float) Math.sqrt(mx * mx + my * my + mz * mz);
+            magneticDisturbance = fieldNorm <= 0 || checkMagneticDisturbance(fieldNorm,
+                    (nax * mx + nay * my + naz * mz) / fieldNorm);
+
+            if (!magneticDisturbance) {
+                float invM = 1f / fieldNorm;
+                float nmx = mx * invM, nmy = my * invM, nmz = mz * invM;
+
+                // 旋转矩阵(机体->世界)
+                float r00 = 1f - 2f * (q2 * q2 + q3 * q3);
+                float r01 = 2f * (q1 * q2 - q0 * q3);
+                float r02 = 2f * (q1 * q3 + q0 * q2);
+                float r10 = 2f * (q1 * q2 + q0 * q3);
+                float r11 = 1f - 2f * (q1 * q1 + q3 * q3);
+                float r12 = 2f * (q2 * q3 - q0 * q1);
+
+                // 磁场在世界坐标系中的方向，参考场只保留水平北向分量和垂直分量
+                float hx = r00 * nmx + r01 * nmy + r02 * nmz;
+                float hy = r10 * nmx + r11 * nmy + r12 * nmz;
+                float by = (float) Math.sqrt(hx * hx + hy * hy);
+                float bz = vx * nmx + vy * nmy + vz * nmz;
+
+                // 参考场转回机体坐标系
+                float wx = r10 * by + vx * bz;
+                float wy = r11 * by + vy * bz;
+                float wz = r12 * by + vz * bz;
+
+                float mex = nmy * wz - nmz * wy;
+                float mey = nmz * wx - nmx * wz;
+                float mez = nmx * wy - nmy * wx;
+
+                // 磁力计误差只投影到竖直轴，只修正航向，不影响俯仰/横滚
+                float vertical = mex * vx + mey * vy + mez * vz;
+                ex += vertical * vx;
+                ey += vertical * vy;
+                ez += vertical * vz;
+            }
+        }
+
+        updateGyroBias(lastGx, lastGy, lastGz, accelNorm, ex, ey, ez, accelValid, dt);
+
+        // 比例反馈：把误差作为一次小角度旋转施加到姿态上
+        integrate(KP * ex, KP * ey, KP * ez, dt);
+    }
+
+    /**
+     * 更新陀螺仪零偏估计
+     */
+    private void updateGyroBias(float gx, float gy, float gz, float accelNorm,
+                                float ex, float ey, float ez, boolean accelValid, float dt) {
+        // 积分反馈：持续存在的姿态误差被视为零偏
+        if (accelValid) {
+            biasX = constrain(biasX - KI * ex * dt, MAX_GYRO_BIAS);
+            biasY = constrain(biasY - KI * ey * dt, MAX_GYRO_BIAS);
+            biasZ = constrain(biasZ - KI * ez * dt, MAX_GYRO_BIAS);
+        }
+
+        // 静止检测：设备静止时陀螺仪读数即为零偏
+        float rate = (float) Math.sqrt(gx * gx + gy * gy + gz * gz);
+        if (rate < STATIONARY_GYRO && Math.abs(accelNorm - GRAVITY) < STATIONARY_ACCEL) {
+            stationaryTime += dt;
+        } else {
+            stationaryTime = 0f;
+        }
+        if (stationaryTime > STATIONARY_TIME) {
+            float alpha = Math.min(1f, STATIONARY_BIAS_RATE * dt);
+            biasX = constrain(biasX + alpha * (gx - biasX), MAX_GYRO_BIAS);
+            biasY = constrain(biasY + alpha * (gy - biasY), MAX_GYRO_BIAS);
+            biasZ = constrain(biasZ + alpha * (gz - biasZ), MAX_GYRO_BIAS);
+        }
+    }
+
+    /**
+     * 检测磁场干扰
+     * 比较当前场强和磁倾角(磁场与重力夹角)与慢速跟踪的参考值
+     * @param fieldNorm 场强(微特斯拉)
+     * @param dip 磁场与重力方向夹角的余弦
+     * @return 是否存在磁场干扰
+     */
+    private boolean checkMagneticDisturbance(float fieldNorm, float dip) {
+        if (referenceSamples < REFERENCE_WARMUP) {
+            // 建立参考值期间使用累计平均
+            referenceSamples++;
+            referenceFieldNorm += (fieldNorm - referenceFieldNorm) / referenceSamples;
+            referenceDip += (dip - referenceDip) / referenceSamples;
+            return false;
+        }
+
+        boolean disturbed = Math.abs(fieldNorm - referenceFieldNorm) > FIELD_NORM_TOLERANCE * referenceFieldNorm
+                || Math.abs(dip - referenceDip) > DIP_TOLERANCE;
+
+        // 只在无干扰时跟踪参考值，防止被干扰源带偏
+        if (!disturbed) {
+            referenceFieldNorm += REFERENCE_RATE * (fieldNorm - referenceFieldNorm);
+            referenceDip += REFERENCE_RATE * (dip - referenceDip);
+        }
+        return disturbed;
+    }
+
+    /**
+     * 四元数积分 q' = q + 0.5 * q ⊗ [0, ω] * dt
+     */
+    private void integrate(float gx, float gy, float gz, float dt) {
+        float halfDt = 0.5f * dt;
+        float qa = q0, qb = q1, qc = q2;
+        q0 += (-qb * gx - qc * gy - q3 * gz) * halfDt;
+        q1 += (qa * gx + qc * gz - q3 * gy) * halfDt;
+        q2 += (qa * gy - qb * gz + q3 * gx) * halfDt;
+        q3 += (qa * gz + qb * gy - qc * gx) * halfDt;
+        normalize();
+    }
+
+    /**
+     * 由加速度计和磁力计直接求姿态(与SensorManager.getRotationMatrix相同的构造)
+     * @return 是否成功
+     */
+    private boolean initialize(float[] accelerometer, float[] magnetometer) {
+        float ax = accelerometer[0], ay = accelerometer[1], az = accelerometer[2];
+        float mx = magnetometer[0], my = magnetometer[1], mz = magnetometer[2];
+
+        // 东向 = 磁场 × 重力
+        float hx = my * az - mz * ay;
+        float hy = mz * ax - mx * az;
+        float hz = mx * ay - my * ax;
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        float normA = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        if (normH < 0.1f || normA < 0.1f) {
+            // 自由落体或磁场无效
+            return false;
+        }
+        hx /= normH; hy /= normH; hz /= normH;
+        ax /= normA; ay /= normA; az /= normA;
+
+        // 北向 = 重力 × 东向
+        float nx = ay * hz - az * hy;
+        float ny = az * hx - ax * hz;
+        float nz = ax * hy - ay * hx;
+
+        // 旋转矩阵各行分别为东、北、天方向在机体坐标系中的表示
+        setFromRotationMatrix(hx, hy, hz, nx, ny, nz, ax, ay, az);
+        return true;
+    }
+
+    /**
+     * 旋转矩阵转四元数
+     */
+    private void setFromRotationMatrix(float r00, float r01, float r02,
+                                       float r10, float r11, float r12,
+                                       float r20, float r21, float r22) {
+        float trace = r00 + r11 + r22;
+        if (trace > 0) {
+            float s = 0.5f / (float) Math.sqrt(trace + 1f);
+            q0 = 0.25f / s;
+            q1 = (r21 - r12) * s;
+            q2 = (r02 - r20) * s;
+            q3 = (r10 - r01) * s;
+        } else if (r00 > r11 && r00 > r22) {
+            float s = 2f * (float) Math.sqrt(1f + r00 - r11 - r22);
+            q0 = (r21 - r12) / s;
+            q1 = 0.25f * s;
+            q2 = (r01 + r10) / s;
+            q3 = (r02 + r20) / s;
+        } else if (r11 > r22) {
+            float s = 2f * (float) Math.sqrt(1f + r11 - r00 - r22);
+            q0 = (r02 - r20) / s;
+            q1 = (r01 + r10) / s;
+            q2 = 0.25f * s;
+            q3 = (r12 + r21) / s;
+        } else {
+            float s = 2f * (float) Math.sqrt(1f + r22 - r00 - r11);
+            q0 = (r10 - r01) / s;
+            q1 = (r02 + r20) / s;
+            q2 = (r12 + r21) / s;
+            q3 = 0.25f * s;
+        }
+        normalize();
+    }
+
+    private void normalize() {
+        float norm = (float) Math.sqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        if (norm > 0) {
+            float inv = 1f / norm;
+            q0 *= inv;
+            q1 *= inv;
+            q2 *= inv;
+            q3 *= inv;
+        }
+    }
+
+    /**
+     * 获取方位角
+     * 设备Y轴在水平面上的投影与北向的夹角，与SensorManager.getOrientation一致
+     * @return 方位角(0=北，90=东，单位：度)
+     */
+    public float getAzimuth() {
+        float r01 = 2f * (q1 * q2 - q0 * q3);
+        float r11 = 1f - 2f * (q1 * q1 + q3 * q3);
+        float degree = (float) Math.toDegrees(Math.atan2(r01, r11));
+        return degree < 0 ? degree + 360f : degree;
+    }
+
+    /**
+     * 当有GPS方位角时校准航向
+     * @param gpsBearing GPS方位角(度)
+     */
+    public void calibrateWithGps(float gpsBearing) {
+        // 计算差值，处理角度环绕
+        float diff = (float) Math.toRadians(gpsBearing - getAzimuth());
+        if (diff > Math.PI) diff -= 2 * Math.PI;
+        if (diff < -Math.PI) diff += 2 * Math.PI;
+
+        // 小于45度才校准，防止错误方位；每次只校准30%，避免突变
+        if (Math.abs(diff) < Math.PI / 4) {
+            // 绕世界竖直轴旋转-θ使方位角增加θ
+            float half = -0.3f * diff * 0.5f;
+            float pw = (float) Math.cos(half);
+            float pz = (float) Math.sin(half);
+            float qa = q0, qb = q1, qc = q2, qd = q3;
+            q0 = pw * qa - pz * qd;
+            q1 = pw * qb - pz * qc;
+            q2 = pw * qc + pz * qb;
+            q3 = pw * qd + pz * qa;
+            normalize();
+        }
+    }
+
+    /**
+     * 获取当前姿态四元数
+     * @param out 输出数组 [w, x, y, z]
+     */
+    public void getQuaternion(float[] out) {
+        out[0] = q0;
+        out[1] = q1;
+        out[2] = q2;
+        out[3] = q3;
+    }
+
+    /**
+     * 获取陀螺仪零偏估计
+     * @param out 输出数组 [x, y, z] (弧度/秒)
+     */
+    public void getGyroBias(float[] out) {
+        out[0] = biasX;
+        out[1] = biasY;
+        out[2] = biasZ;
+    }
+
+    /**
+     * 当前是否检测到磁场干扰
+     */
+    public boolean isMagneticDisturbance() {
+        return magneticDisturbance;
+    }
+
+    /**
+     * 陀螺仪暂停后恢复
+     * 暂停期间设备静止，姿态保持不变：只把时间基准移到恢复时刻，避免长间隔被当作数据中断而重新对准，
+     * 从而保留GPS校准过的航向
+     * @param timestamp 恢复时刻(毫秒)
+     */
+    public void resume(long timestamp) {
+        if (!initialized) return;
+        lastTimestamp = timestamp;
+        lastCorrectionTimestamp = timestamp;
+        stationaryTime = 0f;
+    }
+
+    /**
+     * 重置姿态状态
+     * 零偏估计与磁场参考值属于传感器特性，予以保留
+     */
+    public void reset() {
+        q0 = 1f;
+        q1 = 0f;
+        q2 = 0f;
+        q3 = 0f;
+        initialized = false;
+        lastTimestamp = 0;
+        lastCorrectionTimestamp = 0;
+        stationaryTime = 0f;
+        magneticDisturbance = false;
+    }
+
+    /**
+     * 丢弃磁场参考值，重新建立(磁力计校准参数变化后调用)
+     */
+    public void resetMagneticReference() {
+        referenceFieldNorm = 0f;
+        referenceDip = 0f;
+        referenceSamples = 0;
+        magneticDisturbance = false;
+    }
+
+    private static float constrain(float value, float limit) {
+        return Math.max(-limit, Math.min(limit, value));
+    }
+}
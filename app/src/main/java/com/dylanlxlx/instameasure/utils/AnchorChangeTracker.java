@@ -0,0 +1,161 @@
+package com.dylanlxlx.instameasure.utils;
+
+/**
+ * 锚点位姿变化跟踪
+ * 缓存每个测量点上一次确认的世界坐标，每帧与新位姿比较，移动超过阈值的点才标记为脏点。
+ * 只有存在脏点时才需要重新计算距离、面积并重绘叠加视图。
+ * <p>
+ * 同时统计每秒的检查次数、重算次数和被跳过的重算次数，便于评估跳过的效果。
+ */
+public class AnchorChangeTracker {
+    public static final float DEFAULT_EPSILON = 0.001f;  // 默认阈值(米)
+    private static final long STATS_WINDOW_MS = 1000;
+
+    private final float epsilonSquared;
+
+    // 已确认的位置 [x,y,z,...]
+    private float[] positions = new float[24];
+    private int trackedCount = 0;
+
+    // 本帧的脏点序号
+    private int[] dirtyIndices = new int[8];
+    private int dirtyCount = 0;
+
+    // 统计
+    private long windowStartMs = -1;
+    private int windowFrames, windowRecomputed, windowPointsChecked, windowPointsDirty;
+    private int recomputedPerSecond, avoidedPerSecond, pointUpdatesAvoidedPerSecond;
+
+    public AnchorChangeTracker() {
+        this(DEFAULT_EPSILON);
+    }
+
+    /**
+     * @param epsilon 位置变化阈值(米)，小于该值视为未移动
+     */
+    public AnchorChangeTracker(float epsilon) {
+        this.epsilonSquared = epsilon * epsilon;
+    }
+
+    /**
+     * 开始本帧的检查
+     * @param count 当前的测量点数，少于已跟踪的点数时(例如重置后)清空缓存
+     */
+    public void begin(int count) {
+        if (count < trackedCount) {
+            trackedCount = 0;
+        }
+        if (positions.length < count * 3) {
+            float[] larger = new float[Math.max(count * 3, positions.length * 2)];
+            System.arraycopy(positions, 0, larger, 0, trackedCount * 3);
+            positions = larger;
+        }
+        if (dirtyIndices.length < count) {
+            dirtyIndices = new int[Math.max(count, dirtyIndices.length * 2)];
+        }
+        dirtyCount = 0;
+    }
+
+    /**
+     * 比较第index个点的新位置
+     * 新加入的点总是标记为脏点，使测量结果采用场景节点的实际位置
+     * @return 是否移动超过阈值
+     */
+    public boolean check(int index, float x, float y, float z) {
+        int i = index * 3;
+        windowPointsChecked++;
+        if (index >= trackedCount) {
+            trackedCount = index + 1;
+            return markDirty(index, x, y, z);
+        }
+
+        float dx = x - positions[i];
+        float dy = y - positions[i + 1];
+        float dz = z - positions[i + 2];
+        if (dx * dx + dy * dy + dz * dz <= epsilonSquared) {
+            return false;
+        }
+        return markDirty(index, x, y, z);
+    }
+
+    private boolean markDirty(int index, float x, float y, float z) {
+        int i = index * 3;
+        positions[i] = x;
+        positions[i + 1] = y;
+        positions[i + 2] = z;
+        dirtyIndices[dirtyCount++] = index;
+        windowPointsDirty++;
+        return true;
+    }
+
+    /**
+     * 结束本帧的检查并更新统计
+     * @param nowMs 当前时间(毫秒)
+     * @return 统计窗口是否刚刚结束(此时可以读取每秒统计)
+     */
+    public boolean end(long nowMs) {
+        windowFrames++;
+        if (dirtyCount > 0) {
+            windowRecomputed++;
+        }
+        if (windowStartMs < 0) {
+            windowStartMs = nowMs;
+        }
+        long elapsed = nowMs - windowStartMs;
+        if (elapsed < STATS_WINDOW_MS) {
+            return false;
+        }
+
+        float perSecond = 1000f / elapsed;
+        recomputedPerSecond = Math.round(windowRecomputed * perSecond);
+        avoidedPerSecond = Math.round((windowFrames - windowRecomputed) * perSecond);
+        pointUpdatesAvoidedPerSecond = Math.round((windowPointsChecked - windowPointsDirty) * perSecond);
+        windowStartMs = nowMs;
+        windowFrames = windowRecomputed = windowPointsChecked = windowPointsDirty = 0;
+        return true;
+    }
+
+    /**
+     * 清空缓存(测量重置时调用)
+     */
+    public void reset() {
+        trackedCount = 0;
+        dirtyCount = 0;
+    }
+
+    public int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    public int getDirtyIndex(int i) {
+        return dirtyIndices[i];
+    }
+
+    /**
+     * 已确认的位置 [x0,y0,z0,x1,...]，数组会被复用
+     */
+    public float[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * 上一个统计窗口内每秒进行的重算次数
+     */
+    public int getRecomputedPerSecond() {
+        return recomputedPerSecond;
+    }
+
+    /**
+     * 上一个统计窗口内每秒跳过的重算次数(没有锚点移动的帧)
+     */
+    public int getAvoidedPerSecond() {
+        return avoidedPerSecond;
+    }
+
+    /**
+     * 上一个统计窗口内每秒跳过的单点更新次数
+     */
+    public int getPointUpdatesAvoidedPerSecond() {
+        return pointUpdatesAvoidedPerSecond;
+    }
+}
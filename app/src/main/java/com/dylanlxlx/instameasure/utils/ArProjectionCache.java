@@ -0,0 +1,138 @@
+package com.dylanlxlx.instameasure.utils;
+
+import android.opengl.Matrix;
+
+import com.google.ar.core.Camera;
+
+import java.util.Arrays;
+
+/**
+ * AR投影缓存
+ * 每帧只获取一次相机的投影矩阵和视图矩阵并相乘，之后批量把所有测量点投影到屏幕坐标。
+ * 所有数组预先分配并复用，相机位姿、视图尺寸和点坐标都没有变化时直接跳过投影。
+ */
+public class ArProjectionCache {
+    private static final float NEAR_PLANE = 0.1f;   // 近裁剪面(米)
+    private static final float FAR_PLANE = 100.0f;  // 远裁剪面(米)
+
+    // 矩阵(列主序)
+    private final float[] projectionMatrix = new float[16];
+    private final float[] viewMatrix = new float[16];
+    private final float[] viewProjectionMatrix = new float[16];
+    private final float[] lastViewProjectionMatrix = new float[16];
+    private int width, height;
+    private boolean cameraChanged = true;
+
+    // 世界坐标 [x,y,z,...] 与屏幕坐标 [x,y,...]
+    private float[] worldPoints = new float[12];
+    private float[] lastWorldPoints = new float[12];
+    private float[] screenPoints = new float[8];
+    private int pointCount = 0;
+    private int lastPointCount = -1;
+
+    /**
+     * 每帧调用一次，更新视图投影矩阵
+     * @param camera 当前帧的相机
+     * @param viewWidth 视图宽度(像素)
+     * @param viewHeight 视图高度(像素)
+     * @return 相机或视图尺寸是否发生了变化
+     */
+    public boolean updateCamera(Camera camera, int viewWidth, int viewHeight) {
+        camera.getProjectionMatrix(projectionMatrix, 0, NEAR_PLANE, FAR_PLANE);
+        camera.getViewMatrix(viewMatrix, 0);
+        Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+
+        cameraChanged = viewWidth != width || viewHeight != height
+                || !Arrays.equals(viewProjectionMatrix, lastViewProjectionMatrix);
+        if (cameraChanged) {
+            System.arraycopy(viewProjectionMatrix, 0, lastViewProjectionMatrix, 0, 16);
+            width = viewWidth;
+            height = viewHeight;
+        }
+        return cameraChanged;
+    }
+
+    /**
+     * 开始写入本帧的世界坐标
+     * @param capacity 最多写入的点数
+     */
+    public void beginPoints(int capacity) {
+        if (worldPoints.length < capacity * 3) {
+            worldPoints = new float[capacity * 3];
+            screenPoints = new float[capacity * 2];
+        }
+    }
+
+    /**
+     * 设置第index个点的世界坐标
+     */
+    public void setPoint(int index, float x, float y, float z) {
+        int i = index * 3;
+        worldPoints[i] = x;
+        worldPoints[i + 1] = y;
+        worldPoints[i + 2] = z;
+    }
+
+    /**
+     * 批量投影所有点
+     * @param count 本帧写入的点数
+     * @param force 即使相机和点都没有变化也重新投影
+     * @return 是否进行了投影(false 表示结果与上一帧相同)
+     */
+    public boolean project(int count, boolean force) {
+        pointCount = count;
+        boolean pointsChanged = pointCount != lastPointCount || !samePoints();
+        if (!force && !cameraChanged && !pointsChanged) {
+            return false;
+        }
+        if (pointsChanged) {
+            if (lastWorldPoints.length < worldPoints.length) {
+                lastWorldPoints = new float[worldPoints.length];
+            }
+            System.arraycopy(worldPoints, 0, lastWorldPoints, 0, pointCount * 3);
+            lastPointCount = pointCount;
+        }
+
+        // 展开的矩阵乘法 clip = VP·[x,y,z,1]
+        float[] m = viewProjectionMatrix;
+        float halfWidth = width / 2f;
+        float halfHeight = height / 2f;
+        for (int p = 0; p < pointCount; p++) {
+            float x = worldPoints[p * 3];
+            float y = worldPoints[p * 3 + 1];
+            float z = worldPoints[p * 3 + 2];
+            float clipX = m[0] * x + m[4] * y + m[8] * z + m[12];
+            float clipY = m[1] * x + m[5] * y + m[9] * z + m[13];
+            float clipW = m[3] * x + m[7] * y + m[11] * z + m[15];
+            if (clipW != 0) {
+                clipX /= clipW;
+                clipY /= clipW;
+            }
+
+            // 坐标映射到屏幕
+            screenPoints[p * 2] = (clipX + 1) * halfWidth;
+            screenPoints[p * 2 + 1] = (1 - clipY) * halfHeight;
+        }
+        return true;
+    }
+
+    private boolean samePoints() {
+        for (int i = 0; i < pointCount * 3; i++) {
+            if (worldPoints[i] != lastWorldPoints[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 屏幕坐标 [x0,y0,x1,y1,...]，数组会被复用
+     */
+    public float[] getScreenPoints() {
+        return screenPoints;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+}
@@ -12,6 +12,7 @@ public class DynamicStepLengthEstimator {
     private static final float DEFAULT_STEP_LENGTH = 0.7f; // 默认步长(米)
     private static final float MIN_STEP_LENGTH = 0.4f;     // 最小步长(米)
     private static final float MAX_STEP_LENGTH = 1.0f;     // 最大步长(米)
+    private static final double MANUAL_CALIBRATION_NOISE = 0.25; // 手动校准距离噪声方差(米²)
 
     // 用户参数
     private float userHeight = 1.7f;  // 默认身高(米)
@@ -20,10 +21,10 @@ public class DynamicStepLengthEstimator {
     // 最近步数时间(用于计算步频)
     private List<Long> recentStepTimes = new ArrayList<>();
     private float lastStepLength = DEFAULT_STEP_LENGTH;
+    private float lastRawStepLength = DEFAULT_STEP_LENGTH; // 校准前的步长
 
-    // 步长校准
-    private boolean isCalibrated = false;
-    private float calibrationFactor = 1.0f;
+    // 步长校准，模型参数只保存在校准器中
+    private final StepLengthCalibrator calibrator = new StepLengthCalibrator();
 
     public DynamicStepLengthEstimator() {
         this(1.7f); // 默认身高
@@ -56,10 +57,14 @@ public class DynamicStepLengthEstimator {
 
         // 步长平滑处理
         dynamicStepLength = smoothStepLength(dynamicStepLength);
+        lastRawStepLength = dynamicStepLength;
 
-        // 应用校准因子
-        if (isCalibrated) {
-            dynamicStepLength *= calibrationFactor;
+        // 记录到当前GPS校准分段
+        calibrator.onStep(dynamicStepLength);
+
+        // 应用校准模型
+        if (calibrator.isCalibrated()) {
+            dynamicStepLength = calibrator.apply(dynamicStepLength);
         }
 
         // 确保步长在合理范围内
@@ -137,11 +142,11 @@ public class DynamicStepLengthEstimator {
      */
     private float smoothStepLength(float newStepLength) {
         // 避免步长突变(最大变化15%)
-        float maxChange = lastStepLength * 0.15f;
-        float delta = newStepLength - lastStepLength;
+        float maxChange = lastRawStepLength * 0.15f;
+        float delta = newStepLength - lastRawStepLength;
 
         if (Math.abs(delta) > maxChange) {
-            return lastStepLength + (delta > 0 ? maxChange : -maxChange);
+            return lastRawStepLength + (delta > 0 ? maxChange : -maxChange);
         }
         return newStepLength;
     }
@@ -154,12 +159,41 @@ public class DynamicStepLengthEstimator {
     public void calibrate(float actualDistance, int stepCount) {
         if (stepCount <= 0) return;
 
-        float measuredAverageStepLength = actualDistance / stepCount;
-        calibrationFactor = measuredAverageStepLength / lastStepLength;
+        // 手动校准距离可信度较高，按0.5米误差计入模型
+        calibrator.update(lastRawStepLength * stepCount, stepCount, actualDistance, MANUAL_CALIBRATION_NOISE);
+    }
+
+    /**
+     * 使用GPS定位在线校准步长
+     * 只有精度足够的直线分段才会更新模型
+     * @param latitude 纬度
+     * @param longitude 经度
+     * @param accuracy 定位精度(米)
+     * @param timestamp 定位时间(毫秒)
+     */
+    public void calibrateWithGps(double latitude, double longitude, float accuracy, long timestamp) {
+        calibrator.onGpsFix(latitude, longitude, accuracy, timestamp);
+    }
+
+    /**
+     * 导出已学习的步长模型
+     */
+    public double[] getCalibrationState() {
+        return calibrator.getState();
+    }
+
+    /**
+     * 恢复上次会话学习的步长模型，加快启动时的收敛
+     */
+    public void restoreCalibrationState(double[] state) {
+        calibrator.setState(state);
+    }
 
-        // 确保校准因子在合理范围内
-        calibrationFactor = constrain(calibrationFactor, 0.7f, 1.3f);
-        isCalibrated = true;
+    /**
+     * 丢弃未完成的GPS校准分段
+     */
+    public void resetCalibrationSegment() {
+        calibrator.resetSegment();
     }
 
     /**
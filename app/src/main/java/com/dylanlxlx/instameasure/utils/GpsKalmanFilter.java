@@ -0,0 +1,272 @@
+package com.dylanlxlx.instameasure.utils;
+
+/**
+ * GPS定位的二维匀速卡尔曼滤波器
+ * <p>
+ * 在以第一个定位为原点的本地东-北(ENU)平面上以米为单位滤波，状态为 [东, 北, 东向速度, 北向速度]。
+ * <ul>
+ * <li>测量噪声由每个定位的精度决定，精度差的定位权重小</li>
+ * <li>预测步的时间间隔取自定位时间戳，过程噪声按匀速模型随时间增长</li>
+ * <li>新息(测量与预测之差)超出卡方门限的定位被视为离群点而拒绝；连续拒绝多次时认为是真实跳变，从新定位重新开始</li>
+ * <li>第一个定位直接作为初始状态，不会被拉向 (0,0)</li>
+ * </ul>
+ * 东、北两个方向互相独立，协方差按每个方向的 2x2 分块保存，更新时不分配内存，
+ * 可以用 {@link #filterTrack} 批量处理存档的轨迹。
+ */
+public class GpsKalmanFilter {
+    private static final double ACCELERATION_NOISE = 0.5;    // 加速度功率谱密度(米²/秒³)，对应步行的速度变化
+    private static final double MIN_ACCURACY = 1.0;          // 精度下限(米)，避免过度信任单个定位
+    private static final double VELOCITY_NOISE = 0.5;        // GPS速度测量噪声(米/秒)
+    private static final double INITIAL_VELOCITY_VARIANCE = 4.0; // 初始速度方差(米²/秒²)
+    private static final double GATE_CHI_SQUARE = 9.21;      // 二自由度卡方分布 99% 门限
+    private static final int MAX_CONSECUTIVE_REJECTIONS = 3; // 连续拒绝次数上限
+    private static final long MAX_GAP_MS = 30_000;           // 定位中断超过该时间时重新初始化
+
+    // 原点及其投影
+    private LocalTangentProjector projector;
+    private final double[] local = new double[2];
+    private final double[] geo = new double[2];
+
+    // 状态
+    private boolean initialized = false;
+    private double east, north, velocityEast, velocityNorth;
+    // 每个方向的协方差 [[pp, pv], [pv, vv]]
+    private double ePP, ePV, eVV;
+    private double nPP, nPV, nVV;
+    private long lastTimestamp;
+    private int consecutiveRejections = 0;
+
+    // 统计
+    private int acceptedCount = 0;
+    private int rejectedCount = 0;
+
+    /**
+     * 处理一个定位
+     * @param latitude 纬度
+     * @param longitude 经度
+     * @param accuracy 水平精度(米)
+     * @param speed 速度(米/秒)，负数表示没有速度
+     * @param bearing 方位角(度，0=北，90=东)，只在有速度时使用
+     * @param timestamp 定位时间(毫秒)
+     * @return 是否被接受，false 表示被判为离群点
+     */
+    public boolean update(double latitude, double longitude, double accuracy,
+                          double speed, double bearing, long timestamp) {
+        if (projector == null) {
+            projector = new LocalTangentProjector(latitude, longitude);
+        }
+        projector.toLocal(latitude, longitude, local);
+        double measuredEast = local[0];
+        double measuredNorth = local[1];
+        double r = Math.max(accuracy, MIN_ACCURACY);
+        r *= r;
+
+        long dtMs = timestamp - lastTimestamp;
+        if (!initialized || dtMs > MAX_GAP_MS) {
+            initialize(measuredEast, measuredNorth, r, timestamp);
+            return true;
+        }
+
+        if (dtMs > 0) {
+            predict(dtMs / 1000.0);
+            lastTimestamp = timestamp;
+        }
+
+        // 新息门限
+        double innovationEast = measuredEast - east;
+        double innovationNorth = measuredNorth - north;
+        double sEast = ePP + r;
+        double sNorth = nPP + r;
+        double distance = innovationEast * innovationEast / sEast
+                + innovationNorth * innovationNorth / sNorth;
+        if (distance > GATE_CHI_SQUARE) {
+            rejectedCount++;
+            if (++consecutiveRejections >= MAX_CONSECUTIVE_REJECTIONS) {
+                // 连续多个定位都不符合预测，说明预测已经失效
+                initialize(measuredEast, measuredNorth, r, timestamp);
+                return true;
+            }
+            return false;
+        }
+        consecutiveRejections = 0;
+        acceptedCount++;
+
+        // 位置更新(两个方向分别进行)
+        double kp = ePP / sEast;
+        double kv = ePV / sEast;
+        east += kp * innovationEast;
+        velocityEast += kv * innovationEast;
+        eVV -= kv * ePV;
+        ePV -= kp * ePV;
+        ePP -= kp * ePP;
+
+        kp = nPP / sNorth;
+        kv = nPV / sNorth;
+        north += kp * innovationNorth;
+        velocityNorth += kv * innovationNorth;
+        nVV -= kv * nPV;
+        nPV -= kp * nPV;
+        nPP -= kp * nPP;
+
+        // 速度更新
+        if (speed >= 0) {
+            double bearingRad = Math.toRadians(bearing);
+            double rv = VELOCITY_NOISE * VELOCITY_NOISE;
+
+            double s = eVV + rv;
+            kp = ePV / s;
+            kv = eVV / s;
+            double innovation = speed * Math.sin(bearingRad) - velocityEast;
+            east += kp * innovation;
+            velocityEast += kv * innovation;
+            ePP -= kp * ePV;
+            ePV -= kv * ePV;
+            eVV -= kv * eVV;
+
+            s = nVV + rv;
+            kp = nPV / s;
+            kv = nVV / s;
+            innovation = speed * Math.cos(bearingRad) - velocityNorth;
+            north += kp * innovation;
+            velocityNorth += kv * innovation;
+            nPP -= kp * nPV;
+            nPV -= kv * nPV;
+            nVV -= kv * nVV;
+        }
+        return true;
+    }
+
+    /**
+     * 预测步：匀速模型
+     * P = F P F' + Q，Q = q [[dt³/3, dt²/2], [dt²/2, dt]]
+     */
+    private void predict(double dt) {
+        east += velocityEast * dt;
+        north += velocityNorth * dt;
+
+        double dt2 = dt * dt;
+        double q11 = ACCELERATION_NOISE * dt2 * dt / 3;
+        double q12 = ACCELERATION_NOISE * dt2 / 2;
+        double q22 = ACCELERATION_NOISE * dt;
+
+        ePP += 2 * dt * ePV + dt2 * eVV + q11;
+        ePV += dt * eVV + q12;
+        eVV += q22;
+
+        nPP += 2 * dt * nPV + dt2 * nVV + q11;
+        nPV += dt * nVV + q12;
+        nVV += q22;
+    }
+
+    private void initialize(double measuredEast, double measuredNorth, double r, long timestamp) {
+        east = measuredEast;
+        north = measuredNorth;
+        velocityEast = 0;
+        velocityNorth = 0;
+        ePP = nPP = r;
+        ePV = nPV = 0;
+        eVV = nVV = INITIAL_VELOCITY_VARIANCE;
+        lastTimestamp = timestamp;
+        consecutiveRejections = 0;
+        initialized = true;
+        acceptedCount++;
+    }
+
+    /**
+     * 批量滤波存档的轨迹，先重置滤波器，以轨迹的第一个定位为原点
+     * @param latitudes 纬度
+     * @param longitudes 经度
+     * @param accuracies 水平精度(米)
+     * @param timestamps 定位时间(毫秒)，按时间顺序
+     * @param count 定位数
+     * @param out 输出 [lat0, lon0, lat1, lon1, ...]，长度至少 2 * count；被拒绝的定位输出预测位置
+     * @return 被接受的定位数
+     */
+    public int filterTrack(double[] latitudes, double[] longitudes, float[] accuracies,
+                           long[] timestamps, int count, double[] out) {
+        reset();
+        int accepted = 0;
+        for (int i = 0; i < count; i++) {
+            if (update(latitudes[i], longitudes[i], accuracies[i], -1, 0, timestamps[i])) {
+                accepted++;
+            }
+            out[2 * i] = getLatitude();
+            out[2 * i + 1] = getLongitude();
+        }
+        return accepted;
+    }
+
+    /**
+     * 重置滤波器，下一个定位将成为新的原点
+     */
+    public void reset() {
+        projector = null;
+        initialized = false;
+        consecutiveRejections = 0;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public double getLatitude() {
+        projector.toGeo(east, north, geo);
+        return geo[0];
+    }
+
+    public double getLongitude() {
+        projector.toGeo(east, north, geo);
+        return geo[1];
+    }
+
+    /**
+     * 本地坐标使用的投影，第一个定位之前为 null
+     */
+    public LocalTangentProjector getProjector() {
+        return projector;
+    }
+
+    /**
+     * 东向坐标(米，相对第一个定位)
+     */
+    public double getEast() {
+        return east;
+    }
+
+    /**
+     * 北向坐标(米，相对第一个定位)
+     */
+    public double getNorth() {
+        return north;
+    }
+
+    /**
+     * 速度(米/秒)
+     */
+    public double getSpeed() {
+        return Math.sqrt(velocityEast * velocityEast + velocityNorth * velocityNorth);
+    }
+
+    /**
+     * 运动方向(度，0=北，90=东)
+     */
+    public double getBearing() {
+        double bearing = Math.toDegrees(Math.atan2(velocityEast, velocityNorth));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    /**
+     * 位置精度(米)，两个方向标准差的均方根
+     */
+    public double getAccuracy() {
+        return Math.sqrt((ePP + nPP) / 2);
+    }
+
+    public int getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+}
@@ -0,0 +1,172 @@
+package com.dylanlxlx.instameasure.utils;
+
+import java.util.Locale;
+
+/**
+ * GPS定位请求间隔调度
+ * <p>
+ * 固定1秒请求一次定位在长时间测量中耗电很多，而融合滤波器刚被GPS修正过时并不需要新的定位。
+ * 调度器估计PDR误差按当前步行速度还需要多久才会增长到允许的不确定性，据此选择请求间隔：
+ * 滤波器越确定、走得越慢，间隔越长；不确定性接近上限时回到最快的间隔。
+ * 静止一段时间后暂停定位，开始走动时恢复。
+ * <p>
+ * 间隔取几个固定档位，变快立即生效，变慢至少间隔 {@link #MIN_SLOWDOWN_INTERVAL_MS}，
+ * 避免频繁地重新请求定位更新。
+ */
+public class GpsUpdateScheduler {
+    public static final long PAUSED = 0;
+
+    private static final long[] INTERVAL_LEVELS_MS = {1000, 2000, 5000, 10000, 30000};
+    private static final double MIN_TARGET_UNCERTAINTY = 5.0;   // 允许的最小位置不确定性(米)
+    private static final double TARGET_ACCURACY_FACTOR = 2.0;   // 允许的不确定性相对于GPS精度的倍数
+    private static final double VARIANCE_PER_METER = 0.37;      // PDR每走1米增加的位置方差(米²)，与融合滤波器一致
+    private static final double MIN_SPEED = 0.5;                // 计算时使用的最小速度(米/秒)
+    private static final long PAUSE_DELAY_MS = 15_000;          // 静止多久后暂停
+    private static final long MIN_SLOWDOWN_INTERVAL_MS = 5_000; // 两次放慢之间的最短时间
+
+    private long intervalMs = INTERVAL_LEVELS_MS[0];
+    private long lastChangeMs = 0;
+    private long stillSinceMs = -1;
+    private double lastFixAccuracy = -1;
+
+    // 统计
+    private final long[] timeAtLevelMs = new long[INTERVAL_LEVELS_MS.length];
+    private long pausedMs = 0;
+    private long levelEnteredMs = -1;
+    private int changeCount = 0;
+
+    /**
+     * 开始新的定位会话，先以最快间隔获取定位
+     * 行走状态只在变化时通知，因此开始时要给出当前状态，已经静止的用户从此刻开始计时
+     * @param still 开始时是否静止
+     */
+    public void reset(long nowMs, boolean still) {
+        accumulate(nowMs);
+        levelEnteredMs = nowMs;
+        intervalMs = INTERVAL_LEVELS_MS[0];
+        lastChangeMs = nowMs;
+        stillSinceMs = still ? nowMs : -1;
+        lastFixAccuracy = -1;
+    }
+
+    /**
+     * 结束定位会话，停止统计时间
+     */
+    public void stop(long nowMs) {
+        accumulate(nowMs);
+        levelEnteredMs = -1;
+    }
+
+    /**
+     * 行走状态变化
+     */
+    public void setStill(boolean still, long nowMs) {
+        if (still) {
+            if (stillSinceMs < 0) {
+                stillSinceMs = nowMs;
+            }
+        } else {
+            stillSinceMs = -1;
+        }
+    }
+
+    /**
+     * 收到一次GPS定位
+     * @param accuracy 定位精度(米)
+     */
+    public void onFix(double accuracy) {
+        if (accuracy > 0) {
+            lastFixAccuracy = accuracy;
+        }
+    }
+
+    /**
+     * 重新计算请求间隔
+     * @param nowMs 当前时间(毫秒)
+     * @param speed 步行速度(米/秒)
+     * @param uncertainty 融合滤波器的位置不确定性(米)
+     * @return 间隔是否变化，变化时需要重新请求定位更新
+     */
+    public boolean update(long nowMs, double speed, double uncertainty) {
+        long target = computeInterval(nowMs, speed, uncertainty);
+        if (target == intervalMs) {
+            return false;
+        }
+
+        // 变慢(或暂停)需要稳定一段时间，变快立即生效
+        boolean slower = intervalMs != PAUSED && (target == PAUSED || target > intervalMs);
+        if (slower && nowMs - lastChangeMs < MIN_SLOWDOWN_INTERVAL_MS) {
+            return false;
+        }
+
+        accumulate(nowMs);
+        intervalMs = target;
+        lastChangeMs = nowMs;
+        changeCount++;
+        return true;
+    }
+
+    private long computeInterval(long nowMs, double speed, double uncertainty) {
+        if (stillSinceMs >= 0 && nowMs - stillSinceMs >= PAUSE_DELAY_MS) {
+            return PAUSED;
+        }
+        if (lastFixAccuracy < 0 || uncertainty <= 0) {
+            // 还没有定位或滤波器还没有精度估计，尽快获取
+            return INTERVAL_LEVELS_MS[0];
+        }
+
+        double target = Math.max(MIN_TARGET_UNCERTAINTY, lastFixAccuracy * TARGET_ACCURACY_FACTOR);
+        double headroom = target * target - uncertainty * uncertainty;
+        if (headroom <= 0) {
+            return INTERVAL_LEVELS_MS[0];
+        }
+
+        // 方差增长到上限所需的时间
+        double seconds = headroom / (VARIANCE_PER_METER * Math.max(speed, MIN_SPEED));
+        long level = INTERVAL_LEVELS_MS[0];
+        for (long candidate : INTERVAL_LEVELS_MS) {
+            if (candidate <= seconds * 1000) {
+                level = candidate;
+            }
+        }
+        return level;
+    }
+
+    private void accumulate(long nowMs) {
+        if (levelEnteredMs >= 0) {
+            long elapsed = nowMs - levelEnteredMs;
+            if (intervalMs == PAUSED) {
+                pausedMs += elapsed;
+            } else {
+                for (int i = 0; i < INTERVAL_LEVELS_MS.length; i++) {
+                    if (INTERVAL_LEVELS_MS[i] == intervalMs) {
+                        timeAtLevelMs[i] += elapsed;
+                    }
+                }
+            }
+            levelEnteredMs = nowMs;
+        }
+    }
+
+    /**
+     * 当前请求间隔(毫秒)，{@link #PAUSED} 表示暂停定位
+     */
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * 各间隔档位的累计时间摘要，例如 "1s=20.0s 2s=0.0s 5s=40.0s 10s=0.0s 30s=100.0s paused=60.0s changes=5"
+     */
+    public String getSummary(long nowMs) {
+        accumulate(nowMs);
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < INTERVAL_LEVELS_MS.length; i++) {
+            summary.append(INTERVAL_LEVELS_MS[i] / 1000).append("s=")
+                    .append(String.format(Locale.US, "%.1fs", timeAtLevelMs[i] / 1000.0))
+                    .append(' ');
+        }
+        summary.append("paused=").append(String.format(Locale.US, "%.1fs", pausedMs / 1000.0));
+        return summary.append(" changes=").append(changeCount).toString();
+    }
+}
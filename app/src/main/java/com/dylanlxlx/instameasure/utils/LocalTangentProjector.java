@@ -0,0 +1,180 @@
+package com.dylanlxlx.instameasure.utils;
+
+/**
+ * 本地切平面投影
+ * <p>
+ * 以一个原点为中心，在经纬度和本地东-北坐标(米)之间转换。与原点有关的常量(弧度、cos(lat0)、
+ * 原点的ECEF坐标和旋转矩阵)在构造时计算一次，之后每次转换只做少量乘加；
+ * 同一原点的所有定位应共用一个投影对象。
+ * <ul>
+ * <li>{@link #MODE_EQUIRECTANGULAR}：球面等距近似，与 {@link LocationUtils#geoToLocalCoordinates} 相同，适用于几百米的测量范围</li>
+ * <li>{@link #MODE_ENU}：WGS84椭球经ECEF转换到原点的东-北-天坐标系，适用于数公里的范围</li>
+ * </ul>
+ * 单点转换写入调用方提供的数组，批量转换处理交错排列的 double[]，都不分配内存。
+ */
+public class LocalTangentProjector {
+    public static final int MODE_EQUIRECTANGULAR = 0;
+    public static final int MODE_ENU = 1;
+
+    // WGS84椭球参数
+    private static final double WGS84_A = 6378137.0;
+    private static final double WGS84_F = 1 / 298.257223563;
+    private static final double WGS84_E2 = WGS84_F * (2 - WGS84_F);
+
+    private final int mode;
+    private final double originLatitude;
+    private final double originLongitude;
+    private final double originAltitude;
+
+    // 等距近似：每度对应的米数
+    private final double metersPerDegreeLat;
+    private final double metersPerDegreeLon;
+
+    // ENU：原点的三角函数和ECEF坐标
+    private final double sinLat0, cosLat0, sinLon0, cosLon0;
+    private final double x0, y0, z0;
+
+    /**
+     * 使用等距近似
+     */
+    public LocalTangentProjector(double originLatitude, double originLongitude) {
+        this(originLatitude, originLongitude, 0, MODE_EQUIRECTANGULAR);
+    }
+
+    /**
+     * @param originLatitude 原点纬度
+     * @param originLongitude 原点经度
+     * @param originAltitude 原点椭球高(米)，只在 ENU 模式下使用
+     * @param mode 投影方式
+     */
+    public LocalTangentProjector(double originLatitude, double originLongitude,
+                                 double originAltitude, int mode) {
+        this.mode = mode;
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        this.originAltitude = originAltitude;
+
+        double lat0 = Math.toRadians(originLatitude);
+        double lon0 = Math.toRadians(originLongitude);
+        sinLat0 = Math.sin(lat0);
+        cosLat0 = Math.cos(lat0);
+        sinLon0 = Math.sin(lon0);
+        cosLon0 = Math.cos(lon0);
+
+        metersPerDegreeLat = Math.toRadians(LocationUtils.EARTH_RADIUS);
+        metersPerDegreeLon = metersPerDegreeLat * cosLat0;
+
+        double n = WGS84_A / Math.sqrt(1 - WGS84_E2 * sinLat0 * sinLat0);
+        x0 = (n + originAltitude) * cosLat0 * cosLon0;
+        y0 = (n + originAltitude) * cosLat0 * sinLon0;
+        z0 = (n * (1 - WGS84_E2) + originAltitude) * sinLat0;
+    }
+
+    /**
+     * 经纬度转换为本地坐标
+     * @param out 输出 [东, 北] (米)
+     */
+    public void toLocal(double latitude, double longitude, double[] out) {
+        toLocal(latitude, longitude, out, 0);
+    }
+
+    /**
+     * 经纬度转换为本地坐标
+     * @return [东, 北] (米)
+     */
+    public double[] toLocal(double latitude, double longitude) {
+        double[] out = new double[2];
+        toLocal(latitude, longitude, out, 0);
+        return out;
+    }
+
+    /**
+     * 本地坐标转换为经纬度
+     * @param out 输出 [纬度, 经度]
+     */
+    public void toGeo(double east, double north, double[] out) {
+        toGeo(east, north, out, 0);
+    }
+
+    /**
+     * 批量转换经纬度
+     * @param latLon 输入 [lat0, lon0, lat1, lon1, ...]
+     * @param eastNorth 输出 [e0, n0, e1, n1, ...]，可以与输入是同一个数组
+     * @param count 点数
+     */
+    public void toLocal(double[] latLon, double[] eastNorth, int count) {
+        for (int i = 0; i < 2 * count; i += 2) {
+            toLocal(latLon[i], latLon[i + 1], eastNorth, i);
+        }
+    }
+
+    /**
+     * 批量转换本地坐标
+     * @param eastNorth 输入 [e0, n0, e1, n1, ...]
+     * @param latLon 输出 [lat0, lon0, lat1, lon1, ...]，可以与输入是同一个数组
+     * @param count 点数
+     */
+    public void toGeo(double[] eastNorth, double[] latLon, int count) {
+        for (int i = 0; i < 2 * count; i += 2) {
+            toGeo(eastNorth[i], eastNorth[i + 1], latLon, i);
+        }
+    }
+
+    private void toLocal(double latitude, double longitude, double[] out, int offset) {
+        if (mode == MODE_EQUIRECTANGULAR) {
+            out[offset] = (longitude - originLongitude) * metersPerDegreeLon;
+            out[offset + 1] = (latitude - originLatitude) * metersPerDegreeLat;
+            return;
+        }
+
+        // 大地坐标 -> ECEF(与原点同高) -> ENU
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        double sinLat = Math.sin(lat);
+        double cosLat = Math.cos(lat);
+        double n = WGS84_A / Math.sqrt(1 - WGS84_E2 * sinLat * sinLat);
+        double dx = (n + originAltitude) * cosLat * Math.cos(lon) - x0;
+        double dy = (n + originAltitude) * cosLat * Math.sin(lon) - y0;
+        double dz = (n * (1 - WGS84_E2) + originAltitude) * sinLat - z0;
+
+        out[offset] = -sinLon0 * dx + cosLon0 * dy;
+        out[offset + 1] = -sinLat0 * cosLon0 * dx - sinLat0 * sinLon0 * dy + cosLat0 * dz;
+    }
+
+    private void toGeo(double east, double north, double[] out, int offset) {
+        if (mode == MODE_EQUIRECTANGULAR) {
+            out[offset] = originLatitude + north / metersPerDegreeLat;
+            out[offset + 1] = originLongitude + east / metersPerDegreeLon;
+            return;
+        }
+
+        // ENU(天向为0，即切平面上的点) -> ECEF -> 大地坐标
+        double x = x0 - sinLon0 * east - sinLat0 * cosLon0 * north;
+        double y = y0 + cosLon0 * east - sinLat0 * sinLon0 * north;
+        double z = z0 + cosLat0 * north;
+
+        // 迭代求纬度，切平面附近两三次即收敛
+        double p = Math.sqrt(x * x + y * y);
+        double lat = Math.atan2(z, p * (1 - WGS84_E2));
+        for (int i = 0; i < 3; i++) {
+            double sinLat = Math.sin(lat);
+            double n = WGS84_A / Math.sqrt(1 - WGS84_E2 * sinLat * sinLat);
+            double h = p / Math.cos(lat) - n;
+            lat = Math.atan2(z, p * (1 - WGS84_E2 * n / (n + h)));
+        }
+        out[offset] = Math.toDegrees(lat);
+        out[offset + 1] = Math.toDegrees(Math.atan2(y, x));
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public double getOriginLatitude() {
+        return originLatitude;
+    }
+
+    public double getOriginLongitude() {
+        return originLongitude;
+    }
+}
@@ -3,11 +3,22 @@ package com.dylanlxlx.instameasure.utils;
 /**
  * 定位融合滤波器
  * 使用扩展卡尔曼滤波器融合GPS和PDR数据
+ * <p>
+ * GPS定位相对步伐有约1秒的延迟。滤波器保存最近几秒按时间排序的测量及每次测量后的状态，
+ * 晚到的定位按其真实时刻插入：状态回退到该时刻，应用定位后重新推算之后的步伐。
+ * 历史记录是预先分配的环形缓冲区，超出时间窗口或容量的记录被丢弃，早于历史起点的定位不再使用。
+ * 所有时间戳使用同一时间基准(毫秒，开机时间)。
  */
 public class LocationFusionFilter {
+    private static final int STATE_SIZE = 5;
+    private static final int HISTORY_SIZE = 64;           // 历史记录容量
+    private static final long HISTORY_WINDOW_MS = 5000;   // 历史记录覆盖的时间(毫秒)
+    private static final int TYPE_PDR = 0;
+    private static final int TYPE_GPS = 1;
+
     // 状态向量：[x, y, vx, vy, heading]
-    private double[] state = new double[5];
-    private double[][] covariance = new double[5][5];
+    private double[] state = new double[STATE_SIZE];
+    private double[][] covariance = new double[STATE_SIZE][STATE_SIZE];
 
     // 系统噪声参数
     private double processNoise = 0.01;        // 系统过程噪声
@@ -20,14 +31,36 @@ public class LocationFusionFilter {
     private long lastGpsTime = 0;              // 上次GPS更新时间
     private long gpsTimeout = 10000;           // GPS超时时间(毫秒)
 
+    // 测量历史(环形缓冲区，按时间排序)：测量类型、时间、输入，以及处理该测量后的状态
+    private final int[] historyType = new int[HISTORY_SIZE];
+    private final long[] historyTime = new long[HISTORY_SIZE];
+    private final double[][] historyInput = new double[HISTORY_SIZE][5];
+    private final double[][] historyState = new double[HISTORY_SIZE][STATE_SIZE];
+    private final double[][] historyCovariance = new double[HISTORY_SIZE][STATE_SIZE * STATE_SIZE];
+    private final boolean[] historyGpsFix = new boolean[HISTORY_SIZE];
+    private final long[] historyGpsTime = new long[HISTORY_SIZE];
+    private int historyStart = 0;
+    private int historyCount = 0;
+
+    // 最早一条历史记录之前的状态，回退不能早于它
+    private long baseTime = Long.MIN_VALUE;
+    private final double[] baseState = new double[STATE_SIZE];
+    private final double[] baseCovariance = new double[STATE_SIZE * STATE_SIZE];
+    private boolean baseGpsFix = false;
+    private long baseGpsTime = 0;
+
+    private long latestTime = 0;               // 最新测量的时间
+
+    // 统计
+    private int delayedFixCount = 0;           // 按真实时刻插入的延迟定位数
+    private int replayedCount = 0;             // 因延迟定位重新推算的测量数
+    private int droppedFixCount = 0;           // 早于历史起点而丢弃的定位数
+
     /**
      * 构造函数
      */
     public LocationFusionFilter() {
-        // 初始化协方差矩阵
-        for (int i = 0; i < 5; i++) {
-            covariance[i][i] = i < 2 ? 10.0 : (i < 4 ? 1.0 : 0.5);  // 初始不确定性
-        }
+        reset();
     }
 
     /**
@@ -35,8 +68,87 @@ public class LocationFusionFilter {
      * @param stepLength 步长(米)
      * @param heading 方向(度)
      * @param dt 时间间隔(秒)
+     * @param timestamp 步伐时间(毫秒)
+     */
+    public void updateWithPdr(double stepLength, double heading, double dt, long timestamp) {
+        insert(TYPE_PDR, timestamp, stepLength, heading, dt, 0, 0);
+    }
+
+    /**
+     * 使用GPS数据更新
+     * 定位早于最新的步伐时，在其真实时刻应用并重新推算之后的步伐
+     * @param gpsX GPS东向坐标(米)
+     * @param gpsY GPS北向坐标(米)
+     * @param accuracy GPS精度(米)
+     * @param speed GPS速度(米/秒)
+     * @param bearing GPS方位角(度)
+     * @param timestamp 定位时间(毫秒)
+     * @return 是否被使用，false 表示定位早于保存的历史而被丢弃
      */
-    public void updateWithPdr(double stepLength, double heading, double dt) {
+    public boolean updateWithGps(double gpsX, double gpsY, double accuracy,
+                                 double speed, double bearing, long timestamp) {
+        return insert(TYPE_GPS, timestamp, gpsX, gpsY, accuracy, speed, bearing);
+    }
+
+    /**
+     * 把一个测量按时间插入历史并应用，插入位置之后的测量重新应用
+     */
+    private boolean insert(int type, long timestamp,
+                           double v0, double v1, double v2, double v3, double v4) {
+        latestTime = Math.max(latestTime, timestamp);
+        while (historyCount > 0
+                && (historyCount == HISTORY_SIZE
+                    || historyTime[historyStart] < latestTime - HISTORY_WINDOW_MS)) {
+            evictOldest();
+        }
+        if (timestamp < baseTime || timestamp < latestTime - HISTORY_WINDOW_MS) {
+            droppedFixCount += type == TYPE_GPS ? 1 : 0;
+            return false;
+        }
+
+        // 插入位置：相同时间的测量按到达顺序
+        int position = historyCount;
+        while (position > 0 && historyTime[slot(position - 1)] > timestamp) {
+            position--;
+        }
+        if (position < historyCount) {
+            restore(position);
+            if (type == TYPE_GPS) delayedFixCount++;
+        }
+
+        // 空闲的一行依次与后面的记录交换，移到插入位置
+        for (int i = historyCount; i > position; i--) {
+            swap(slot(i), slot(i - 1));
+        }
+        historyCount++;
+
+        int s = slot(position);
+        historyType[s] = type;
+        historyTime[s] = timestamp;
+        double[] input = historyInput[s];
+        input[0] = v0;
+        input[1] = v1;
+        input[2] = v2;
+        input[3] = v3;
+        input[4] = v4;
+        for (int i = position; i < historyCount; i++) {
+            s = slot(i);
+            apply(historyType[s], historyInput[s], historyTime[s]);
+            save(s);
+        }
+        replayedCount += historyCount - 1 - position;
+        return true;
+    }
+
+    private void apply(int type, double[] input, long timestamp) {
+        if (type == TYPE_PDR) {
+            applyPdr(input[0], input[1], input[2], timestamp);
+        } else {
+            applyGps(input[0], input[1], input[2], input[3], input[4], timestamp);
+        }
+    }
+
+    private void applyPdr(double stepLength, double heading, double dt, long timestamp) {
         double headingRad = Math.toRadians(heading);
 
         // 状态预测
@@ -65,23 +177,15 @@ public class LocationFusionFilter {
         covariance[4][4] += headingNoise;  // 方向不确定性
 
         // 检查是否需要降低GPS权重(GPS长时间无更新)
-        if (hasGpsFix && System.currentTimeMillis() - lastGpsTime > gpsTimeout) {
+        if (hasGpsFix && timestamp - lastGpsTime > gpsTimeout) {
             hasGpsFix = false;
         }
     }
 
-    /**
-     * 使用GPS数据更新
-     * @param gpsX GPS东向坐标(米)
-     * @param gpsY GPS北向坐标(米)
-     * @param accuracy GPS精度(米)
-     * @param speed GPS速度(米/秒)
-     * @param bearing GPS方位角(度)
-     */
-    public void updateWithGps(double gpsX, double gpsY, double accuracy,
-                              double speed, double bearing) {
+    private void applyGps(double gpsX, double gpsY, double accuracy,
+                          double speed, double bearing, long timestamp) {
         // 记录GPS更新时间
-        lastGpsTime = System.currentTimeMillis();
+        lastGpsTime = timestamp;
         hasGpsFix = true;
 
         // 动态调整GPS噪声(基于精度)
@@ -172,6 +276,88 @@ public class LocationFusionFilter {
         }
     }
 
+    /**
+     * 保存当前状态到历史记录
+     */
+    private void save(int s) {
+        System.arraycopy(state, 0, historyState[s], 0, STATE_SIZE);
+        double[] flat = historyCovariance[s];
+        for (int i = 0; i < STATE_SIZE; i++) {
+            System.arraycopy(covariance[i], 0, flat, i * STATE_SIZE, STATE_SIZE);
+        }
+        historyGpsFix[s] = hasGpsFix;
+        historyGpsTime[s] = lastGpsTime;
+    }
+
+    /**
+     * 回退到第 position 条历史记录之前的状态
+     */
+    private void restore(int position) {
+        double[] savedState = baseState;
+        double[] savedCovariance = baseCovariance;
+        hasGpsFix = baseGpsFix;
+        lastGpsTime = baseGpsTime;
+        if (position > 0) {
+            int s = slot(position - 1);
+            savedState = historyState[s];
+            savedCovariance = historyCovariance[s];
+            hasGpsFix = historyGpsFix[s];
+            lastGpsTime = historyGpsTime[s];
+        }
+        System.arraycopy(savedState, 0, state, 0, STATE_SIZE);
+        for (int i = 0; i < STATE_SIZE; i++) {
+            System.arraycopy(savedCovariance, i * STATE_SIZE, covariance[i], 0, STATE_SIZE);
+        }
+    }
+
+    /**
+     * 丢弃最早的历史记录，它之后的状态成为回退的起点
+     */
+    private void evictOldest() {
+        int s = historyStart;
+        baseTime = historyTime[s];
+        System.arraycopy(historyState[s], 0, baseState, 0, STATE_SIZE);
+        System.arraycopy(historyCovariance[s], 0, baseCovariance, 0, STATE_SIZE * STATE_SIZE);
+        baseGpsFix = historyGpsFix[s];
+        baseGpsTime = historyGpsTime[s];
+        historyStart = (historyStart + 1) % HISTORY_SIZE;
+        historyCount--;
+    }
+
+    /**
+     * 交换两条历史记录(只交换数组引用，不复制内容)
+     */
+    private void swap(int a, int b) {
+        int type = historyType[a];
+        historyType[a] = historyType[b];
+        historyType[b] = type;
+        long time = historyTime[a];
+        historyTime[a] = historyTime[b];
+        historyTime[b] = time;
+        double[] row = historyInput[a];
+        historyInput[a] = historyInput[b];
+        historyInput[b] = row;
+        row = historyState[a];
+        historyState[a] = historyState[b];
+        historyState[b] = row;
+        row = historyCovariance[a];
+        historyCovariance[a] = historyCovariance[b];
+        historyCovariance[b] = row;
+        boolean fix = historyGpsFix[a];
+        historyGpsFix[a] = historyGpsFix[b];
+        historyGpsFix[b] = fix;
+        time = historyGpsTime[a];
+        historyGpsTime[a] = historyGpsTime[b];
+        historyGpsTime[b] = time;
+    }
+
+    /**
+     * 第k条(从最早的记录起)历史记录在环形缓冲区中的位置
+     */
+    private int slot(int k) {
+        return (historyStart + k) % HISTORY_SIZE;
+    }
+
     /**
      * 获取当前位置
      * @return [x, y] 位置(米)
@@ -221,10 +407,42 @@ public class LocationFusionFilter {
             for (int j = 0; j < 5; j++) {
                 covariance[i][j] = 0;
             }
-            covariance[i][i] = i < 2 ? 10.0 : (i < 4 ? 1.0 : 0.5);
+            covariance[i][i] = i < 2 ? 10.0 : (i < 4 ? 1.0 : 0.5);  // 初始不确定性
         }
 
         hasGpsFix = false;
         lastGpsTime = 0;
+
+        // 清空历史，初始状态作为回退的起点
+        historyStart = 0;
+        historyCount = 0;
+        latestTime = 0;
+        baseTime = Long.MIN_VALUE;
+        save(0);
+        System.arraycopy(historyState[0], 0, baseState, 0, STATE_SIZE);
+        System.arraycopy(historyCovariance[0], 0, baseCovariance, 0, STATE_SIZE * STATE_SIZE);
+        baseGpsFix = false;
+        baseGpsTime = 0;
+    }
+
+    /**
+     * 按真实时刻插入的延迟定位数
+     */
+    public int getDelayedFixCount() {
+        return delayedFixCount;
+    }
+
+    /**
+     * 因延迟定位重新推算的测量数
+     */
+    public int getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * 早于历史起点而丢弃的定位数
+     */
+    public int getDroppedFixCount() {
+        return droppedFixCount;
     }
 }
\ No newline at end of file
@@ -10,11 +10,12 @@ import android.location.Location;
 public class LocationUtils {
 
     // 地球半径（米）
-    private static final double EARTH_RADIUS = 6371000;
+    static final double EARTH_RADIUS = 6371000;
 
     /**
      * 将地理坐标（经纬度）转换为本地坐标（米）
      * 使用平面投影近似，适用于小范围区域
+     * 同一原点需要转换多个点时使用 {@link LocalTangentProjector}，避免重复计算原点常量
      *
      * @param latitude 纬度
      * @param longitude 经度
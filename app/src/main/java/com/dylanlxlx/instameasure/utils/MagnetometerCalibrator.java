@@ -0,0 +1,295 @@
+package com.dylanlxlx.instameasure.utils;
+
+/**
+ * 磁力计硬铁/软铁在线校准器
+ * 使用流式椭球拟合估计各轴的偏移(硬铁)和比例(软铁，轴对齐近似)
+ * <pre>
+ * 椭球模型: A·x² + B·y² + C·z² + D·x + E·y + F·z = 1
+ * 每个样本只累加充分统计量 ΣφφT 和 Σφ，φ = [x², y², z², x, y, z]
+ * 校正: m' = m·scale + bias，其中 bias = -center·scale
+ * </pre>
+ * 内存占用与样本数无关，求解是6x6线性方程组，每 SOLVE_INTERVAL 个样本执行一次，
+ * 开销在微秒级，因此直接在传感器线程上完成
+ */
+public class MagnetometerCalibrator {
+    private static final int N = 6;
+
+    // 拟合参数
+    private static final int SOLVE_INTERVAL = 50;          // 每隔多少个样本求解一次
+    private static final int MIN_SAMPLES = 200;            // 首次求解所需最少样本数
+    private static final double MAX_SAMPLE_WEIGHT = 2000;  // 超过后统计量减半，使校准能跟随环境变化
+    private static final float MIN_AXIS_SPAN = 1.2f;       // 每轴采样范围至少为半径的倍数(确保转动充分)
+
+    // 结果合理性约束
+    private static final float MIN_FIELD = 15.0f;          // 地磁场最小强度(微特斯拉)
+    private static final float MAX_FIELD = 80.0f;          // 地磁场最大强度(微特斯拉)
+    private static final float MAX_AXIS_RATIO = 1.5f;      // 各轴半径之比上限
+
+    // 充分统计量(只保存上三角)
+    private final double[] sumOuter = new double[N * (N + 1) / 2];
+    private final double[] sumPhi = new double[N];
+    private final double[] phi = new double[N];
+    private double sampleWeight = 0;
+    private int samplesSinceSolve = 0;
+
+    // 求解工作区
+    private final double[][] system = new double[N][N + 1];
+    private final double[] solution = new double[N];
+
+    // 采样范围
+    private final float[] minValue = new float[3];
+    private final float[] maxValue = new float[3];
+
+    // 校正参数
+    private final float[] scale = {1f, 1f, 1f};
+    private final float[] bias = {0f, 0f, 0f};
+    private float fieldStrength = 0f;
+    private boolean calibrated = false;
+    private int version = 0;
+
+    public MagnetometerCalibrator() {
+        restart();
+    }
+
+    /**
+     * 累加一个原始磁场样本
+     * @param mag 原始磁场 [x,y,z] (微特斯拉)
+     * @return 本次是否得到了新的校准参数
+     */
+    public boolean addSample(float[] mag) {
+        double x = mag[0];
+        double y = mag[1];
+        double z = mag[2];
+
+        phi[0] = x * x;
+        phi[1] = y * y;
+        phi[2] = z * z;
+        phi[3] = x;
+        phi[4] = y;
+        phi[5] = z;
+
+        int k = 0;
+        for (int i = 0; i < N; i++) {
+            double pi = phi[i];
+            sumPhi[i] += pi;
+            for (int j = i; j < N; j++) {
+                sumOuter[k++] += pi * phi[j];
+            }
+        }
+        sampleWeight++;
+
+        for (int i = 0; i < 3; i++) {
+            if (mag[i] < minValue[i]) minValue[i] = mag[i];
+            if (mag[i] > maxValue[i]) maxValue[i] = mag[i];
+        }
+
+        if (++samplesSinceSolve < SOLVE_INTERVAL || sampleWeight < MIN_SAMPLES) {
+            return false;
+        }
+        samplesSinceSolve = 0;
+
+        boolean updated = solve();
+
+        if (sampleWeight > MAX_SAMPLE_WEIGHT) {
+            decay();
+        }
+        return updated;
+    }
+
+    /**
+     * 应用校准
+     * @param mag 原始磁场 [x,y,z]
+     * @param out 输出数组，可以与输入相同
+     * @return out
+     */
+    public float[] apply(float[] mag, float[] out) {
+        out[0] = mag[0] * scale[0] + bias[0];
+        out[1] = mag[1] * scale[1] + bias[1];
+        out[2] = mag[2] * scale[2] + bias[2];
+        return out;
+    }
+
+    /**
+     * 使用当前统计量求解椭球参数
+     */
+    private boolean solve() {
+        // 正规方程 (ΣφφT)·p = Σφ
+        int k = 0;
+        for (int i = 0; i < N; i++) {
+            for (int j = i; j < N; j++) {
+                system[i][j] = sumOuter[k];
+                system[j][i] = sumOuter[k];
+                k++;
+            }
+            system[i][N] = sumPhi[i];
+        }
+
+        if (!gaussianElimination()) {
+            return false;
+        }
+
+        double a = solution[0], b = solution[1], c = solution[2];
+        if (a <= 0 || b <= 0 || c <= 0) {
+            return false;
+        }
+
+        // 椭球中心
+        double cx = -solution[3] / (2 * a);
+        double cy = -solution[4] / (2 * b);
+        double cz = -solution[5] / (2 * c);
+
+        // 配方后: A(x-cx)² + B(y-cy)² + C(z-cz)² = g
+        double g = 1 + a * cx * cx + b * cy * cy + c * cz * cz;
+        if (g <= 0) {
+            return false;
+        }
+
+        double rx = Math.sqrt(g / a);
+        double ry = Math.sqrt(g / b);
+        double rz = Math.sqrt(g / c);
+        double radius = Math.cbrt(rx * ry * rz);
+
+        if (radius < MIN_FIELD || radius > MAX_FIELD) {
+            return false;
+        }
+        double maxR = Math.max(rx, Math.max(ry, rz));
+        double minR = Math.min(rx, Math.min(ry, rz));
+        if (maxR / minR > MAX_AXIS_RATIO) {
+            return false;
+        }
+
+        // 每个轴都必须转过足够的角度，否则该轴的偏移不可观测
+        if (maxValue[0] - minValue[0] < MIN_AXIS_SPAN * rx
+                || maxValue[1] - minValue[1] < MIN_AXIS_SPAN * ry
+                || maxValue[2] - minValue[2] < MIN_AXIS_SPAN * rz) {
+            return false;
+        }
+
+        scale[0] = (float) (radius / rx);
+        scale[1] = (float) (radius / ry);
+        scale[2] = (float) (radius / rz);
+        bias[0] = (float) (-cx * scale[0]);
+        bias[1] = (float) (-cy * scale[1]);
+        bias[2] = (float) (-cz * scale[2]);
+        fieldStrength = (float) radius;
+        calibrated = true;
+        version++;
+        return true;
+    }
+
+    /**
+     * 部分选主元高斯消元，结果写入 solution
+     */
+    private boolean gaussianElimination() {
+        for (int col = 0; col < N; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < N; row++) {
+                if (Math.abs(system[row][col]) > Math.abs(system[pivot][col])) {
+                    pivot = row;
+                }
+            }
+            if (Math.abs(system[pivot][col]) < 1e-12) {
+                return false;
+            }
+            if (pivot != col) {
+                double[] tmp = system[pivot];
+                system[pivot] = system[col];
+                system[col] = tmp;
+            }
+
+            for (int row = col + 1; row < N; row++) {
+                double factor = system[row][col] / system[col][col];
+                for (int j = col; j <= N; j++) {
+                    system[row][j] -= factor * system[col][j];
+                }
+            }
+        }
+
+        for (int row = N - 1; row >= 0; row--) {
+            double sum = system[row][N];
+            for (int j = row + 1; j < N; j++) {
+                sum -= system[row][j] * solution[j];
+            }
+            solution[row] = sum / system[row][row];
+        }
+        return true;
+    }
+
+    /**
+     * 统计量减半，旧样本的影响逐渐衰减
+     */
+    private void decay() {
+        for (int i = 0; i < sumOuter.length; i++) {
+            sumOuter[i] *= 0.5;
+        }
+        for (int i = 0; i < N; i++) {
+            sumPhi[i] *= 0.5;
+        }
+        sampleWeight *= 0.5;
+    }
+
+    /**
+     * 丢弃已累积的样本，重新开始收集(例如用户开始转圈校准时)
+     * 已有的校正参数继续使用，直到得到新的结果
+     */
+    public void restart() {
+        for (int i = 0; i < sumOuter.length; i++) {
+            sumOuter[i] = 0;
+        }
+        for (int i = 0; i < N; i++) {
+            sumPhi[i] = 0;
+        }
+        for (int i = 0; i < 3; i++) {
+            minValue[i] = Float.MAX_VALUE;
+            maxValue[i] = -Float.MAX_VALUE;
+        }
+        sampleWeight = 0;
+        samplesSinceSolve = 0;
+    }
+
+    /**
+     * 是否已得到有效的校准参数
+     */
+    public boolean isCalibrated() {
+        return calibrated;
+    }
+
+    /**
+     * 校准参数版本号，每次更新加一
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * 拟合得到的地磁场强度(微特斯拉)
+     */
+    public float getFieldStrength() {
+        return fieldStrength;
+    }
+
+    /**
+     * 导出校正参数，用于跨会话持久化
+     * @return [scaleX, scaleY, scaleZ, biasX, biasY, biasZ]
+     */
+    public double[] getState() {
+        return new double[]{scale[0], scale[1], scale[2], bias[0], bias[1], bias[2]};
+    }
+
+    /**
+     * 恢复之前导出的校正参数
+     * @param state getState()返回的数组
+     */
+    public void setState(double[] state) {
+        if (state == null || state.length < 6) return;
+        for (int i = 0; i < 3; i++) {
+            if (state[i] <= 0) return;
+        }
+        for (int i = 0; i < 3; i++) {
+            scale[i] = (float) state[i];
+            bias[i] = (float) state[i + 3];
+        }
+        calibrated = true;
+        version++;
+    }
+}
@@ -0,0 +1,319 @@
+package com.dylanlxlx.instameasure.utils;
+
+/**
+ * 三维多边形几何计算
+ * <pre>
+ * 平面拟合: 对顶点协方差矩阵做特征分解，最小特征值对应的特征向量即最小二乘平面的法向量
+ * 面积: Newell方法 N = Σ Pi × Pi+1，多边形在法向量为n的平面上的投影面积 = |N·n| / 2
+ * </pre>
+ * 对平面多边形，结果与先投影到平面再用鞋带公式完全相同，且与坐标轴无关(墙面、斜面都适用)。
+ * <p>
+ * 协方差所需的累加和、Newell向量和各边长度都增量维护：添加或移动一个点只更新与之相邻的边，
+ * 开销为O(1)；特征分解只在查询且数据变化后计算一次。
+ */
+public class PolygonGeometry {
+    private static final int JACOBI_SWEEPS = 16;
+    private static final double EPSILON = 1e-12;
+
+    // 顶点坐标
+    private double[] xs = new double[16];
+    private double[] ys = new double[16];
+    private double[] zs = new double[16];
+    private double[] edgeLengths = new double[16];  // 第i条边连接顶点i和i+1(不含闭合边)
+    private int count = 0;
+
+    // 协方差累加量
+    private double sumX, sumY, sumZ;
+    private double sumXX, sumXY, sumXZ, sumYY, sumYZ, sumZZ;
+
+    // 开放折线的Newell向量与长度(不含闭合边)
+    private double newellX, newellY, newellZ;
+    private double chainLength;
+
+    // 拟合平面缓存
+    private boolean planeDirty = true;
+    private final double[] centroid = new double[3];
+    private final double[] normal = {0, 1, 0};
+    private final double[] axisU = {1, 0, 0};
+    private final double[] axisV = {0, 0, 1};
+    private final double[][] covariance = new double[3][3];
+    private final double[][] eigenvectors = new double[3][3];
+
+    /**
+     * 追加一个顶点
+     */
+    public void addPoint(double x, double y, double z) {
+        ensureCapacity(count + 1);
+        xs[count] = x;
+        ys[count] = y;
+        zs[count] = z;
+        accumulate(x, y, z, 1);
+        count++;
+        if (count > 1) {
+            addEdge(count - 2, 1);
+        }
+        planeDirty = true;
+    }
+
+    /**
+     * 移动一个已有的顶点，只更新与之相邻的两条边
+     */
+    public void setPoint(int index, double x, double y, double z) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index + ", count " + count);
+        }
+        if (xs[index] == x && ys[index] == y && zs[index] == z) {
+            return;
+        }
+        if (index > 0) addEdge(index - 1, -1);
+        if (index < count - 1) addEdge(index, -1);
+        accumulate(xs[index], ys[index], zs[index], -1);
+
+        xs[index] = x;
+        ys[index] = y;
+        zs[index] = z;
+
+        accumulate(x, y, z, 1);
+        if (index > 0) addEdge(index - 1, 1);
+        if (index < count - 1) addEdge(index, 1);
+        planeDirty = true;
+    }
+
+    /**
+     * 清空所有顶点
+     */
+    public void clear() {
+        count = 0;
+        sumX = sumY = sumZ = 0;
+        sumXX = sumXY = sumXZ = sumYY = sumYZ = sumZZ = 0;
+        newellX = newellY = newellZ = 0;
+        chainLength = 0;
+        planeDirty = true;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 第i条边(顶点i到顶点i+1)的长度
+     */
+    public double getEdgeLength(int index) {
+        return edgeLengths[index];
+    }
+
+    /**
+     * 闭合边(最后一个顶点到第一个顶点)的长度
+     */
+    public double getClosingEdgeLength() {
+        if (count < 2) return 0;
+        return distance(count - 1, 0);
+    }
+
+    /**
+     * 周长
+     * @param closed 是否包含闭合边
+     */
+    public double getPerimeter(boolean closed) {
+        return closed ? chainLength + getClosingEdgeLength() : chainLength;
+    }
+
+    /**
+     * 多边形(自动闭合)在最佳拟合平面上的面积
+     */
+    public double getArea() {
+        if (count < 3) return 0;
+        fitPlane();
+
+        // 加上闭合边的贡献
+        int last = count - 1;
+        double nx = newellX + (ys[last] * zs[0] - zs[last] * ys[0]);
+        double ny = newellY + (zs[last] * xs[0] - xs[last] * zs[0]);
+        double nz = newellZ + (xs[last] * ys[0] - ys[last] * xs[0]);
+        return Math.abs(nx * normal[0] + ny * normal[1] + nz * normal[2]) / 2;
+    }
+
+    /**
+     * 最佳拟合平面的单位法向量
+     */
+    public double[] getPlaneNormal() {
+        fitPlane();
+        return normal;
+    }
+
+    /**
+     * 顶点的质心
+     */
+    public double[] getCentroid() {
+        fitPlane();
+        return centroid;
+    }
+
+    /**
+     * 顶点在拟合平面内的二维坐标(以质心为原点)
+     * @param index 顶点序号
+     * @param out 输出 [u, v]
+     */
+    public void getPlaneCoordinates(int index, double[] out) {
+        fitPlane();
+        double dx = xs[index] - centroid[0];
+        double dy = ys[index] - centroid[1];
+        double dz = zs[index] - centroid[2];
+        out[0] = dx * axisU[0] + dy * axisU[1] + dz * axisU[2];
+        out[1] = dx * axisV[0] + dy * axisV[1] + dz * axisV[2];
+    }
+
+    private void accumulate(double x, double y, double z, int sign) {
+        sumX += sign * x;
+        sumY += sign * y;
+        sumZ += sign * z;
+        sumXX += sign * x * x;
+        sumXY += sign * x * y;
+        sumXZ += sign * x * z;
+        sumYY += sign * y * y;
+        sumYZ += sign * y * z;
+        sumZZ += sign * z * z;
+    }
+
+    /**
+     * 加上(sign=1)或减去(sign=-1)第i条边对Newell向量和长度的贡献
+     */
+    private void addEdge(int i, int sign) {
+        int j = i + 1;
+        newellX += sign * (ys[i] * zs[j] - zs[i] * ys[j]);
+        newellY += sign * (zs[i] * xs[j] - xs[i] * zs[j]);
+        newellZ += sign * (xs[i] * ys[j] - ys[i] * xs[j]);
+        if (sign > 0) {
+            edgeLengths[i] = distance(i, j);
+            chainLength += edgeLengths[i];
+        } else {
+            chainLength -= edgeLengths[i];
+        }
+    }
+
+    private double distance(int i, int j) {
+        double dx = xs[j] - xs[i];
+        double dy = ys[j] - ys[i];
+        double dz = zs[j] - zs[i];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * 计算质心和最小二乘平面
+     */
+    private void fitPlane() {
+        if (!planeDirty || count == 0) {
+            return;
+        }
+        planeDirty = false;
+
+        double n = count;
+        centroid[0] = sumX / n;
+        centroid[1] = sumY / n;
+        centroid[2] = sumZ / n;
+        if (count < 3) {
+            return;
+        }
+
+        covariance[0][0] = sumXX / n - centroid[0] * centroid[0];
+        covariance[0][1] = covariance[1][0] = sumXY / n - centroid[0] * centroid[1];
+        covariance[0][2] = covariance[2][0] = sumXZ / n - centroid[0] * centroid[2];
+        covariance[1][1] = sumYY / n - centroid[1] * centroid[1];
+        covariance[1][2] = covariance[2][1] = sumYZ / n - centroid[1] * centroid[2];
+        covariance[2][2] = sumZZ / n - centroid[2] * centroid[2];
+
+        int smallest = jacobiEigen();
+        normal[0] = eigenvectors[0][smallest];
+        normal[1] = eigenvectors[1][smallest];
+        normal[2] = eigenvectors[2][smallest];
+
+        // 平面内的两个正交基：在最大特征向量方向上取u，v = n × u
+        int largest = 0;
+        for (int k = 1; k < 3; k++) {
+            if (covariance[k][k] > covariance[largest][largest]) largest = k;
+        }
+        axisU[0] = eigenvectors[0][largest];
+        axisU[1] = eigenvectors[1][largest];
+        axisU[2] = eigenvectors[2][largest];
+        axisV[0] = normal[1] * axisU[2] - normal[2] * axisU[1];
+        axisV[1] = normal[2] * axisU[0] - normal[0] * axisU[2];
+        axisV[2] = normal[0] * axisU[1] - normal[1] * axisU[0];
+    }
+
+    /**
+     * 对称3x3矩阵的循环Jacobi特征分解
+     * 结束后 covariance 对角线为特征值，eigenvectors 的列为对应的特征向量
+     * @return 最小特征值的列号
+     */
+    private int jacobiEigen() {
+        double[][] a = covariance;
+        double[][] v = eigenvectors;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                v[i][j] = i == j ? 1 : 0;
+            }
+        }
+
+        for (int sweep = 0; sweep < JACOBI_SWEEPS; sweep++) {
+            double offDiagonal = Math.abs(a[0][1]) + Math.abs(a[0][2]) + Math.abs(a[1][2]);
+            if (offDiagonal < EPSILON) {
+                break;
+            }
+            for (int p = 0; p < 2; p++) {
+                for (int q = p + 1; q < 3; q++) {
+                    if (Math.abs(a[p][q]) < EPSILON) {
+                        continue;
+                    }
+                    // 旋转角使 a[p][q] 归零
+                    double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) t = 1;
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+
+                    for (int k = 0; k < 3; k++) {
+                        double akp = a[k][p];
+                        double akq = a[k][q];
+                        a[k][p] = c * akp - s * akq;
+                        a[k][q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double apk = a[p][k];
+                        double aqk = a[q][k];
+                        a[p][k] = c * apk - s * aqk;
+                        a[q][k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double vkp = v[k][p];
+                        double vkq = v[k][q];
+                        v[k][p] = c * vkp - s * vkq;
+                        v[k][q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+
+        int smallest = 0;
+        for (int k = 1; k < 3; k++) {
+            if (a[k][k] < a[smallest][smallest]) smallest = k;
+        }
+        return smallest;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= xs.length) {
+            return;
+        }
+        int size = Math.max(required, xs.length * 2);
+        xs = grow(xs, size);
+        ys = grow(ys, size);
+        zs = grow(zs, size);
+        edgeLengths = grow(edgeLengths, size);
+    }
+
+    private static double[] grow(double[] array, int size) {
+        double[] larger = new double[size];
+        System.arraycopy(array, 0, larger, 0, array.length);
+        return larger;
+    }
+}
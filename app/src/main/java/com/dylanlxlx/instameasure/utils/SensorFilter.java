@@ -52,10 +52,19 @@ public class SensorFilter {
      */
     public float[] filterAccelerometer(float[] accelData) {
         float[] filtered = new float[3];
+        filterAccelerometer(accelData, filtered);
+        return filtered;
+    }
+
+    /**
+     * 滤波加速度计数据，结果写入调用方提供的数组(不分配内存)
+     * @param input 原始数据（3个轴）
+     * @param output 滤波结果，可以与 input 是同一个数组
+     */
+    public void filterAccelerometer(float[] input, float[] output) {
         for (int i = 0; i < 3; i++) {
-            filtered[i] = (float) accelFilters[i].filter(accelData[i]);
+            output[i] = (float) accelFilters[i].filter(input[i]);
         }
-        return filtered;
     }
 
     /**
@@ -65,10 +74,19 @@ public class SensorFilter {
      */
     public float[] filterGyroscope(float[] gyroData) {
         float[] filtered = new float[3];
+        filterGyroscope(gyroData, filtered);
+        return filtered;
+    }
+
+    /**
+     * 滤波陀螺仪数据，结果写入调用方提供的数组(不分配内存)
+     * @param input 原始数据（3个轴）
+     * @param output 滤波结果，可以与 input 是同一个数组
+     */
+    public void filterGyroscope(float[] input, float[] output) {
         for (int i = 0; i < 3; i++) {
-            filtered[i] = (float) gyroFilters[i].filter(gyroData[i]);
+            output[i] = (float) gyroFilters[i].filter(input[i]);
         }
-        return filtered;
     }
 
     /**
@@ -78,9 +96,18 @@ public class SensorFilter {
      */
     public float[] filterMagneticField(float[] magData) {
         float[] filtered = new float[3];
+        filterMagneticField(magData, filtered);
+        return filtered;
+    }
+
+    /**
+     * 滤波磁力计数据，结果写入调用方提供的数组(不分配内存)
+     * @param input 原始数据（3个轴）
+     * @param output 滤波结果，可以与 input 是同一个数组
+     */
+    public void filterMagneticField(float[] input, float[] output) {
         for (int i = 0; i < 3; i++) {
-            filtered[i] = (float) magFilters[i].filter(magData[i]);
+            output[i] = (float) magFilters[i].filter(input[i]);
         }
-        return filtered;
     }
 }
@@ -0,0 +1,172 @@
+package com.dylanlxlx.instameasure.utils;
+
+import java.util.Locale;
+
+/**
+ * 传感器功耗档位策略
+ * <p>
+ * 根据步数检测器给出的行走状态决定传感器的工作档位：
+ * <pre>
+ * ACTIVE  : 全速率，所有传感器都注册
+ * IDLE    : 静止一段时间后，加速度计降低采样率，注销陀螺仪和磁力计
+ * DORMANT : 长时间静止后，注销所有连续传感器，只保留硬件唤醒传感器(步伐检测/显著运动)
+ * </pre>
+ * 行走状态变为非静止或唤醒传感器触发时立即回到 ACTIVE。没有唤醒传感器时不会进入 DORMANT，
+ * 因为那样就无法再检测到运动。
+ * <p>
+ * 策略本身不访问传感器，只通过回调通知档位变化，并统计每个档位的累计时间。
+ * 所有方法应在同一线程上调用。
+ */
+public class SensorPowerPolicy {
+    public static final int TIER_ACTIVE = 0;
+    public static final int TIER_IDLE = 1;
+    public static final int TIER_DORMANT = 2;
+    private static final int TIER_COUNT = 3;
+    private static final String[] TIER_NAMES = {"ACTIVE", "IDLE", "DORMANT"};
+
+    public static final long DEFAULT_IDLE_DELAY_MS = 10_000;     // 静止多久后进入 IDLE
+    public static final long DEFAULT_DORMANT_DELAY_MS = 60_000;  // 静止多久后进入 DORMANT
+
+    /**
+     * 档位变化回调
+     */
+    public interface TierListener {
+        void onTierChanged(int previousTier, int newTier);
+    }
+
+    private final TierListener listener;
+    private final long idleDelayMs;
+    private final long dormantDelayMs;
+
+    private int tier = TIER_ACTIVE;
+    private long tierEnteredMs = -1;
+    private long stillSinceMs = -1;     // 开始静止的时间，-1 表示正在运动
+    private boolean canSleep = false;   // 是否有唤醒传感器
+    private boolean pinned = false;     // 是否强制保持全速率
+
+    // 统计
+    private final long[] timeInTierMs = new long[TIER_COUNT];
+    private int transitionCount = 0;
+
+    public SensorPowerPolicy(TierListener listener) {
+        this(listener, DEFAULT_IDLE_DELAY_MS, DEFAULT_DORMANT_DELAY_MS);
+    }
+
+    /**
+     * @param listener 档位变化回调
+     * @param idleDelayMs 静止多久后进入 IDLE(毫秒)
+     * @param dormantDelayMs 静止多久后进入 DORMANT(毫秒)
+     */
+    public SensorPowerPolicy(TierListener listener, long idleDelayMs, long dormantDelayMs) {
+        this.listener = listener;
+        this.idleDelayMs = idleDelayMs;
+        this.dormantDelayMs = dormantDelayMs;
+    }
+
+    /**
+     * 设置是否有可用的唤醒传感器
+     */
+    public void setCanSleep(boolean canSleep, long nowMs) {
+        this.canSleep = canSleep;
+        update(nowMs);
+    }
+
+    /**
+     * 强制保持全速率(例如图表界面需要连续的原始数据)
+     */
+    public void setPinned(boolean pinned, long nowMs) {
+        this.pinned = pinned;
+        update(nowMs);
+    }
+
+    /**
+     * 行走状态变化
+     * @param walkingState STILL / WALKING / RUNNING
+     */
+    public void onWalkingStateChanged(String walkingState, long nowMs) {
+        if ("STILL".equals(walkingState)) {
+            if (stillSinceMs < 0) {
+                stillSinceMs = nowMs;
+            }
+        } else {
+            stillSinceMs = -1;
+        }
+        update(nowMs);
+    }
+
+    /**
+     * 唤醒传感器触发：立即回到全速率，并从现在起重新计算静止时间
+     */
+    public void onWakeEvent(long nowMs) {
+        if (stillSinceMs >= 0) {
+            stillSinceMs = nowMs;
+        }
+        update(nowMs);
+    }
+
+    /**
+     * 根据当前时间重新评估档位，由传感器数据节拍周期调用
+     */
+    public void update(long nowMs) {
+        if (tierEnteredMs < 0) {
+            tierEnteredMs = nowMs;
+        }
+
+        int target = TIER_ACTIVE;
+        if (!pinned && stillSinceMs >= 0) {
+            long stillMs = nowMs - stillSinceMs;
+            if (canSleep && stillMs >= dormantDelayMs) {
+                target = TIER_DORMANT;
+            } else if (stillMs >= idleDelayMs) {
+                target = TIER_IDLE;
+            }
+        }
+        if (target == tier) return;
+
+        int previous = tier;
+        timeInTierMs[previous] += nowMs - tierEnteredMs;
+        tier = target;
+        tierEnteredMs = nowMs;
+        transitionCount++;
+        if (listener != null) {
+            listener.onTierChanged(previous, target);
+        }
+    }
+
+    public int getTier() {
+        return tier;
+    }
+
+    /**
+     * 某个档位的累计时间(包括当前档位已持续的时间)
+     */
+    public long getTimeInTierMs(int queryTier, long nowMs) {
+        long time = timeInTierMs[queryTier];
+        if (queryTier == tier && tierEnteredMs >= 0) {
+            time += nowMs - tierEnteredMs;
+        }
+        return time;
+    }
+
+    public int getTransitionCount() {
+        return transitionCount;
+    }
+
+    public static String getTierName(int tier) {
+        return TIER_NAMES[tier];
+    }
+
+    /**
+     * 各档位累计时间的摘要，例如 "ACTIVE=120.0s IDLE=30.5s DORMANT=300.0s transitions=4"
+     */
+    public String getSummary(long nowMs) {
+        StringBuilder summary = new StringBuilder();
+        for (int t = 0; t < TIER_COUNT; t++) {
+            summary.append(TIER_NAMES[t])
+                    .append('=')
+                    .append(String.format(Locale.US, "%.1fs", getTimeInTierMs(t, nowMs) / 1000.0))
+                    .append(' ');
+        }
+        return summary.append("transitions=").append(transitionCount).toString();
+    }
+}
@@ -0,0 +1,287 @@
+package com.dylanlxlx.instameasure.utils;
+
+/**
+ * 多传感器时间对齐重采样器
+ * <p>
+ * 加速度计、陀螺仪、磁力计和旋转矢量各自以自己的节拍和时间戳到达。重采样器为每个数据流缓存
+ * 最近的带时间戳样本，按固定周期生成融合帧：帧时刻落在两个样本之间时线性插值，旋转矢量
+ * (单位四元数)使用球面线性插值(SLERP)。只有所有必需的数据流都已经有晚于帧时刻的样本时才输出，
+ * 因此每个节拍恰好输出一帧，同一个样本不会因为其他传感器的事件被重复处理。
+ * <p>
+ * 所有缓冲区预先分配；输出回调收到的数组在回调返回后会被复用。
+ */
+public class SensorResampler {
+    public static final int ACCELEROMETER = 0;
+    public static final int GYROSCOPE = 1;
+    public static final int MAGNETOMETER = 2;
+    public static final int ROTATION_VECTOR = 3;
+    private static final int STREAM_COUNT = 4;
+
+    private static final int BUFFER_SIZE = 32;         // 每个数据流缓存的样本数
+    private static final int MAX_CATCH_UP_FRAMES = 10;  // 落后太多时直接跳到最新时刻，避免突发输出
+
+    /**
+     * 融合帧回调
+     */
+    public interface FrameListener {
+        /**
+         * @param timestampNanos 帧时刻(纳秒，开机时间基准)
+         * @param accel 加速度 [x,y,z]
+         * @param gyro 陀螺仪 [x,y,z]，数据流未启用时为 null
+         * @param mag 磁力计 [x,y,z]，数据流未启用时为 null
+         * @param rotation 旋转矢量四元数 [x,y,z,w]，数据流未启用时为 null
+         */
+        void onFrame(long timestampNanos, float[] accel, float[] gyro, float[] mag, float[] rotation);
+    }
+
+    private long periodNanos;
+    private final FrameListener listener;
+
+    // 每个数据流的环形缓冲区
+    private final long[][] times = new long[STREAM_COUNT][BUFFER_SIZE];
+    private final float[][] values = new float[STREAM_COUNT][BUFFER_SIZE * 4];
+    private final int[] counts = new int[STREAM_COUNT];
+    private final int[] heads = new int[STREAM_COUNT];  // 下一个写入位置
+    private final boolean[] enabled = new boolean[STREAM_COUNT];
+
+    // 输出缓冲
+    private final float[][] output = new float[STREAM_COUNT][4];
+    private long nextFrameNanos = -1;
+
+    // 统计
+    private long frameCount = 0;
+    private long skippedFrames = 0;
+
+    /**
+     * @param periodMillis 输出周期(毫秒)
+     * @param listener 融合帧回调
+     */
+    public SensorResampler(long periodMillis, FrameListener listener) {
+        this.periodNanos = periodMillis * 1_000_000L;
+        this.listener = listener;
+        enabled[ACCELEROMETER] = true;
+    }
+
+    /**
+     * 修改输出周期(例如传感器降低采样率时)，下一帧起生效，已缓存的样本保留
+     * @param periodMillis 输出周期(毫秒)
+     */
+    public void setPeriod(long periodMillis) {
+        periodNanos = periodMillis * 1_000_000L;
+    }
+
+    /**
+     * 启用或停用一个数据流，启用的数据流必须有样本才能输出帧
+     */
+    public void setStreamEnabled(int stream, boolean enable) {
+        if (enabled[stream] == enable) return;
+        enabled[stream] = enable;
+        counts[stream] = 0;
+        heads[stream] = 0;
+    }
+
+    /**
+     * 加入一个样本，并输出所有已经可以插值的帧
+     * @param stream 数据流
+     * @param timestampNanos 事件时间戳(纳秒)
+     * @param sample 样本值，旋转矢量可以只有前三个分量
+     */
+    public void addSample(int stream, long timestampNanos, float[] sample) {
+        if (!enabled[stream]) return;
+
+        int count = counts[stream];
+        // 丢弃时间倒退的样本
+        if (count > 0 && timestampNanos <= times[stream][index(stream, count - 1)]) {
+            return;
+        }
+
+        int slot = heads[stream];
+        times[stream][slot] = timestampNanos;
+        int base = slot * 4;
+        if (stream == ROTATION_VECTOR) {
+            storeQuaternion(sample, values[stream], base, count > 0 ? index(stream, count - 1) * 4 : -1);
+        } else {
+            values[stream][base] = sample[0];
+            values[stream][base + 1] = sample[1];
+            values[stream][base + 2] = sample[2];
+        }
+        heads[stream] = (slot + 1) % BUFFER_SIZE;
+        if (count < BUFFER_SIZE) counts[stream] = count + 1;
+
+        emitFrames();
+    }
+
+    /**
+     * 清空缓存(例如传感器重新注册后)
+     */
+    public void reset() {
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            counts[s] = 0;
+            heads[s] = 0;
+        }
+        nextFrameNanos = -1;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    private void emitFrames() {
+        // 所有启用的数据流都至少有一个样本才开始
+        long earliestLatest = Long.MAX_VALUE;
+        long latestFirst = Long.MIN_VALUE;
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            if (!enabled[s]) continue;
+            if (counts[s] == 0) return;
+            earliestLatest = Math.min(earliestLatest, times[s][index(s, counts[s] - 1)]);
+            latestFirst = Math.max(latestFirst, times[s][index(s, 0)]);
+        }
+
+        if (nextFrameNanos < 0) {
+            // 第一帧从所有数据流都有样本的时刻开始
+            nextFrameNanos = latestFirst;
+        } else if (earliestLatest - nextFrameNanos > periodNanos * MAX_CATCH_UP_FRAMES) {
+            // 传感器中断后恢复，跳过中间的帧
+            long skip = (earliestLatest - nextFrameNanos) / periodNanos;
+            skippedFrames += skip;
+            nextFrameNanos += skip * periodNanos;
+        }
+
+        while (nextFrameNanos <= earliestLatest) {
+            long t = nextFrameNanos;
+            boolean complete = true;
+            for (int s = 0; s < STREAM_COUNT && complete; s++) {
+                if (enabled[s]) {
+                    complete = interpolate(s, t, output[s]);
+                }
+            }
+            if (complete) {
+                frameCount++;
+                listener.onFrame(t,
+                        output[ACCELEROMETER],
+                        enabled[GYROSCOPE] ? output[GYROSCOPE] : null,
+                        enabled[MAGNETOMETER] ? output[MAGNETOMETER] : null,
+                        enabled[ROTATION_VECTOR] ? output[ROTATION_VECTOR] : null);
+            } else {
+                // 帧时刻早于缓存的最早样本(缓冲区已覆盖)，跳过
+                skippedFrames++;
+            }
+            nextFrameNanos += periodNanos;
+        }
+    }
+
+    /**
+     * 在时刻t插值一个数据流
+     * @return 缓存中是否有覆盖t的样本
+     */
+    private boolean interpolate(int stream, long t, float[] out) {
+        int count = counts[stream];
+        long[] streamTimes = times[stream];
+        float[] streamValues = values[stream];
+
+        // 从最新的样本向前找到第一个不晚于t的样本
+        int k = count - 1;
+        while (k >= 0 && streamTimes[index(stream, k)] > t) {
+            k--;
+        }
+        if (k < 0) {
+            return false;
+        }
+
+        int a = index(stream, k);
+        if (k == count - 1 || streamTimes[a] == t) {
+            copySample(stream, streamValues, a * 4, out);
+            return true;
+        }
+
+        int b = index(stream, k + 1);
+        float f = (float) (t - streamTimes[a]) / (streamTimes[b] - streamTimes[a]);
+        if (stream == ROTATION_VECTOR) {
+            slerp(streamValues, a * 4, b * 4, f, out);
+        } else {
+            for (int i = 0; i < 3; i++) {
+                float va = streamValues[a * 4 + i];
+                out[i] = va + (streamValues[b * 4 + i] - va) * f;
+            }
+        }
+        return true;
+    }
+
+    private static void copySample(int stream, float[] src, int offset, float[] out) {
+        int n = stream == ROTATION_VECTOR ? 4 : 3;
+        System.arraycopy(src, offset, out, 0, n);
+    }
+
+    /**
+     * 保存为完整的单位四元数 [x,y,z,w]，并与上一个样本保持同一半球，保证插值走最短路径
+     */
+    private static void storeQuaternion(float[] sample, float[] dest, int base, int previous) {
+        float x = sample[0];
+        float y = sample[1];
+        float z = sample[2];
+        float w;
+        if (sample.length >= 4) {
+            w = sample[3];
+        } else {
+            float t = 1 - x * x - y * y - z * z;
+            w = t > 0 ? (float) Math.sqrt(t) : 0;
+        }
+        if (previous >= 0) {
+            float dot = x * dest[previous] + y * dest[previous + 1]
+                    + z * dest[previous + 2] + w * dest[previous + 3];
+            if (dot < 0) {
+                x = -x;
+                y = -y;
+                z = -z;
+                w = -w;
+            }
+        }
+        dest[base] = x;
+        dest[base + 1] = y;
+        dest[base + 2] = z;
+        dest[base + 3] = w;
+    }
+
+    /**
+     * 单位四元数的球面线性插值，夹角很小时退化为归一化的线性插值
+     */
+    private static void slerp(float[] q, int a, int b, float f, float[] out) {
+        float dot = q[a] * q[b] + q[a + 1] * q[b + 1] + q[a + 2] * q[b + 2] + q[a + 3] * q[b + 3];
+        float wa;
+        float wb;
+        if (dot > 0.9995f) {
+            wa = 1 - f;
+            wb = f;
+        } else {
+            double theta = Math.acos(Math.min(1f, dot));
+            double sinTheta = Math.sin(theta);
+            wa = (float) (Math.sin((1 - f) * theta) / sinTheta);
+            wb = (float) (Math.sin(f * theta) / sinTheta);
+        }
+
+        float norm = 0;
+        for (int i = 0; i < 4; i++) {
+            out[i] = wa * q[a + i] + wb * q[b + i];
+            norm += out[i] * out[i];
+        }
+        norm = (float) Math.sqrt(norm);
+        if (norm > 0) {
+            for (int i = 0; i < 4; i++) {
+                out[i] /= norm;
+            }
+        }
+    }
+
+    /**
+     * 第k个(从最早的样本起)缓存样本在环形缓冲区中的位置
+     */
+    private int index(int stream, int k) {
+        int start = heads[stream] - counts[stream];
+        if (start < 0) start += BUFFER_SIZE;
+        return (start + k) % BUFFER_SIZE;
+    }
+}
@@ -2,9 +2,6 @@ package com.dylanlxlx.instameasure.utils;
 
 import static com.dylanlxlx.instameasure.utils.MathUtils.calculateMagnitude;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * 步数检测器
  * 使用改进的算法检测步数
@@ -32,13 +29,17 @@ public class StepDetector {
     private long timeOfLastPeak = 0;
     private float previousValue = 0;
     private float activeThreshold = 2.0f;
+    private float lastStepConfidence = 0f;
 
     // 步数计数
     private int stepCount = 0;
 
-    // 最近加速度数据(用于分析)
-    private List<float[]> recentAccelerations = new ArrayList<>();
-    private float[] lastAcceleration = null;
+    // 最近加速度幅值(用于分析)，环形缓冲区
+    private final float[] recentMagnitudes = new float[RECENT_ACCELERATION_SIZE];
+    private int recentMagnitudeCount = 0;
+    private int recentMagnitudeHead = 0;
+    private final float[] lastAcceleration = new float[3];
+    private boolean hasLastAcceleration = false;
 
     // 行走状态
     private String walkingState = "STILL"; // STILL, WALKING, RUNNING
@@ -59,15 +60,17 @@ public class StepDetector {
 
     // 处理传感器数据
     public void processSensorData(float[] values) {
-        // 保存最近加速度
-        lastAcceleration = values.clone();
-        updateRecentAccelerations(values);
+        // 计算三轴加速度的合成值
+        float currentMagnitude = calculateMagnitude(values);
+
+        // 保存最近加速度(复制到预分配的数组，调用方可以复用输入数组)
+        System.arraycopy(values, 0, lastAcceleration, 0, 3);
+        hasLastAcceleration = true;
+        updateRecentAccelerations(currentMagnitude);
 
         // 分析行走状态
         analyzeWalkingState();
 
-        // 计算三轴加速度的合成值
-        float currentMagnitude = calculateMagnitude(values);
         analyzeStep(currentMagnitude);
     }
 
@@ -83,6 +86,8 @@ public class StepDetector {
                     timeOfNow - timeOfLastPeak <= MAX_STEP_INTERVAL) {
                 timeOfCurrentPeak = timeOfNow;
                 stepCount++;
+                // 波峰波谷差值刚达到阈值时置信度为0.5，达到阈值两倍及以上为1
+                lastStepConfidence = Math.min(1f, 0.5f * (currentPeak - currentValley) / activeThreshold);
                 if (callback != null) {
                     callback.onStepDetected(stepCount);
                 }
@@ -162,14 +167,13 @@ public class StepDetector {
     }
 
     /**
-     * 保存最近加速度数据
+     * 保存最近加速度幅值，缓冲区满后覆盖最早的数据
      */
-    private void updateRecentAccelerations(float[] accel) {
-        recentAccelerations.add(accel.clone());
-
-        // 限制缓冲区大小
-        if (recentAccelerations.size() > RECENT_ACCELERATION_SIZE) {
-            recentAccelerations.remove(0);
+    private void updateRecentAccelerations(float magnitude) {
+        recentMagnitudes[recentMagnitudeHead] = magnitude;
+        recentMagnitudeHead = (recentMagnitudeHead + 1) % RECENT_ACCELERATION_SIZE;
+        if (recentMagnitudeCount < RECENT_ACCELERATION_SIZE) {
+            recentMagnitudeCount++;
         }
     }
 
@@ -180,7 +184,7 @@ public class StepDetector {
      * RUNNING: 跑步
      */
     private void analyzeWalkingState() {
-        if (recentAccelerations.size() < 10) return;
+        if (recentMagnitudeCount < 10) return;
 
         long now = System.currentTimeMillis();
         if (now - lastStateUpdateTime < 1000) return; // 最多1秒更新一次状态
@@ -222,22 +226,23 @@ public class StepDetector {
      * 计算加速度标准差
      */
     private float calculateAccelStdDev() {
-        if (recentAccelerations.size() < 2) return 0;
+        int count = recentMagnitudeCount;
+        if (count < 2) return 0;
 
-        // 计算平均幅值
+        // 计算平均幅值(缓冲区未满时有效数据在 [0, count) 中)
         float sum = 0;
-        for (float[] accel : recentAccelerations) {
-            sum += calculateMagnitude(accel);
+        for (int i = 0; i < count; i++) {
+            sum += recentMagnitudes[i];
         }
-        float mean = sum / recentAccelerations.size();
+        float mean = sum / count;
 
         // 计算方差
         float variance = 0;
-        for (float[] accel : recentAccelerations) {
-            float magnitude = calculateMagnitude(accel);
-            variance += (magnitude - mean) * (magnitude - mean);
+        for (int i = 0; i < count; i++) {
+            float d = recentMagnitudes[i] - mean;
+            variance += d * d;
         }
-        variance /= recentAccelerations.size();
+        variance /= count;
 
         // 返回标准差
         return (float) Math.sqrt(variance);
@@ -251,10 +256,18 @@ public class StepDetector {
     }
 
     /**
-     * 获取最近的加速度数据
+     * 获取最近的加速度数据，尚无数据时返回 null
+     * 返回的数组会被下一个样本覆盖
      */
     public float[] getLastAcceleration() {
-        return lastAcceleration;
+        return hasLastAcceleration ? lastAcceleration : null;
+    }
+
+    /**
+     * 获取最近一步的检测置信度 [0,1]
+     */
+    public float getLastStepConfidence() {
+        return lastStepConfidence;
     }
 
     /**
@@ -280,7 +293,10 @@ public class StepDetector {
         timeOfLastPeak = 0;
         previousValue = 0;
         activeThreshold = 2.0f;
-        recentAccelerations.clear();
+        lastStepConfidence = 0f;
+        recentMagnitudeCount = 0;
+        recentMagnitudeHead = 0;
+        hasLastAcceleration = false;
         walkingState = "STILL";
     }
 }
\ No newline at end of file
@@ -0,0 +1,213 @@
+package com.dylanlxlx.instameasure.utils;
+
+/**
+ * 步长在线自校准器
+ * 使用递推最小二乘(RLS)根据GPS测得的距离拟合步长模型参数
+ * <pre>
+ * 模型: 实际步长 = scale * 原始估计步长 + offset
+ * 每个GPS分段: GPS距离 = scale * Σ原始步长 + offset * 步数
+ * </pre>
+ * 每步只累加两个量(O(1))，每个分段结束时做一次2x2的RLS更新
+ */
+public class StepLengthCalibrator {
+    // 分段参数
+    private static final float MAX_FIX_ACCURACY = 8.0f;       // 参与校准的GPS最大误差(米)
+    private static final double MIN_SEGMENT_DISTANCE = 25.0;   // 分段最小GPS距离(米)
+    private static final int MIN_SEGMENT_STEPS = 20;           // 分段最少步数
+    private static final long MAX_SEGMENT_DURATION = 120000;   // 分段最长时长(毫秒)
+    private static final double MIN_STRAIGHTNESS = 0.9;        // 直线度(首尾距离/路径距离)下限
+    private static final double WAYPOINT_SPACING = 5.0;        // 路径距离的采样间隔(米)，抑制定位抖动的累积
+
+    // RLS参数
+    private static final double FORGETTING_FACTOR = 0.98;      // 遗忘因子
+    private static final double INITIAL_SCALE_VARIANCE = 0.04; // 初始比例方差(σ=0.2)
+    private static final double INITIAL_OFFSET_VARIANCE = 0.0025; // 初始偏置方差(σ=0.05米)
+
+    // 模型参数约束
+    private static final double MIN_SCALE = 0.5;
+    private static final double MAX_SCALE = 1.5;
+    private static final double MAX_OFFSET = 0.2;
+
+    // 模型参数 θ = [scale, offset] 及其协方差 P
+    private double scale = 1.0;
+    private double offset = 0.0;
+    private double p00 = INITIAL_SCALE_VARIANCE;
+    private double p01 = 0.0;
+    private double p11 = INITIAL_OFFSET_VARIANCE;
+    private int segmentCount = 0;
+
+    // 当前分段状态
+    private boolean segmentActive = false;
+    private double startLatitude;
+    private double startLongitude;
+    private float startAccuracy;
+    private long startTime;
+    private double lastLatitude;
+    private double lastLongitude;
+    private double pathDistance;      // 沿途采样点累计距离(米)
+    private double rawStepSum;        // 分段内原始步长之和(米)
+    private int stepCount;            // 分段内步数
+
+    /**
+     * 记录一步
+     * @param rawStepLength 未校准的原始步长(米)
+     */
+    public void onStep(float rawStepLength) {
+        if (!segmentActive) return;
+        rawStepSum += rawStepLength;
+        stepCount++;
+    }
+
+    /**
+     * 处理新的GPS定位
+     * @param latitude 纬度
+     * @param longitude 经度
+     * @param accuracy 定位精度(米)
+     * @param timestamp 定位时间(毫秒)
+     * @return 本次定位是否完成了一次参数更新
+     */
+    public boolean onGpsFix(double latitude, double longitude, float accuracy, long timestamp) {
+        // 精度不足时丢弃当前分段，分段两端必须都是高质量定位
+        if (accuracy <= 0 || accuracy > MAX_FIX_ACCURACY) {
+            segmentActive = false;
+            return false;
+        }
+
+        if (!segmentActive || timestamp - startTime > MAX_SEGMENT_DURATION) {
+            startSegment(latitude, longitude, accuracy, timestamp);
+            return false;
+        }
+
+        double chordDistance = LocationUtils.calculateDistance(startLatitude, startLongitude, latitude, longitude);
+        double waypointDistance = LocationUtils.calculateDistance(lastLatitude, lastLongitude, latitude, longitude);
+        boolean segmentComplete = chordDistance >= MIN_SEGMENT_DISTANCE && stepCount >= MIN_SEGMENT_STEPS;
+        if (waypointDistance < WAYPOINT_SPACING && !segmentComplete) {
+            return false;
+        }
+
+        pathDistance += waypointDistance;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+
+        if (!segmentComplete) {
+            return false;
+        }
+
+        boolean updated = false;
+        // 只使用接近直线的分段，转弯时首尾距离会小于实际步行距离
+        if (pathDistance > 0 && chordDistance / pathDistance >= MIN_STRAIGHTNESS) {
+            // 两端定位误差共同决定距离测量噪声
+            double noise = startAccuracy * startAccuracy + accuracy * accuracy;
+            update(rawStepSum, stepCount, chordDistance, noise);
+            updated = true;
+        }
+
+        // 以当前定位作为下一分段起点
+        startSegment(latitude, longitude, accuracy, timestamp);
+        return updated;
+    }
+
+    /**
+     * 使用一段已知距离更新模型(手动校准或GPS分段)
+     * @param rawStepSum 原始步长之和(米)
+     * @param steps 步数
+     * @param actualDistance 实际距离(米)
+     * @param noise 距离测量噪声方差(米²)
+     */
+    public void update(double rawStepSum, int steps, double actualDistance, double noise) {
+        if (steps <= 0 || rawStepSum <= 0) return;
+
+        double x0 = rawStepSum;
+        double x1 = steps;
+
+        // 遗忘旧数据，使模型可以跟随步态变化
+        p00 /= FORGETTING_FACTOR;
+        p01 /= FORGETTING_FACTOR;
+        p11 /= FORGETTING_FACTOR;
+
+        // P*x
+        double px0 = p00 * x0 + p01 * x1;
+        double px1 = p01 * x0 + p11 * x1;
+
+        // 增益 K = P*x / (x'*P*x + R)
+        double s = x0 * px0 + x1 * px1 + noise;
+        double k0 = px0 / s;
+        double k1 = px1 / s;
+
+        // 参数更新
+        double residual = actualDistance - (scale * x0 + offset * x1);
+        scale += k0 * residual;
+        offset += k1 * residual;
+
+        // 协方差更新 P = P - K*(P*x)'
+        p00 -= k0 * px0;
+        p01 -= k0 * px1;
+        p11 -= k1 * px1;
+
+        scale = constrain(scale, MIN_SCALE, MAX_SCALE);
+        offset = constrain(offset, -MAX_OFFSET, MAX_OFFSET);
+        segmentCount++;
+    }
+
+    /**
+     * 应用校准模型，每一步的步长都经过这里
+     * @param rawStepLength 原始步长(米)
+     * @return 校准后的步长(米)
+     */
+    public float apply(float rawStepLength) {
+        return (float) (scale * rawStepLength + offset);
+    }
+
+    private void startSegment(double latitude, double longitude, float accuracy, long timestamp) {
+        segmentActive = true;
+        startLatitude = latitude;
+        startLongitude = longitude;
+        startAccuracy = accuracy;
+        startTime = timestamp;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        pathDistance = 0;
+        rawStepSum = 0;
+        stepCount = 0;
+    }
+
+    /**
+     * 丢弃进行中的分段(例如重新开始测量时)
+     */
+    public void resetSegment() {
+        segmentActive = false;
+    }
+
+    /**
+     * 是否已有足够的数据
+     */
+    public boolean isCalibrated() {
+        return segmentCount > 0;
+    }
+
+    /**
+     * 导出模型状态，用于跨会话持久化
+     * @return [scale, offset, p00, p01, p11, segmentCount]
+     */
+    public double[] getState() {
+        return new double[]{scale, offset, p00, p01, p11, segmentCount};
+    }
+
+    /**
+     * 恢复之前导出的模型状态
+     * @param state getState()返回的数组
+     */
+    public void setState(double[] state) {
+        if (state == null || state.length < 6) return;
+        scale = constrain(state[0], MIN_SCALE, MAX_SCALE);
+        offset = constrain(state[1], -MAX_OFFSET, MAX_OFFSET);
+        p00 = state[2];
+        p01 = state[3];
+        p11 = state[4];
+        segmentCount = (int) state[5];
+    }
+
+    private static double constrain(double value, double min, double max) {
+        return Math.min(Math.max(value, min), max);
+    }
+}
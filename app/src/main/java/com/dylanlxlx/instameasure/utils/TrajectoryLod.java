@@ -0,0 +1,253 @@
+package com.dylanlxlx.instameasure.utils;
+
+/**
+ * 轨迹多分辨率(LOD)表示
+ * <pre>
+ * 第0层保存全部点；第k层(k≥1)只保留与上一个保留点距离不小于 BASE_TOLERANCE·2^(k-1) 米的点
+ * 每层按 CHUNK_SIZE 个点分块，并记录每块的包围盒，用于视口裁剪
+ * </pre>
+ * 点只追加、每层O(1)更新，缩放和平移时直接选择合适的层，不需要重新简化
+ */
+public class TrajectoryLod {
+    private static final int LEVELS = 12;
+    private static final float BASE_TOLERANCE = 0.1f;   // 第1层的抽稀距离(米)
+    private static final int CHUNK_SIZE = 128;          // 每块的点数
+
+    private final Level[] levels = new Level[LEVELS];
+
+    // 输出缓冲区，供 Canvas.drawLines / drawCircle 使用
+    private float[] lineBuffer = new float[256];
+    private float[] markerBuffer = new float[128];
+
+    public TrajectoryLod() {
+        for (int i = 0; i < LEVELS; i++) {
+            levels[i] = new Level(i == 0 ? 0f : BASE_TOLERANCE * (1 << (i - 1)));
+        }
+    }
+
+    /**
+     * 追加一个轨迹点
+     * @param x 东向坐标(米)
+     * @param y 北向坐标(米)
+     */
+    public void add(float x, float y) {
+        for (Level level : levels) {
+            level.offer(x, y);
+        }
+    }
+
+    /**
+     * 清空所有层
+     */
+    public void clear() {
+        for (Level level : levels) {
+            level.clear();
+        }
+    }
+
+    /**
+     * 第0层(原始)点数
+     */
+    public int size() {
+        return levels[0].count;
+    }
+
+    /**
+     * 原始点的X坐标
+     */
+    public float getX(int index) {
+        return levels[0].xs[index];
+    }
+
+    /**
+     * 原始点的Y坐标
+     */
+    public float getY(int index) {
+        return levels[0].ys[index];
+    }
+
+    /**
+     * 选择在当前缩放下点间距仍可分辨的最粗层
+     * @param tolerance 允许的误差(米)，通常为像素容差除以缩放比例
+     * @return 层号
+     */
+    public int selectLevel(float tolerance) {
+        int selected = 0;
+        for (int i = 1; i < LEVELS; i++) {
+            if (levels[i].tolerance <= tolerance) {
+                selected = i;
+            } else {
+                break;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 生成可见部分的线段
+     * 坐标变换为 屏幕x = x·scale，屏幕y = -y·scale(Y轴向上为正，绘图坐标系Y轴向下为正)
+     * @param level 层号
+     * @param minX 视口世界坐标范围
+     * @param minY 视口世界坐标范围
+     * @param maxX 视口世界坐标范围
+     * @param maxY 视口世界坐标范围
+     * @param scale 每米像素数
+     * @return lineBuffer 中有效的浮点数个数(每条线段4个)
+     */
+    public int buildLines(int level, float minX, float minY, float maxX, float maxY, float scale) {
+        Level l = levels[level];
+        Level raw = levels[0];
+        int count = 0;
+        if (l.count == 0) {
+            return 0;
+        }
+
+        int chunks = (l.count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        for (int c = 0; c < chunks; c++) {
+            if (!l.chunkIntersects(c, minX, minY, maxX, maxY)) {
+                continue;
+            }
+            // 每块从上一块的最后一个点开始，保证线段连续
+            int start = Math.max(c * CHUNK_SIZE - 1, 0);
+            int end = Math.min((c + 1) * CHUNK_SIZE, l.count);
+            ensureLineCapacity(count + (end - start) * 4);
+            for (int i = start + 1; i < end; i++) {
+                lineBuffer[count++] = l.xs[i - 1] * scale;
+                lineBuffer[count++] = -l.ys[i - 1] * scale;
+                lineBuffer[count++] = l.xs[i] * scale;
+                lineBuffer[count++] = -l.ys[i] * scale;
+            }
+        }
+
+        // 粗层的最后一个保留点可能不是最新的点，补上到最新点的线段
+        if (level > 0 && raw.count > 0) {
+            float lastX = raw.xs[raw.count - 1];
+            float lastY = raw.ys[raw.count - 1];
+            float keptX = l.xs[l.count - 1];
+            float keptY = l.ys[l.count - 1];
+            if (lastX != keptX || lastY != keptY) {
+                ensureLineCapacity(count + 4);
+                lineBuffer[count++] = keptX * scale;
+                lineBuffer[count++] = -keptY * scale;
+                lineBuffer[count++] = lastX * scale;
+                lineBuffer[count++] = -lastY * scale;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 生成可见的原始点标记(每隔 interval 个点一个，不含起点)
+     * @return markerBuffer 中有效的浮点数个数(每个点2个)
+     */
+    public int buildMarkers(int interval, float minX, float minY, float maxX, float maxY, float scale) {
+        Level raw = levels[0];
+        int count = 0;
+        int chunks = (raw.count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        for (int c = 0; c < chunks; c++) {
+            if (!raw.chunkIntersects(c, minX, minY, maxX, maxY)) {
+                continue;
+            }
+            int start = c * CHUNK_SIZE;
+            int end = Math.min(start + CHUNK_SIZE, raw.count);
+            // 块内第一个满足间隔的下标
+            int first = ((start + interval - 1) / interval) * interval;
+            if (first == 0) first = interval;
+            for (int i = first; i < end; i += interval) {
+                if (count + 2 > markerBuffer.length) {
+                    markerBuffer = grow(markerBuffer, count + 2);
+                }
+                markerBuffer[count++] = raw.xs[i] * scale;
+                markerBuffer[count++] = -raw.ys[i] * scale;
+            }
+        }
+        return count;
+    }
+
+    public float[] getLineBuffer() {
+        return lineBuffer;
+    }
+
+    public float[] getMarkerBuffer() {
+        return markerBuffer;
+    }
+
+    private void ensureLineCapacity(int required) {
+        if (required > lineBuffer.length) {
+            lineBuffer = grow(lineBuffer, required);
+        }
+    }
+
+    private static float[] grow(float[] array, int required) {
+        float[] larger = new float[Math.max(required, array.length * 2)];
+        System.arraycopy(array, 0, larger, 0, array.length);
+        return larger;
+    }
+
+    /**
+     * 单个分辨率层
+     */
+    private static class Level {
+        final float tolerance;
+        final float toleranceSquared;
+        float[] xs = new float[CHUNK_SIZE];
+        float[] ys = new float[CHUNK_SIZE];
+        int count = 0;
+
+        // 每块的包围盒 [minX, minY, maxX, maxY]
+        float[] chunkBounds = new float[16];
+
+        Level(float tolerance) {
+            this.tolerance = tolerance;
+            this.toleranceSquared = tolerance * tolerance;
+        }
+
+        void offer(float x, float y) {
+            if (count > 0 && tolerance > 0) {
+                float dx = x - xs[count - 1];
+                float dy = y - ys[count - 1];
+                if (dx * dx + dy * dy < toleranceSquared) {
+                    return;
+                }
+            }
+
+            if (count == xs.length) {
+                xs = grow(xs, count + 1);
+                ys = grow(ys, count + 1);
+            }
+            xs[count] = x;
+            ys[count] = y;
+
+            int chunk = count / CHUNK_SIZE;
+            int base = chunk * 4;
+            if (base + 4 > chunkBounds.length) {
+                chunkBounds = grow(chunkBounds, base + 4);
+            }
+            if (count % CHUNK_SIZE == 0) {
+                // 新块从上一块的最后一个点开始绘制，包围盒也包含该点
+                float startX = count > 0 ? xs[count - 1] : x;
+                float startY = count > 0 ? ys[count - 1] : y;
+                chunkBounds[base] = Math.min(startX, x);
+                chunkBounds[base + 1] = Math.min(startY, y);
+                chunkBounds[base + 2] = Math.max(startX, x);
+                chunkBounds[base + 3] = Math.max(startY, y);
+            } else {
+                chunkBounds[base] = Math.min(chunkBounds[base], x);
+                chunkBounds[base + 1] = Math.min(chunkBounds[base + 1], y);
+                chunkBounds[base + 2] = Math.max(chunkBounds[base + 2], x);
+                chunkBounds[base + 3] = Math.max(chunkBounds[base + 3], y);
+            }
+            count++;
+        }
+
+        boolean chunkIntersects(int chunk, float minX, float minY, float maxX, float maxY) {
+            int base = chunk * 4;
+            return chunkBounds[base] <= maxX && chunkBounds[base + 2] >= minX
+                    && chunkBounds[base + 1] <= maxY && chunkBounds[base + 3] >= minY;
+        }
+
+        void clear() {
+            count = 0;
+        }
+    }
+}
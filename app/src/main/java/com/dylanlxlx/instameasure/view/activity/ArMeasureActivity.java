@@ -1,6 +1,8 @@
 package com.dylanlxlx.instameasure.view.activity;
 
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
@@ -13,6 +15,8 @@ import androidx.lifecycle.ViewModelProvider;
 import com.dylanlxlx.instameasure.R;
 import com.dylanlxlx.instameasure.model.ArMeasurementResult;
 import com.dylanlxlx.instameasure.model.MeasurementPoint;
+import com.dylanlxlx.instameasure.utils.AnchorChangeTracker;
+import com.dylanlxlx.instameasure.utils.ArProjectionCache;
 import com.dylanlxlx.instameasure.view.component.MeasurementOverlayView;
 import com.dylanlxlx.instameasure.viewmodel.ArMeasureViewModel;
 import com.google.ar.core.Anchor;
@@ -41,13 +45,14 @@ import com.google.ar.sceneform.ux.TransformableNode;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import android.graphics.PointF;
 
 /**
  * AR测量活动
  * 使用ARCore进行测距和面积计算
  */
 public class ArMeasureActivity extends AppCompatActivity implements Scene.OnUpdateListener {
+    private static final String TAG = ArMeasureActivity.class.getSimpleName();
+
     private ArFragment arFragment;
     private ArMeasureViewModel viewModel;
     private MeasurementOverlayView overlayView;
@@ -58,6 +63,13 @@ public class ArMeasureActivity extends AppCompatActivity implements Scene.OnUpda
     private List<Node> lineNodes = new ArrayList<>();
     private Renderable sphereRenderable;
 
+    // 每帧计算一次的投影缓存
+    private final ArProjectionCache projectionCache = new ArProjectionCache();
+    private boolean forceProjection = true; // 测量结果变化后即使相机未动也要重新投影
+
+    // 锚点位姿变化跟踪，只有移动超过阈值的点才触发重算
+    private final AnchorChangeTracker anchorTracker = new AnchorChangeTracker();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -111,6 +123,7 @@ public class ArMeasureActivity extends AppCompatActivity implements Scene.OnUpda
         viewModel.getMeasurementResult().observe(this, result -> {
             overlayView.updateMeasurementResult(result);
             updateLines(result);
+            forceProjection = true;
             updateScreenPoints(result);
         });
 
@@ -162,6 +175,7 @@ public class ArMeasureActivity extends AppCompatActivity implements Scene.OnUpda
             node.setParent(null);
         }
         lineNodes.clear();
+        anchorTracker.reset();
 
         // 清理所有锚点节点
         ArMeasurementResult result = viewModel.getMeasurementResult().getValue();
@@ -221,66 +235,64 @@ public class ArMeasureActivity extends AppCompatActivity implements Scene.OnUpda
     }
 
     /**
-     * 更新测量点的屏幕坐标
+     * 比较锚点位姿与缓存的位置
+     * 只有移动超过阈值的点才更新测量结果，距离、面积的重算和叠加视图的重绘随之触发
      */
-    private void updateScreenPoints(ArMeasurementResult result) {
-        if (result == null || result.getPoints().isEmpty()) {
-            return;
-        }
-
-        List<PointF> screenPoints = new ArrayList<>();
-
-        for (MeasurementPoint point : result.getPoints()) {
+    private void trackAnchors(ArMeasurementResult result) {
+        List<MeasurementPoint> points = result.getPoints();
+        anchorTracker.begin(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            MeasurementPoint point = points.get(i);
             if (point.getAnchorNode() != null) {
-                // 将3D坐标转换为屏幕坐标
                 Vector3 worldPosition = point.getAnchorNode().getWorldPosition();
-
-                // 更新点的3D位置
-                float[] position = new float[]{worldPosition.x, worldPosition.y, worldPosition.z};
-                point.updatePosition(position);
-
-                // 转换为屏幕坐标
-                PointF screenPoint = getScreenCoordinates(worldPosition);
-                if (screenPoint != null) {
-                    screenPoints.add(screenPoint);
-                }
+                anchorTracker.check(i, worldPosition.x, worldPosition.y, worldPosition.z);
+            } else {
+                float[] position = point.getPosition();
+                anchorTracker.check(i, position[0], position[1], position[2]);
             }
         }
 
-        // 更新叠加视图中的屏幕点
-        overlayView.updateScreenPoints(screenPoints);
+        if (anchorTracker.getDirtyCount() > 0) {
+            viewModel.applyAnchorUpdates(anchorTracker);
+        }
+
+        if (anchorTracker.end(SystemClock.uptimeMillis())) {
+            Log.d(TAG, "anchor recompute/s: " + anchorTracker.getRecomputedPerSecond()
+                    + ", avoided/s: " + anchorTracker.getAvoidedPerSecond()
+                    + ", point updates avoided/s: " + anchorTracker.getPointUpdatesAvoidedPerSecond());
+        }
     }
 
     /**
-     * 将3D世界坐标转换为屏幕坐标
+     * 更新测量点的屏幕坐标
+     * 视图投影矩阵每帧只计算一次，所有点批量投影；相机和锚点都没有变化时跳过
      */
-    private PointF getScreenCoordinates(Vector3 worldPosition) {
-        ArSceneView sceneView = arFragment.getArSceneView();
-
-        float[] projectionMatrix = new float[16];
-        float[] viewMatrix = new float[16];
-
-        sceneView.getArFrame().getCamera().getProjectionMatrix(projectionMatrix, 0, 0.1f, 100.0f);
-        sceneView.getArFrame().getCamera().getViewMatrix(viewMatrix, 0);
-
-        float[] viewProjectionMatrix = new float[16];
-        android.opengl.Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
-
-        float[] worldCoordinates = new float[]{worldPosition.x, worldPosition.y, worldPosition.z, 1.0f};
-        float[] screenCoordinates = new float[4];
-
-        android.opengl.Matrix.multiplyMV(screenCoordinates, 0, viewProjectionMatrix, 0, worldCoordinates, 0);
-
-        if (screenCoordinates[3] != 0) {
-            screenCoordinates[0] /= screenCoordinates[3];
-            screenCoordinates[1] /= screenCoordinates[3];
+    private void updateScreenPoints(ArMeasurementResult result) {
+        if (result == null || result.getPoints().isEmpty()) {
+            return;
         }
 
-        // 坐标映射到屏幕
-        float x = (screenCoordinates[0] + 1) * sceneView.getWidth() / 2;
-        float y = (1 - screenCoordinates[1]) * sceneView.getHeight() / 2;
+        ArSceneView sceneView = arFragment.getArSceneView();
+        Frame frame = sceneView.getArFrame();
+        if (frame == null) {
+            return;
+        }
+        projectionCache.updateCamera(frame.getCamera(), sceneView.getWidth(), sceneView.getHeight());
+
+        List<MeasurementPoint> points = result.getPoints();
+        projectionCache.beginPoints(points.size());
+        int count = points.size();
+        for (int i = 0; i < count; i++) {
+            // 点的3D位置已由锚点跟踪更新
+            float[] position = points.get(i).getPosition();
+            projectionCache.setPoint(i, position[0], position[1], position[2]);
+        }
 
-        return new PointF(x, y);
+        // 转换为屏幕坐标，结果未变化时不重绘叠加视图
+        if (projectionCache.project(count, forceProjection)) {
+            forceProjection = false;
+            overlayView.updateScreenPoints(projectionCache.getScreenPoints(), count);
+        }
     }
 
     @Override
@@ -290,22 +302,23 @@ public class ArMeasureActivity extends AppCompatActivity implements Scene.OnUpda
             return;
         }
 
-        // 检测平面
+        // 检测平面，本帧没有平面更新时保持之前的状态
         Collection<Plane> planes = frame.getUpdatedTrackables(Plane.class);
-        boolean hasPlane = false;
-
-        for (Plane plane : planes) {
-            if (plane.getTrackingState() == TrackingState.TRACKING) {
-                hasPlane = true;
-                break;
+        if (!planes.isEmpty()) {
+            boolean hasPlane = false;
+            for (Plane plane : planes) {
+                if (plane.getTrackingState() == TrackingState.TRACKING) {
+                    hasPlane = true;
+                    break;
+                }
             }
+            viewModel.setPlaneDetected(hasPlane);
         }
 
-        viewModel.setPlaneDetected(hasPlane);
-
         // 更新锚点和屏幕点
         ArMeasurementResult result = viewModel.getMeasurementResult().getValue();
         if (result != null && !result.getPoints().isEmpty()) {
+            trackAnchors(result);
             updateScreenPoints(result);
         }
     }
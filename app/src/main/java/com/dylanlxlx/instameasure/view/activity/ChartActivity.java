@@ -42,6 +42,8 @@ public class ChartActivity extends AppCompatActivity {
             SensorService.LocalBinder binder = (SensorService.LocalBinder) service;
             sensorService = binder.getService();
             isSensorServiceBound = true;
+            // Charts need the raw gyroscope and magnetometer streams
+            sensorService.setRawSensorStreamsEnabled(true);
         }
 
         @Override
@@ -94,6 +96,7 @@ public class ChartActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         if (isSensorServiceBound) {
+            sensorService.setRawSensorStreamsEnabled(false);
             unbindService(sensorServiceConnection);
             isSensorServiceBound = false;
         }
@@ -1,10 +1,12 @@
 package com.dylanlxlx.instameasure.view.activity;
 
+import android.Manifest;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.view.MenuItem;
@@ -17,6 +19,7 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.dylanlxlx.instameasure.R;
@@ -71,7 +74,10 @@ public class TrajectoryActivity extends AppCompatActivity {
     // 用户配置
     private float userHeight = 1.7f; // 默认用户身高(米)
     private String currentMode = "PDR"; // 当前定位模式(PDR/GPS/Hybrid)
+    private String stepLengthModel = null; // 已学习的步长模型
+    private String magnetometerCalibration = null; // 磁力计校正参数
     private static final float CLOSURE_THRESHOLD = 2.0f; // 轨迹封闭判定阈值（米）
+    private static final int REQUEST_ACTIVITY_RECOGNITION = 101; // 运动识别权限请求码
 
     // 格式化工具
     private final DecimalFormat decimalFormat = new DecimalFormat("#0.00");
@@ -83,6 +89,8 @@ public class TrajectoryActivity extends AppCompatActivity {
             SensorService.LocalBinder binder = (SensorService.LocalBinder) service;
             sensorService = binder.getService();
             isSensorServiceBound = true;
+            // 服务创建时可能还没有得到运动识别权限
+            sensorService.onActivityRecognitionPermissionChanged();
             updateButtonStatus();
         }
 
@@ -135,12 +143,21 @@ public class TrajectoryActivity extends AppCompatActivity {
         // 绑定服务
         bindServices();
 
+        // 低功耗档位靠步伐检测传感器唤醒，需要运动识别权限
+        requestActivityRecognitionPermission();
+
         // 设置观察者
         setupObservers();
 
         // 设置用户身高
         viewModel.setUserHeight(userHeight);
 
+        // 恢复上次学习的步长模型
+        viewModel.restoreStepLengthModel(decodeModel(stepLengthModel));
+
+        // 恢复磁力计校正参数
+        viewModel.restoreMagnetometerCalibration(decodeModel(magnetometerCalibration));
+
         // 设置初始定位模式
         setLocationMode(currentMode);
 
@@ -152,6 +169,8 @@ public class TrajectoryActivity extends AppCompatActivity {
         SharedPreferences prefs = getSharedPreferences("InstaMeasureSettings", Context.MODE_PRIVATE);
         userHeight = prefs.getFloat("userHeight", 1.7f);
         currentMode = prefs.getString("locationMode", "PDR");
+        stepLengthModel = prefs.getString("stepLengthModel", null);
+        magnetometerCalibration = prefs.getString("magnetometerCalibration", null);
     }
 
     private void saveUserSettings() {
@@ -159,9 +178,60 @@ public class TrajectoryActivity extends AppCompatActivity {
         SharedPreferences.Editor editor = prefs.edit();
         editor.putFloat("userHeight", userHeight);
         editor.putString("locationMode", currentMode);
+        // 模型读取自处理线程发布的快照，还没有发布时保留已保存的值
+        double[] stepLengthModel = viewModel.getStepLengthModel();
+        if (stepLengthModel != null) {
+            editor.putString("stepLengthModel", encodeModel(stepLengthModel));
+        }
+        if (viewModel.isMagnetometerCalibrated()) {
+            editor.putString("magnetometerCalibration", encodeModel(viewModel.getMagnetometerCalibration()));
+        }
         editor.apply();
     }
 
+    private String encodeModel(double[] model) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < model.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(model[i]);
+        }
+        return builder.toString();
+    }
+
+    private double[] decodeModel(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return null;
+        }
+        String[] parts = encoded.split(",");
+        double[] model = new double[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                model[i] = Double.parseDouble(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return model;
+    }
+
+    private void requestActivityRecognitionPermission() {
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACTIVITY_RECOGNITION) != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.ACTIVITY_RECOGNITION},
+                    REQUEST_ACTIVITY_RECOGNITION);
+        }
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == REQUEST_ACTIVITY_RECOGNITION) {
+            // 未授权时服务改用显著运动传感器唤醒
+            if (isSensorServiceBound && sensorService != null) {
+                sensorService.onActivityRecognitionPermissionChanged();
+            }
+        }
+    }
+
     private void retryBindServices() {
         if (!isSensorServiceBound || !isLocationServiceBound) {
             Toast.makeText(this, "正在重试连接服务...", Toast.LENGTH_SHORT).show();
@@ -233,33 +303,25 @@ public class TrajectoryActivity extends AppCompatActivity {
         viewModel.getOrientation().observe(this, orientation -> txtOrientation.setText(String.format("方向: %s°", decimalFormat.format(orientation))));
 
         // 观察步长
-        viewModel.getStepLength().observe(this, stepLength -> {
-            txtStepLength.setText(String.format("步长: %s米", decimalFormat.format(stepLength)));
-
-            // 当测量中且有新步数时，根据步长和方向更新位置
-            if (isMeasuring && isLocationServiceBound) {
-                Float orientation = viewModel.getOrientation().getValue();
-                if (orientation != null) {
-                    viewModel.addPosition(stepLength, orientation);
-                }
-            }
-        });
-
-        // 观察轨迹点
-        viewModel.getTrajectoryPoints().observe(this, trajectoryPoints -> {
-            // 更新轨迹视图
-            trajectoryView.setTrajectoryPoints(trajectoryPoints);
+        // 位置由步伐事件直接更新，这里只显示
+        viewModel.getStepLength().observe(this, stepLength -> txtStepLength.setText(String.format("步长: %s米", decimalFormat.format(stepLength))));
 
-            // 计算并显示轨迹长度
-            float distance = calculateTrajectoryLength(trajectoryPoints);
-            txtDistance.setText(String.format("距离: %s米", decimalFormat.format(distance)));
+        // 轨迹视图使用只追加的原始轨迹，代数不变时渲染器只需处理新增的点；
+        // 优化轨迹经过全局简化和降采样，每次更新都可能改变任意位置的点
+        viewModel.getTrajectorySnapshot().observe(this, snapshot ->
+                trajectoryView.setTrajectoryPoints(snapshot.getPoints(), snapshot.getGeneration()));
 
+        // 观察优化后的轨迹点
+        viewModel.getTrajectoryPoints().observe(this, trajectoryPoints -> {
             // 检查轨迹是否封闭
             if (isMeasuring && trajectoryPoints.size() > 3) {
                 checkTrajectoryEnclosure(trajectoryPoints);
             }
         });
 
+        // 观察轨迹长度(处理线程上增量计算)
+        viewModel.getTrajectoryLength().observe(this, length -> txtDistance.setText(String.format("距离: %s米", decimalFormat.format(length))));
+
         // 观察面积
         viewModel.getMeasuredArea().observe(this, area -> txtArea.setText(String.format("面积: %s平方米", decimalFormat.format(area))));
 
@@ -319,7 +381,9 @@ public class TrajectoryActivity extends AppCompatActivity {
             return;
         }
 
-        if (!isLocationServiceBound) {
+        // 纯PDR模式不需要位置服务，也不启动GPS
+        boolean useGps = currentMode.equals("GPS") || currentMode.equals("Hybrid");
+        if (useGps && !isLocationServiceBound) {
             // 尝试重新绑定位置服务
             Intent locationIntent = new Intent(this, LocationService.class);
             startService(locationIntent);
@@ -335,8 +399,8 @@ public class TrajectoryActivity extends AppCompatActivity {
         viewModel.startMeasurement();
         Toast.makeText(this, "开始测量轨迹", Toast.LENGTH_SHORT).show();
 
-        // 启动相应的定位服务模式
-        if (currentMode.equals("GPS") || currentMode.equals("Hybrid")) {
+        // 启动相应的定位服务模式，请求间隔由位置服务自适应调整
+        if (useGps) {
             locationService.startGpsTracking();
         }
     }
@@ -357,7 +421,8 @@ public class TrajectoryActivity extends AppCompatActivity {
     }
 
     private void updateButtonStatus() {
-        boolean servicesReady = isSensorServiceBound && isLocationServiceBound;
+        boolean servicesReady = isSensorServiceBound
+                && (isLocationServiceBound || currentMode.equals("PDR"));
 
         runOnUiThread(() -> {
             if (!isMeasuring) {
@@ -476,6 +541,12 @@ public class TrajectoryActivity extends AppCompatActivity {
         // 默认选择步长校准
         radioStepLength.setChecked(true);
 
+        // 硬件旋转矢量由系统校准磁力计，不提供方向校准
+        if (!viewModel.requiresRawSensors()) {
+            radioDirection.setVisibility(View.GONE);
+            view.findViewById(R.id.txt_direction_hint).setVisibility(View.GONE);
+        }
+
         final AlertDialog dialog = builder.setTitle("传感器校准")
                 .setView(view)
                 .setNegativeButton("关闭", null)
@@ -621,38 +692,32 @@ public class TrajectoryActivity extends AppCompatActivity {
      * 开始方向校准
      */
     private void startDirectionCalibration() {
+        // 硬件旋转矢量方向源不订阅原始磁力计，由系统自动校准
+        if (!viewModel.requiresRawSensors()) {
+            Toast.makeText(this, "系统已自动校准地磁传感器", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // 丢弃旧样本，重新收集磁力计数据
+        // 旧参数在得到新结果前继续使用，以版本号判断本次是否得到了新参数
+        int previousVersion = viewModel.getMagnetometerCalibrationVersion();
+        viewModel.startMagnetometerCalibration();
+
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("方向校准")
-                .setMessage("请将手机平放，缓慢转动一整圈(360度)。\n这将帮助校准地磁传感器。")
-                .setPositiveButton("完成", (dialog, which) -> Toast.makeText(this, "方向已校准", Toast.LENGTH_SHORT).show())
+                .setMessage("请手持手机缓慢画\"8\"字，使手机朝向各个方向。\n这将帮助校准地磁传感器。")
+                .setPositiveButton("完成", (dialog, which) -> {
+                    if (viewModel.getMagnetometerCalibrationVersion() != previousVersion) {
+                        saveUserSettings();
+                        Toast.makeText(this, "方向已校准", Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(this, "校准数据不足，请多转动几圈", Toast.LENGTH_SHORT).show();
+                    }
+                })
                 .setCancelable(false)
                 .show();
     }
 
-    /**
-     * 计算轨迹总长度
-     * @param points 轨迹点列表
-     * @return 轨迹长度（米）
-     */
-    private float calculateTrajectoryLength(List<TrajectoryPoint> points) {
-        if (points == null || points.size() < 2) {
-            return 0;
-        }
-
-        float totalDistance = 0;
-        for (int i = 1; i < points.size(); i++) {
-            TrajectoryPoint p1 = points.get(i - 1);
-            TrajectoryPoint p2 = points.get(i);
-
-            // 计算两点之间的欧氏距离
-            double dx = p2.getX() - p1.getX();
-            double dy = p2.getY() - p1.getY();
-            totalDistance += Math.sqrt(dx * dx + dy * dy);
-        }
-
-        return totalDistance;
-    }
-
     /**
      * 检查轨迹是否封闭
      * @param points 轨迹点列表
@@ -5,34 +5,48 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PointF;
 import android.util.AttributeSet;
 import android.view.View;
 
 import com.dylanlxlx.instameasure.model.ArMeasurementResult;
-import com.dylanlxlx.instameasure.model.MeasurementPoint;
 
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
  * 测量叠加视图
  * 在AR视图上绘制测量点、线段、距离标签和面积
+ * <p>
+ * 绘制过程不分配对象：屏幕坐标保存在复用的数组中，面积多边形复用同一个 Path，
+ * 距离和面积标签只在数值变化时重新格式化。投影位置移动不超过阈值时不重绘。
  */
 public class MeasurementOverlayView extends View {
+    private static final float PIXEL_THRESHOLD = 1f;  // 屏幕坐标变化超过该像素数才重绘
+    private static final float LABEL_OFFSET = 20f;    // 距离标签与线段的距离
+    private static final float POINT_RADIUS = 15f;
+
     // 绘图工具
     private final Paint pointPaint;
+    private final Paint firstPointPaint;
     private final Paint linePaint;
     private final Paint textPaint;
     private final Paint areaPaint;
     private final DecimalFormat decimalFormat;
+    private final Path areaPath = new Path();
 
     // 当前测量结果
     private ArMeasurementResult measurementResult;
 
-    // 屏幕坐标
-    private final List<PointF> screenPoints = new ArrayList<>();
+    // 屏幕坐标 [x0,y0,x1,y1,...]
+    private float[] screenPoints = new float[16];
+    private int pointCount = 0;
+
+    // 标签缓存，数值不变时复用已格式化的字符串
+    private String[] distanceLabels = new String[8];
+    private float[] labelDistances = new float[8];
+    private String areaLabel;
+    private float labelArea = Float.NaN;
+    private float areaLabelWidth;
 
     public MeasurementOverlayView(Context context) {
         this(context, null);
@@ -48,6 +62,11 @@ public class MeasurementOverlayView extends View {
         // 初始化绘图工具
         pointPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         pointPaint.setStyle(Paint.Style.FILL);
+        pointPaint.setColor(Color.RED);
+
+        // 第一个点使用绿色
+        firstPointPaint = new Paint(pointPaint);
+        firstPointPaint.setColor(Color.GREEN);
 
         linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         linePaint.setColor(Color.YELLOW);
@@ -76,110 +95,135 @@ public class MeasurementOverlayView extends View {
 
     /**
      * 更新点的屏幕坐标
+     * 点数不变且所有点移动都不超过阈值时不重绘
+     * @param coords 屏幕坐标 [x0,y0,x1,y1,...]
+     * @param count 点数
      */
-    public void updateScreenPoints(List<PointF> points) {
-        screenPoints.clear();
-        screenPoints.addAll(points);
+    public void updateScreenPoints(float[] coords, int count) {
+        if (count == pointCount && !movedBeyondThreshold(coords, count)) {
+            return;
+        }
+        if (screenPoints.length < count * 2) {
+            screenPoints = new float[count * 4];
+        }
+        System.arraycopy(coords, 0, screenPoints, 0, count * 2);
+        pointCount = count;
         invalidate();
     }
 
+    private boolean movedBeyondThreshold(float[] coords, int count) {
+        for (int i = 0; i < count * 2; i++) {
+            if (Math.abs(coords[i] - screenPoints[i]) > PIXEL_THRESHOLD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        if (measurementResult == null || screenPoints.isEmpty()) {
+        if (measurementResult == null || pointCount == 0) {
             return;
         }
+        List<Float> distances = measurementResult.getDistances();
+        float[] p = screenPoints;
 
         // 绘制线段和距离标签
-        for (int i = 0; i < screenPoints.size() - 1; i++) {
-            PointF p1 = screenPoints.get(i);
-            PointF p2 = screenPoints.get(i + 1);
+        for (int i = 0; i < pointCount - 1; i++) {
+            int a = i * 2;
+            int b = a + 2;
 
             // 绘制线段
-            canvas.drawLine(p1.x, p1.y, p2.x, p2.y, linePaint);
+            canvas.drawLine(p[a], p[a + 1], p[b], p[b + 1], linePaint);
 
             // 在线段中间绘制距离标签
-            if (measurementResult.getDistances().size() > i) {
-                float distance = measurementResult.getDistances().get(i);
-                String distanceText = decimalFormat.format(distance) + "m";
-
-                float midX = (p1.x + p2.x) / 2;
-                float midY = (p1.y + p2.y) / 2;
-
-                // 计算文本偏移，避免遮挡线段
-                float angle = (float) Math.atan2(p2.y - p1.y, p2.x - p1.x);
-                float offset = 20f;
-                float offsetX = (float) Math.sin(angle) * offset;
-                float offsetY = (float) -Math.cos(angle) * offset;
-
-                canvas.drawText(distanceText, midX + offsetX, midY + offsetY, textPaint);
+            if (distances.size() > i) {
+                drawDistanceLabel(canvas, i, distances.get(i), p[a], p[a + 1], p[b], p[b + 1]);
             }
         }
 
         // 如果已闭合区域，绘制封闭路径和面积标签
-        if (measurementResult.isClosed() && screenPoints.size() >= 3) {
+        if (measurementResult.isClosed() && pointCount >= 3) {
             // 绘制最后一条连接第一个点的线
-            PointF firstPoint = screenPoints.get(0);
-            PointF lastPoint = screenPoints.get(screenPoints.size() - 1);
-            canvas.drawLine(lastPoint.x, lastPoint.y, firstPoint.x, firstPoint.y, linePaint);
+            int last = (pointCount - 1) * 2;
+            canvas.drawLine(p[last], p[last + 1], p[0], p[1], linePaint);
 
             // 绘制最后一段距离标签
-            if (measurementResult.getDistances().size() >= screenPoints.size()) {
-                float distance = measurementResult.getDistances().get(measurementResult.getDistances().size() - 1);
-                String distanceText = decimalFormat.format(distance) + "m";
-
-                float midX = (firstPoint.x + lastPoint.x) / 2;
-                float midY = (firstPoint.y + lastPoint.y) / 2;
-
-                float angle = (float) Math.atan2(firstPoint.y - lastPoint.y, firstPoint.x - lastPoint.x);
-                float offset = 20f;
-                float offsetX = (float) Math.sin(angle) * offset;
-                float offsetY = (float) -Math.cos(angle) * offset;
-
-                canvas.drawText(distanceText, midX + offsetX, midY + offsetY, textPaint);
+            if (distances.size() >= pointCount) {
+                int index = distances.size() - 1;
+                drawDistanceLabel(canvas, index, distances.get(index), p[last], p[last + 1], p[0], p[1]);
             }
 
-            // 绘制半透明多边形
-            Path areaPath = new Path();
-            areaPath.moveTo(screenPoints.get(0).x, screenPoints.get(0).y);
-
-            for (int i = 1; i < screenPoints.size(); i++) {
-                areaPath.lineTo(screenPoints.get(i).x, screenPoints.get(i).y);
+            // 绘制半透明多边形，同时累加中心点
+            areaPath.reset();
+            areaPath.moveTo(p[0], p[1]);
+            float sumX = p[0];
+            float sumY = p[1];
+            for (int i = 1; i < pointCount; i++) {
+                areaPath.lineTo(p[i * 2], p[i * 2 + 1]);
+                sumX += p[i * 2];
+                sumY += p[i * 2 + 1];
             }
-
             areaPath.close();
             canvas.drawPath(areaPath, areaPaint);
 
             // 在中心绘制面积标签
-            String areaText = decimalFormat.format(measurementResult.getArea()) + "m²";
-            float[] centroid = calculateCentroid(screenPoints);
-
-            canvas.drawText(areaText, centroid[0] - textPaint.measureText(areaText) / 2, centroid[1], textPaint);
+            float area = measurementResult.getArea();
+            if (area != labelArea || areaLabel == null) {
+                areaLabel = decimalFormat.format(area) + "m²";
+                areaLabelWidth = textPaint.measureText(areaLabel);
+                labelArea = area;
+            }
+            canvas.drawText(areaLabel, sumX / pointCount - areaLabelWidth / 2, sumY / pointCount, textPaint);
         }
 
-        // 绘制测量点
-        for (int i = 0; i < screenPoints.size(); i++) {
-            PointF p = screenPoints.get(i);
-
-            // 第一个点使用绿色，其他点使用红色
-            pointPaint.setColor(i == 0 ? Color.GREEN : Color.RED);
-            canvas.drawCircle(p.x, p.y, 15, pointPaint);
+        // 绘制测量点，第一个点使用绿色，其他点使用红色
+        for (int i = 0; i < pointCount; i++) {
+            canvas.drawCircle(p[i * 2], p[i * 2 + 1], POINT_RADIUS, i == 0 ? firstPointPaint : pointPaint);
         }
     }
 
     /**
-     * 计算多边形中心点
+     * 在线段中间绘制距离标签，标签沿法线方向偏移，避免遮挡线段
      */
-    private float[] calculateCentroid(List<PointF> points) {
-        float sumX = 0;
-        float sumY = 0;
-
-        for (PointF point : points) {
-            sumX += point.x;
-            sumY += point.y;
+    private void drawDistanceLabel(Canvas canvas, int index, float distance,
+                                   float x1, float y1, float x2, float y2) {
+        float midX = (x1 + x2) / 2;
+        float midY = (y1 + y2) / 2;
+
+        // 单位法线，等价于 (sin(angle), -cos(angle))
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        float offsetX = 0;
+        float offsetY = -LABEL_OFFSET;
+        if (length > 0) {
+            offsetX = dy / length * LABEL_OFFSET;
+            offsetY = -dx / length * LABEL_OFFSET;
         }
 
-        return new float[]{sumX / points.size(), sumY / points.size()};
+        canvas.drawText(getDistanceLabel(index, distance), midX + offsetX, midY + offsetY, textPaint);
+    }
+
+    /**
+     * 获取缓存的距离标签，距离变化时才重新格式化
+     */
+    private String getDistanceLabel(int index, float distance) {
+        if (index >= distanceLabels.length) {
+            int size = Math.max(index + 1, distanceLabels.length * 2);
+            String[] labels = new String[size];
+            float[] values = new float[size];
+            System.arraycopy(distanceLabels, 0, labels, 0, distanceLabels.length);
+            System.arraycopy(labelDistances, 0, values, 0, labelDistances.length);
+            distanceLabels = labels;
+            labelDistances = values;
+        }
+        if (distanceLabels[index] == null || labelDistances[index] != distance) {
+            distanceLabels[index] = decimalFormat.format(distance) + "m";
+            labelDistances[index] = distance;
+        }
+        return distanceLabels[index];
     }
-}
\ No newline at end of file
+}
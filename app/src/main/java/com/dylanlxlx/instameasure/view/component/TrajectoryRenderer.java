@@ -0,0 +1,422 @@
+package com.dylanlxlx.instameasure.view.component;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.dylanlxlx.instameasure.model.TrajectoryPoint;
+import com.dylanlxlx.instameasure.utils.TrajectoryLod;
+
+import java.util.List;
+
+/**
+ * 轨迹后台渲染器
+ * 在工作线程上把轨迹快照转换为屏幕坐标的线段数组(供 Canvas.drawLines 使用)，
+ * 双缓冲：工作线程写后台帧，完成后交换，UI线程只绘制最新的前台帧。
+ * <p>
+ * 多次提交会合并，工作线程总是处理最新的快照和视口。
+ * <p>
+ * 输入是只追加的原始轨迹，每次提交带着轨迹的代数：代数不变时只追加新的点(每个点O(1))，
+ * 代数变化(例如轨迹被清空)时完整重建。
+ */
+public class TrajectoryRenderer {
+    private static final String THREAD_NAME = "TrajectoryRenderer";
+
+    // 不属于任何轨迹的代数，提交后下一次提交总会完整重建
+    public static final int NO_GENERATION = Integer.MIN_VALUE;
+
+    // 绘制参数
+    private static final int MARKER_INTERVAL = 5;     // 每隔几个点绘制一个小点
+    private static final float FIT_MARGIN = 0.85f;    // 85%的视图区域用于显示轨迹
+    private static final float FIT_HEADROOM = 0.8f;   // 适配时额外留出的空间，减少频繁缩放
+    private static final float PIXEL_TOLERANCE = 2f;  // 小于该像素距离的点视为重合
+    private static final float MARKER_MIN_SPACING = 12f; // 标记点之间至少相隔的像素数，否则不绘制
+    private static final float CULL_MARGIN = 0.5f;    // 裁剪范围向外扩展的视图比例，平移时下一帧到来前不露白
+    private static final float INITIAL_SCALE = 20f;   // 初始缩放比例(像素/米)
+
+    /**
+     * 帧就绪回调(在工作线程调用)
+     */
+    public interface Listener {
+        void onFrameReady();
+    }
+
+    /**
+     * 一帧渲染结果，坐标为 世界坐标×scale(不含偏移)，Y轴已翻转
+     */
+    static class Frame {
+        float[] lines = new float[256];
+        int lineCount;
+        float[] markers = new float[64];
+        int markerCount;
+        boolean hasTrajectory;
+        int pointCount;
+        float startX, startY;
+        float endX, endY;
+        float arrowAngle;
+        boolean closing;
+        float scale;
+        float offsetX, offsetY;
+    }
+
+    private final Listener listener;
+    private HandlerThread thread;
+    private Handler handler;
+
+    // 双缓冲
+    private final Object frameLock = new Object();
+    private final Frame[] frames = {new Frame(), new Frame()};
+    private int front = 0;
+
+    // UI线程提交的请求(受 requestLock 保护)
+    private final Object requestLock = new Object();
+    private List<TrajectoryPoint> requestedPoints;
+    private int requestedGeneration = NO_GENERATION;
+    private float requestedScale = INITIAL_SCALE;
+    private float requestedOffsetX, requestedOffsetY;
+    private int requestedWidth, requestedHeight;
+    private boolean requestedUserViewport;
+    private boolean fitRequested = true;
+    private boolean renderScheduled = false;
+
+    // 以下状态只在工作线程访问
+    private final TrajectoryLod lod = new TrajectoryLod();
+    private List<TrajectoryPoint> points;
+    private int generation = NO_GENERATION;
+    private int committedCount = 0;
+    private int boundsCount = 0;
+    private double minX, maxX, minY, maxY;
+    private double pathLength = 0;
+    private float scale = INITIAL_SCALE;
+    private float offsetX, offsetY;
+    private int width, height;
+    private boolean userViewport;
+    private boolean needsFit;
+
+    private final Runnable renderTask = this::render;
+
+    public TrajectoryRenderer(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 启动工作线程
+     */
+    public void start() {
+        if (thread != null) return;
+        thread = new HandlerThread(THREAD_NAME);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        scheduleRender();
+    }
+
+    /**
+     * 停止工作线程
+     */
+    public void stop() {
+        if (thread == null) return;
+        thread.quitSafely();
+        thread = null;
+        handler = null;
+        synchronized (requestLock) {
+            renderScheduled = false;
+        }
+    }
+
+    /**
+     * 提交新的轨迹快照(列表提交后不应再被修改)
+     * @param snapshot 轨迹点
+     * @param snapshotGeneration 轨迹代数，与上次相同表示只在末尾追加了点
+     */
+    public void submit(List<TrajectoryPoint> snapshot, int snapshotGeneration) {
+        synchronized (requestLock) {
+            requestedPoints = snapshot;
+            requestedGeneration = snapshotGeneration;
+        }
+        scheduleRender();
+    }
+
+    /**
+     * 设置视图尺寸，尺寸变化后重新适配
+     */
+    public void setViewSize(int w, int h) {
+        synchronized (requestLock) {
+            requestedWidth = w;
+            requestedHeight = h;
+            fitRequested = true;
+        }
+        scheduleRender();
+    }
+
+    /**
+     * 设置用户手势确定的视口
+     */
+    public void setViewport(float newScale, float newOffsetX, float newOffsetY) {
+        synchronized (requestLock) {
+            requestedScale = newScale;
+            requestedOffsetX = newOffsetX;
+            requestedOffsetY = newOffsetY;
+            requestedUserViewport = true;
+        }
+        scheduleRender();
+    }
+
+    /**
+     * 恢复自动适配
+     */
+    public void requestFit() {
+        synchronized (requestLock) {
+            requestedUserViewport = false;
+            fitRequested = true;
+        }
+        scheduleRender();
+    }
+
+    /**
+     * 在持有帧锁的情况下访问前台帧(UI线程绘制时调用)
+     */
+    Object getFrameLock() {
+        return frameLock;
+    }
+
+    /**
+     * 前台帧，必须在持有 getFrameLock() 时访问
+     */
+    Frame getFrontFrame() {
+        return frames[front];
+    }
+
+    private void scheduleRender() {
+        synchronized (requestLock) {
+            if (handler == null || renderScheduled) return;
+            renderScheduled = true;
+            handler.post(renderTask);
+        }
+    }
+
+    /**
+     * 工作线程：处理最新请求并生成一帧
+     */
+    private void render() {
+        List<TrajectoryPoint> snapshot;
+        int snapshotGeneration;
+        synchronized (requestLock) {
+            renderScheduled = false;
+            snapshot = requestedPoints;
+            snapshotGeneration = requestedGeneration;
+            width = requestedWidth;
+            height = requestedHeight;
+            userViewport = requestedUserViewport;
+            if (userViewport) {
+                scale = requestedScale;
+                offsetX = requestedOffsetX;
+                offsetY = requestedOffsetY;
+            }
+            if (fitRequested) {
+                needsFit = true;
+                fitRequested = false;
+            }
+        }
+
+        updateTrajectory(snapshot, snapshotGeneration);
+
+        // 只有轨迹超出可视区域时才自动重新适配
+        if (!userViewport && boundsCount > 0 && (needsFit || !boundsInsideViewport())) {
+            fitToView();
+        }
+
+        Frame back = frames[1 - front];
+        buildFrame(back);
+
+        synchronized (frameLock) {
+            front = 1 - front;
+        }
+        if (listener != null) {
+            listener.onFrameReady();
+        }
+    }
+
+    /**
+     * 增量更新多分辨率结构和边界
+     */
+    private void updateTrajectory(List<TrajectoryPoint> snapshot, int snapshotGeneration) {
+        boolean appended = snapshotGeneration == generation && snapshotGeneration != NO_GENERATION
+                && snapshot != null && snapshot.size() >= committedCount;
+        points = snapshot;
+        generation = snapshotGeneration;
+
+        // 轨迹被清空后重新开始时需要完整重建
+        if (snapshot == null || snapshot.isEmpty() || !appended) {
+            lod.clear();
+            committedCount = 0;
+            boundsCount = 0;
+            pathLength = 0;
+        }
+        if (snapshot == null || snapshot.isEmpty()) {
+            return;
+        }
+
+        // 增量更新边界
+        int size = snapshot.size();
+        if (boundsCount == 0) {
+            minX = Double.MAX_VALUE;
+            maxX = -Double.MAX_VALUE;
+            minY = Double.MAX_VALUE;
+            maxY = -Double.MAX_VALUE;
+        }
+        for (int i = boundsCount; i < size; i++) {
+            TrajectoryPoint point = snapshot.get(i);
+            minX = Math.min(minX, point.getX());
+            maxX = Math.max(maxX, point.getX());
+            minY = Math.min(minY, point.getY());
+            maxY = Math.max(maxY, point.getY());
+        }
+        boundsCount = size;
+
+        // 把新的点追加到多分辨率结构中
+        for (int i = committedCount; i < size; i++) {
+            TrajectoryPoint point = snapshot.get(i);
+            if (i > 0) {
+                TrajectoryPoint prev = snapshot.get(i - 1);
+                pathLength += Math.hypot(point.getX() - prev.getX(), point.getY() - prev.getY());
+            }
+            lod.add((float) point.getX(), (float) point.getY());
+        }
+        committedCount = size;
+    }
+
+    /**
+     * 轨迹边界是否仍在可视区域内
+     */
+    private boolean boundsInsideViewport() {
+        float halfWidth = width / 2f;
+        float halfHeight = height / 2f;
+        return (float) minX * scale + offsetX >= -halfWidth
+                && (float) maxX * scale + offsetX <= halfWidth
+                && -(float) maxY * scale + offsetY >= -halfHeight
+                && -(float) minY * scale + offsetY <= halfHeight;
+    }
+
+    /**
+     * 计算合适的缩放比例和偏移量，使轨迹能完整显示在视图中
+     */
+    private void fitToView() {
+        if (width == 0 || height == 0) {
+            return;
+        }
+
+        // 计算轨迹的宽高，每边增加1米边距
+        double w = maxX - minX + 2;
+        double h = maxY - minY + 2;
+
+        // 计算中心点坐标
+        double centerX = (minX + maxX) / 2;
+        double centerY = (minY + maxY) / 2;
+
+        // 计算合适的缩放比例，确保轨迹能完整显示在视图中，并为后续轨迹留出空间
+        float scaleX = (width * FIT_MARGIN) / (float) w;
+        float scaleY = (height * FIT_MARGIN) / (float) h;
+        scale = Math.min(scaleX, scaleY) * FIT_HEADROOM;
+
+        // 确保缩放比例不会太小
+        scale = Math.max(scale, INITIAL_SCALE / 2);
+
+        // 计算偏移量，使轨迹中心与视图中心对齐
+        offsetX = -(float) centerX * scale;
+        offsetY = (float) centerY * scale;  // Y轴需要取反
+        needsFit = false;
+    }
+
+    /**
+     * 生成一帧
+     */
+    private void buildFrame(Frame frame) {
+        frame.scale = scale;
+        frame.offsetX = offsetX;
+        frame.offsetY = offsetY;
+        frame.lineCount = 0;
+        frame.markerCount = 0;
+        frame.closing = false;
+
+        List<TrajectoryPoint> snapshot = points;
+        frame.hasTrajectory = snapshot != null && !snapshot.isEmpty();
+        frame.pointCount = frame.hasTrajectory ? snapshot.size() : 0;
+        if (!frame.hasTrajectory) {
+            return;
+        }
+        int size = snapshot.size();
+
+        // 视口在世界坐标系中的范围，向外扩展以覆盖平移
+        float marginX = width * (0.5f + CULL_MARGIN);
+        float marginY = height * (0.5f + CULL_MARGIN);
+        float viewMinX = (-marginX - offsetX) / scale;
+        float viewMaxX = (marginX - offsetX) / scale;
+        float viewMinY = (offsetY - marginY) / scale;
+        float viewMaxY = (offsetY + marginY) / scale;
+
+        // 已提交部分：按缩放选择分辨率层，只输出可见的块
+        int level = lod.selectLevel(PIXEL_TOLERANCE / scale);
+        int lodLines = lod.buildLines(level, viewMinX, viewMinY, viewMaxX, viewMaxY, scale);
+        ensureLines(frame, lodLines + (size - committedCount + 1) * 4);
+        System.arraycopy(lod.getLineBuffer(), 0, frame.lines, 0, lodLines);
+        int count = lodLines;
+
+        // 尚未提交的点(正常情况下没有)直接输出
+        int start = Math.max(0, committedCount - 1);
+        for (int i = start + 1; i < size; i++) {
+            TrajectoryPoint from = snapshot.get(i - 1);
+            TrajectoryPoint to = snapshot.get(i);
+            frame.lines[count++] = (float) from.getX() * scale;
+            frame.lines[count++] = -(float) from.getY() * scale;
+            frame.lines[count++] = (float) to.getX() * scale;
+            frame.lines[count++] = -(float) to.getY() * scale;
+        }
+        frame.lineCount = count;
+
+        // 每隔几个点绘制一个小点，缩小到标记点互相重叠时不再绘制
+        double spacing = committedCount > 1 ? pathLength / (committedCount - 1) : Double.MAX_VALUE;
+        if (spacing * MARKER_INTERVAL * scale >= MARKER_MIN_SPACING) {
+            int markerCount = lod.buildMarkers(MARKER_INTERVAL, viewMinX, viewMinY, viewMaxX, viewMaxY, scale);
+            ensureMarkers(frame, markerCount + ((size - committedCount) / MARKER_INTERVAL + 1) * 2);
+            System.arraycopy(lod.getMarkerBuffer(), 0, frame.markers, 0, markerCount);
+            for (int i = Math.max(committedCount, 1); i < size - 1; i++) {
+                if (i % MARKER_INTERVAL == 0) {
+                    TrajectoryPoint point = snapshot.get(i);
+                    frame.markers[markerCount++] = (float) point.getX() * scale;
+                    frame.markers[markerCount++] = -(float) point.getY() * scale;
+                }
+            }
+            frame.markerCount = markerCount;
+        }
+
+        // 起点、终点与终点方向
+        TrajectoryPoint first = snapshot.get(0);
+        TrajectoryPoint last = snapshot.get(size - 1);
+        frame.startX = (float) first.getX() * scale;
+        frame.startY = -(float) first.getY() * scale;
+        frame.endX = (float) last.getX() * scale;
+        frame.endY = -(float) last.getY() * scale;
+        if (size > 1) {
+            TrajectoryPoint prev = snapshot.get(size - 2);
+            frame.arrowAngle = (float) Math.atan2(
+                    frame.endY + (float) prev.getY() * scale,
+                    frame.endX - (float) prev.getX() * scale);
+
+            // 起点和终点距离小于2米时绘制闭合虚线
+            double dx = last.getX() - first.getX();
+            double dy = last.getY() - first.getY();
+            frame.closing = Math.sqrt(dx * dx + dy * dy) < 2.0;
+        }
+    }
+
+    private static void ensureLines(Frame frame, int required) {
+        if (frame.lines.length < required) {
+            frame.lines = new float[Math.max(required, frame.lines.length * 2)];
+        }
+    }
+
+    private static void ensureMarkers(Frame frame, int required) {
+        if (frame.markers.length < required) {
+            frame.markers = new float[Math.max(required, frame.markers.length * 2)];
+        }
+    }
+}
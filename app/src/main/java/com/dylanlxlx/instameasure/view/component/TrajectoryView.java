@@ -1,13 +1,19 @@
 package com.dylanlxlx.instameasure.view.component;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.DashPathEffect;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PathMeasure;
+import android.graphics.Shader;
 import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 
 import com.dylanlxlx.instameasure.model.TrajectoryPoint;
@@ -17,42 +23,68 @@ import java.util.List;
 /**
  * 轨迹显示视图
  * 自定义View用于绘制轨迹
+ * <p>
+ * 坐标变换、多分辨率选择和视口裁剪都在 {@link TrajectoryRenderer} 的工作线程上完成，
+ * 结果双缓冲；onDraw 只绘制最新就绪的一帧，UI线程的开销与轨迹长度无关。
+ * 新帧到来之前，用画布变换补偿帧生成后发生的缩放和平移，手势保持跟手。
+ * 网格固定在世界坐标系中：缓存一个网格单元的位图并平铺绘制，平移只改变平铺的偏移，
+ * 缩放手势期间拉伸已有的单元，手势结束后再按新的缩放重新绘制单元。
+ * 支持双指缩放和拖动平移，双击恢复自动适配。
  */
 public class TrajectoryView extends View {
-    private List<TrajectoryPoint> trajectoryPoints;
     private final Paint pathPaint = new Paint();
     private final Paint pointPaint = new Paint();
     private final Paint startPointPaint = new Paint();
     private final Paint arrowPaint = new Paint();
     private final Paint gridPaint = new Paint();
-    private final Path trajectoryPath = new Path();
+    private final Paint gridFillPaint = new Paint();
+    private final Paint closingPaint = new Paint();
+    private final Paint hintCirclePaint = new Paint();
+    private final Paint hintTextPaint = new Paint();
+    private final TrajectoryRenderer renderer = new TrajectoryRenderer(this::postInvalidateOnAnimation);
     private final Path arrowPath = new Path();
 
     // 缩放和平移参数
     private float scale = 20f;  // 每米在屏幕上的像素数
-    private float initialScale = 20f; // 初始缩放比例
     private float offsetX = 0;  // X轴偏移量
     private float offsetY = 0;  // Y轴偏移量
-    private boolean firstDraw = true;
-    private boolean hasTrajectory = false;
+    private boolean userViewport = false; // 用户手动缩放/平移后不再自动适配
+
+    private static final float MIN_SCALE = 0.05f;     // 手势缩放范围(像素/米)
+    private static final float MAX_SCALE = 500f;
 
     // 网格参数
     private static final float GRID_SIZE = 1.0f; // 网格大小（米）
     private static final boolean SHOW_GRID = true; // 是否显示网格
+    private static final float MIN_GRID_PIXELS = 20f; // 网格线最小间距(像素)，更密时网格放大10倍
+    private Bitmap gridTile;                     // 一个网格单元(左边和上边两条线)
+    private final Canvas gridTileCanvas = new Canvas();
+    private final Matrix gridMatrix = new Matrix();
+    private BitmapShader gridShader;
+    private float gridTileScale = -1;            // 绘制网格单元时视图的缩放(像素/米)
+    private float gridTilePixelScale;            // 网格单元位图实际的缩放(边长取整后)
+    private boolean gestureActive = false;       // 手指按下期间不重新绘制网格单元
+
+    // 手势
+    private ScaleGestureDetector scaleDetector;
+    private GestureDetector gestureDetector;
 
     public TrajectoryView(Context context) {
         super(context);
         initPaints();
+        initGestures(context);
     }
 
     public TrajectoryView(Context context, AttributeSet attrs) {
         super(context, attrs);
         initPaints();
+        initGestures(context);
     }
 
     public TrajectoryView(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
         initPaints();
+        initGestures(context);
     }
 
     private void initPaints() {
@@ -64,6 +96,11 @@ public class TrajectoryView extends View {
         pathPaint.setStrokeCap(Paint.Cap.ROUND);
         pathPaint.setStrokeJoin(Paint.Join.ROUND);
 
+        // 闭合部分使用虚线
+        closingPaint.set(pathPaint);
+        closingPaint.setStrokeWidth(6);
+        closingPaint.setPathEffect(new DashPathEffect(new float[]{10, 10}, 0));
+
         // 轨迹点画笔
         pointPaint.setColor(Color.rgb(219, 68, 55)); // Google红
         pointPaint.setStyle(Paint.Style.FILL);
@@ -74,6 +111,14 @@ public class TrajectoryView extends View {
         startPointPaint.setStyle(Paint.Style.FILL);
         startPointPaint.setAntiAlias(true);
 
+        // 初始状态提示
+        hintTextPaint.set(pointPaint);
+        hintTextPaint.setTextSize(40);
+        hintCirclePaint.set(startPointPaint);
+        hintCirclePaint.setStyle(Paint.Style.STROKE);
+        hintCirclePaint.setStrokeWidth(3);
+        hintCirclePaint.setPathEffect(new DashPathEffect(new float[]{10, 10}, 0));
+
         // 箭头画笔
         arrowPaint.setColor(Color.rgb(66, 133, 244)); // Google蓝
         arrowPaint.setStyle(Paint.Style.FILL);
@@ -87,65 +132,136 @@ public class TrajectoryView extends View {
         gridPaint.setAntiAlias(true);
     }
 
-    public void setTrajectoryPoints(List<TrajectoryPoint> points) {
-        this.trajectoryPoints = points;
-        hasTrajectory = points != null && !points.isEmpty();
-        firstDraw = true;  // 重置firstDraw标志以重新计算缩放和偏移
-        invalidate();      // 重绘视图
+    private void initGestures(Context context) {
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                float newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * detector.getScaleFactor()));
+
+                // 保持手势焦点下的世界坐标不变
+                float focusX = detector.getFocusX() - getWidth() / 2f;
+                float focusY = detector.getFocusY() - getHeight() / 2f;
+                float worldX = (focusX - offsetX) / scale;
+                float worldY = (offsetY - focusY) / scale;
+                scale = newScale;
+                offsetX = focusX - worldX * scale;
+                offsetY = focusY + worldY * scale;
+
+                userViewport = true;
+                renderer.setViewport(scale, offsetX, offsetY);
+                invalidate();
+                return true;
+            }
+        });
+
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                offsetX -= distanceX;
+                offsetY -= distanceY;
+                userViewport = true;
+                renderer.setViewport(scale, offsetX, offsetY);
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                // 恢复自动适配
+                userViewport = false;
+                renderer.requestFit();
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            gestureActive = true;
+        } else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            // 手势结束，按最终的缩放重新绘制网格单元
+            gestureActive = false;
+            invalidate();
+        }
+
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled = gestureDetector.onTouchEvent(event) || handled;
+        return handled || super.onTouchEvent(event);
+    }
+
+    /**
+     * 提交新的轨迹快照，由渲染线程转换后再重绘
+     * @param points 只追加的轨迹点
+     * @param generation 轨迹代数，与上次提交相同时表示只在末尾追加了点
+     */
+    public void setTrajectoryPoints(List<TrajectoryPoint> points, int generation) {
+        renderer.submit(points, generation);
     }
 
     /**
      * 清除轨迹数据
      */
     public void clearTrajectory() {
-        trajectoryPoints = null;
-        hasTrajectory = false;
-        firstDraw = true;
-        invalidate();
+        userViewport = false;
+        renderer.submit(null, TrajectoryRenderer.NO_GENERATION);
+        renderer.requestFit();
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        // 保存画布状态
-        canvas.save();
+        synchronized (renderer.getFrameLock()) {
+            TrajectoryRenderer.Frame frame = renderer.getFrontFrame();
 
-        // 将坐标系原点移动到视图中心
-        canvas.translate(getWidth() / 2f, getHeight() / 2f);
+            // 自动适配的视口由渲染线程计算，随帧一起采用
+            if (!userViewport && frame.hasTrajectory) {
+                scale = frame.scale;
+                offsetX = frame.offsetX;
+                offsetY = frame.offsetY;
+            }
 
-        // 绘制网格（仅在轨迹存在时）
-        if (SHOW_GRID && hasTrajectory) {
-            drawGrid(canvas);
-        }
+            // 绘制网格（仅在轨迹存在时）
+            if (SHOW_GRID && frame.hasTrajectory) {
+                drawGrid(canvas);
+            }
 
-        // 如果没有轨迹，绘制初始状态
-        if (!hasTrajectory) {
-            drawInitialState(canvas);
-            canvas.restore();
-            return;
-        }
+            // 保存画布状态
+            canvas.save();
 
-        // 如果是第一次绘制，则计算合适的缩放和偏移
-        if (firstDraw) {
-            calculateScaleAndOffset();
-            firstDraw = false;
-        }
+            // 将坐标系原点移动到视图中心
+            canvas.translate(getWidth() / 2f, getHeight() / 2f);
 
-        // 应用偏移
-        canvas.translate(offsetX, offsetY);
+            // 如果没有轨迹，绘制初始状态
+            if (!frame.hasTrajectory) {
+                drawInitialState(canvas);
+                canvas.restore();
+                return;
+            }
 
-        // 绘制轨迹路径
-        drawTrajectoryPath(canvas);
+            // 应用偏移，并补偿帧生成之后的缩放变化
+            canvas.translate(offsetX, offsetY);
+            float ratio = scale / frame.scale;
+            if (ratio != 1f) {
+                canvas.scale(ratio, ratio);
+            }
 
-        // 绘制箭头
-        drawArrows(canvas);
+            // 绘制轨迹路径
+            drawTrajectoryPath(canvas, frame);
 
-        // 绘制轨迹点
-        drawTrajectoryPoints(canvas);
+            // 绘制轨迹点
+            drawTrajectoryPoints(canvas, frame);
 
-        // 恢复画布状态
-        canvas.restore();
+            // 恢复画布状态
+            canvas.restore();
+        }
     }
 
     /**
@@ -153,16 +269,10 @@ public class TrajectoryView extends View {
      */
     private void drawInitialState(Canvas canvas) {
         // 可以绘制一个指南或提示
-        pointPaint.setTextSize(40);
-        pointPaint.setStyle(Paint.Style.FILL);
-        canvas.drawText("开始测量以绘制轨迹", -180, 0, pointPaint);
+        canvas.drawText("开始测量以绘制轨迹", -180, 0, hintTextPaint);
 
         // 绘制一个虚线圆圈表示起点
-        Paint circlePaint = new Paint(startPointPaint);
-        circlePaint.setStyle(Paint.Style.STROKE);
-        circlePaint.setStrokeWidth(3);
-        circlePaint.setPathEffect(new DashPathEffect(new float[]{10, 10}, 0));
-        canvas.drawCircle(0, 0, 50, circlePaint);
+        canvas.drawCircle(0, 0, 50, hintCirclePaint);
 
         // 中心点
         canvas.drawCircle(0, 0, 15, startPointPaint);
@@ -170,115 +280,90 @@ public class TrajectoryView extends View {
 
     /**
      * 绘制网格
+     * 网格单元以位图着色器平铺，着色器矩阵把网格原点对齐到世界坐标原点，因此网格随轨迹平移；
+     * 缩放手势期间按比例拉伸已有的单元，手势结束后才重新绘制
      */
     private void drawGrid(Canvas canvas) {
-        int gridCount = 20; // 网格线数量（每个方向）
-        float gridPixelSize = GRID_SIZE * scale;
-
-        // 绘制水平线
-        for (int i = -gridCount; i <= gridCount; i++) {
-            float y = i * gridPixelSize;
-            canvas.drawLine(-gridCount * gridPixelSize, y, gridCount * gridPixelSize, y, gridPaint);
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
         }
 
-        // 绘制垂直线
-        for (int i = -gridCount; i <= gridCount; i++) {
-            float x = i * gridPixelSize;
-            canvas.drawLine(x, -gridCount * gridPixelSize, x, gridCount * gridPixelSize, gridPaint);
+        if (gridTile == null || (!gestureActive && gridTileScale != scale)) {
+            rasterizeGridTile();
         }
+
+        // 着色器坐标：单元左上角对齐世界原点在屏幕上的位置
+        float ratio = scale / gridTilePixelScale;
+        gridMatrix.setScale(ratio, ratio);
+        gridMatrix.postTranslate(width / 2f + offsetX, height / 2f + offsetY);
+        gridShader.setLocalMatrix(gridMatrix);
+        canvas.drawRect(0, 0, width, height, gridFillPaint);
     }
 
     /**
-     * 绘制轨迹路径
+     * 按当前缩放绘制网格单元，线太密时使用更大的网格
      */
-    private void drawTrajectoryPath(Canvas canvas) {
-        if (trajectoryPoints == null || trajectoryPoints.size() < 2) {
-            return;
+    private void rasterizeGridTile() {
+        float step = GRID_SIZE;
+        while (step * scale < MIN_GRID_PIXELS) {
+            step *= 10;
+        }
+        int tileSize = Math.max(1, Math.round(step * scale));
+
+        if (gridTile == null || gridTile.getWidth() != tileSize) {
+            releaseGridBitmap();
+            gridTile = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
+            gridTileCanvas.setBitmap(gridTile);
+            gridShader = new BitmapShader(gridTile, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT);
+            gridFillPaint.setShader(gridShader);
         }
 
-        trajectoryPath.reset();
+        gridTile.eraseColor(Color.TRANSPARENT);
+        gridTileCanvas.drawLine(0, 0.5f, tileSize, 0.5f, gridPaint);
+        gridTileCanvas.drawLine(0.5f, 0, 0.5f, tileSize, gridPaint);
 
-        for (int i = 0; i < trajectoryPoints.size(); i++) {
-            TrajectoryPoint point = trajectoryPoints.get(i);
-            float x = (float) point.getX() * scale;
-            float y = -(float) point.getY() * scale;  // Y轴向上为正，绘图坐标系Y轴向下为正，需要取反
+        gridTileScale = scale;
+        gridTilePixelScale = tileSize / step;
+    }
 
-            if (i == 0) {
-                trajectoryPath.moveTo(x, y);
-            } else {
-                trajectoryPath.lineTo(x, y);
-            }
+    /**
+     * 绘制轨迹路径
+     */
+    private void drawTrajectoryPath(Canvas canvas, TrajectoryRenderer.Frame frame) {
+        if (frame.pointCount < 2) {
+            return;
         }
 
-        // 检查是否需要闭合轨迹
-        TrajectoryPoint firstPoint = trajectoryPoints.get(0);
-        TrajectoryPoint lastPoint = trajectoryPoints.get(trajectoryPoints.size() - 1);
-        double dx = lastPoint.getX() - firstPoint.getX();
-        double dy = lastPoint.getY() - firstPoint.getY();
-        double distance = Math.sqrt(dx * dx + dy * dy);
-
-        // 如果起点和终点距离小于阈值，则绘制一条从终点到起点的线
-        if (distance < 2.0) { // 2米作为阈值
-            float startX = (float) firstPoint.getX() * scale;
-            float startY = -(float) firstPoint.getY() * scale;
-            float endX = (float) lastPoint.getX() * scale;
-            float endY = -(float) lastPoint.getY() * scale;
-
-            // 使用虚线绘制闭合部分
-            Paint closingPaint = new Paint(pathPaint);
-            closingPaint.setStyle(Paint.Style.STROKE);
-            closingPaint.setStrokeWidth(6);
-            closingPaint.setPathEffect(new DashPathEffect(new float[]{10, 10}, 0));
-
-            Path closingPath = new Path();
-            closingPath.moveTo(endX, endY);
-            closingPath.lineTo(startX, startY);
-
-            canvas.drawPath(closingPath, closingPaint);
+        // 起点和终点距离较近时，使用虚线绘制从终点到起点的闭合部分
+        if (frame.closing) {
+            canvas.drawLine(frame.endX, frame.endY, frame.startX, frame.startY, closingPaint);
         }
 
-        canvas.drawPath(trajectoryPath, pathPaint);
+        if (frame.lineCount > 0) {
+            canvas.drawLines(frame.lines, 0, frame.lineCount, pathPaint);
+        }
     }
 
     /**
      * 绘制轨迹点
      */
-    private void drawTrajectoryPoints(Canvas canvas) {
-        if (trajectoryPoints == null || trajectoryPoints.isEmpty()) {
-            return;
+    private void drawTrajectoryPoints(Canvas canvas, TrajectoryRenderer.Frame frame) {
+        float[] markers = frame.markers;
+        for (int i = 0; i < frame.markerCount; i += 2) {
+            canvas.drawCircle(markers[i], markers[i + 1], 6, pointPaint);
         }
 
-        for (int i = 0; i < trajectoryPoints.size(); i++) {
-            TrajectoryPoint point = trajectoryPoints.get(i);
-            float x = (float) point.getX() * scale;
-            float y = -(float) point.getY() * scale;
-
-            if (i == 0) {
-                // 起点使用绿色，并且绘制大一点
-                canvas.drawCircle(x, y, 12, startPointPaint);
-            } else if (i == trajectoryPoints.size() - 1) {
-                // 终点使用红色，并且绘制大一点
-                canvas.drawCircle(x, y, 12, pointPaint);
-
-                // 在终点绘制方向箭头
-                if (trajectoryPoints.size() > 1) {
-                    // 获取倒数第二个点，用于计算箭头方向
-                    TrajectoryPoint prevPoint = trajectoryPoints.get(trajectoryPoints.size() - 2);
-                    float prevX = (float) prevPoint.getX() * scale;
-                    float prevY = -(float) prevPoint.getY() * scale;
-
-                    // 计算方向角度
-                    float dx = x - prevX;
-                    float dy = y - prevY;
-                    float angle = (float) Math.atan2(dy, dx);
-
-                    // 绘制箭头
-                    drawHeadArrow(canvas, x, y, angle);
-                }
-            } else if (i % 5 == 0) {
-                // 每隔几个点绘制一个小点
-                canvas.drawCircle(x, y, 6, pointPaint);
-            }
+        // 起点使用绿色，并且绘制大一点
+        canvas.drawCircle(frame.startX, frame.startY, 12, startPointPaint);
+
+        if (frame.pointCount > 1) {
+            // 终点使用红色，并且绘制大一点
+            canvas.drawCircle(frame.endX, frame.endY, 12, pointPaint);
+
+            // 在终点绘制方向箭头，方向由倒数第二个点确定
+            drawHeadArrow(canvas, frame.endX, frame.endY, frame.arrowAngle);
         }
     }
 
@@ -311,75 +396,34 @@ public class TrajectoryView extends View {
         canvas.restore();
     }
 
-    /**
-     * 在指定位置绘制箭头
-     */
-    private void drawArrows(Canvas canvas) {
-        if (trajectoryPoints == null || trajectoryPoints.size() < 2) {
-            return;
+    private void releaseGridBitmap() {
+        if (gridTile != null) {
+            gridTileCanvas.setBitmap(null);
+            gridFillPaint.setShader(null);
+            gridShader = null;
+            gridTile.recycle();
+            gridTile = null;
+            gridTileScale = -1;
         }
-
-        // 不在轨迹上绘制箭头，改为只在终点绘制
-        // 在drawTrajectoryPoints方法中已处理
-    }
-
-    /**
-     * 计算合适的缩放比例和偏移量，使轨迹能完整显示在视图中
-     */
-    private void calculateScaleAndOffset() {
-        if (trajectoryPoints == null || trajectoryPoints.isEmpty()) {
-            return;
-        }
-
-        // 计算轨迹的边界
-        double minX = Double.MAX_VALUE;
-        double maxX = Double.MIN_VALUE;
-        double minY = Double.MAX_VALUE;
-        double maxY = Double.MIN_VALUE;
-
-        for (TrajectoryPoint point : trajectoryPoints) {
-            minX = Math.min(minX, point.getX());
-            maxX = Math.max(maxX, point.getX());
-            minY = Math.min(minY, point.getY());
-            maxY = Math.max(maxY, point.getY());
-        }
-
-        // 计算轨迹的宽高
-        double width = maxX - minX;
-        double height = maxY - minY;
-
-        // 添加边距
-        width += 2;  // 每边增加1米边距
-        height += 2; // 每边增加1米边距
-
-        // 计算中心点坐标
-        double centerX = (minX + maxX) / 2;
-        double centerY = (minY + maxY) / 2;
-
-        // 计算合适的缩放比例，确保轨迹能完整显示在视图中
-        // 保留一些边距
-        float marginFactor = 0.85f;  // 85%的视图区域用于显示轨迹
-
-        if (width > 0 && height > 0) {
-            float scaleX = (getWidth() * marginFactor) / (float)width;
-            float scaleY = (getHeight() * marginFactor) / (float)height;
-            scale = Math.min(scaleX, scaleY);
-
-            // 确保缩放比例不会太小
-            scale = Math.max(scale, initialScale / 2);
-        } else {
-            scale = initialScale;  // 默认缩放比例
-        }
-
-        // 计算偏移量，使轨迹中心与视图中心对齐
-        offsetX = -(float)centerX * scale;
-        offsetY = (float)centerY * scale;  // Y轴需要取反
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         // 视图大小变化时，重新计算缩放和偏移
-        firstDraw = true;
+        renderer.setViewSize(w, h);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        renderer.start();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        renderer.stop();
+        releaseGridBitmap();
     }
-}
\ No newline at end of file
+}
@@ -7,6 +7,8 @@ import android.view.View;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.dylanlxlx.instameasure.viewmodel.ChartSeries;
+
 /**
  * Fragment for displaying accelerometer data charts.
  */
@@ -24,19 +26,11 @@ public class AccelerometerFragment extends BaseSensorChartFragment {
 
     @Override
     protected void setupChartObservers() {
-        // Observe X-axis data
-        viewModel.getAccelerometerXData().observe(getViewLifecycleOwner(), entries -> {
-            updateChart(xAxisChart, entries, "X-Axis", Color.RED);
-        });
-
-        // Observe Y-axis data
-        viewModel.getAccelerometerYData().observe(getViewLifecycleOwner(), entries -> {
-            updateChart(yAxisChart, entries, "Y-Axis", Color.GREEN);
-        });
-
-        // Observe Z-axis data
-        viewModel.getAccelerometerZData().observe(getViewLifecycleOwner(), entries -> {
-            updateChart(zAxisChart, entries, "Z-Axis", Color.BLUE);
+        // One series holds all three axes
+        viewModel.getAccelerometerData().observe(getViewLifecycleOwner(), series -> {
+            updateChart(xAxisChart, series, ChartSeries.AXIS_X, "X-Axis", Color.RED);
+            updateChart(yAxisChart, series, ChartSeries.AXIS_Y, "Y-Axis", Color.GREEN);
+            updateChart(zAxisChart, series, ChartSeries.AXIS_Z, "Z-Axis", Color.BLUE);
         });
     }
 }
\ No newline at end of file
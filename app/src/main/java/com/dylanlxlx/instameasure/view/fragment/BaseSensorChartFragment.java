@@ -16,17 +16,13 @@ import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.dylanlxlx.instameasure.R;
+import com.dylanlxlx.instameasure.viewmodel.ChartSeries;
 import com.dylanlxlx.instameasure.viewmodel.ChartViewModel;
 import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.components.Description;
 import com.github.mikephil.charting.components.XAxis;
 import com.github.mikephil.charting.components.YAxis;
-import com.github.mikephil.charting.data.Entry;
 import com.github.mikephil.charting.data.LineData;
-import com.github.mikephil.charting.data.LineDataSet;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Base Fragment for all sensor chart fragments.
@@ -99,12 +95,12 @@ public abstract class BaseSensorChartFragment extends Fragment {
             public void run() {
                 try {
                     // Check if we have any data
-                    boolean hasAccelData = viewModel.getAccelerometerXData().getValue() != null &&
-                            !viewModel.getAccelerometerXData().getValue().isEmpty();
-                    boolean hasGyroData = viewModel.getGyroscopeXData().getValue() != null &&
-                            !viewModel.getGyroscopeXData().getValue().isEmpty();
-                    boolean hasMagData = viewModel.getMagnetometerXData().getValue() != null &&
-                            !viewModel.getMagnetometerXData().getValue().isEmpty();
+                    boolean hasAccelData = viewModel.getAccelerometerData().getValue() != null &&
+                            !viewModel.getAccelerometerData().getValue().isEmpty();
+                    boolean hasGyroData = viewModel.getGyroscopeData().getValue() != null &&
+                            !viewModel.getGyroscopeData().getValue().isEmpty();
+                    boolean hasMagData = viewModel.getMagnetometerData().getValue() != null &&
+                            !viewModel.getMagnetometerData().getValue().isEmpty();
 
                     String status = "Debug: ";
                     if (hasAccelData) status += "Accel OK | ";
@@ -153,7 +149,7 @@ public abstract class BaseSensorChartFragment extends Fragment {
         chart.setDrawGridBackground(false);
         chart.setDrawBorders(true);
         chart.setAutoScaleMinMaxEnabled(true);
-        chart.setVisibleXRangeMaximum(50); // Show only 50 data points at a time
+        chart.setVisibleXRangeMaximum(ChartViewModel.VISIBLE_SECONDS); // Show only the latest seconds of data
         chart.setKeepPositionOnRotation(true);
 
         // Set description
@@ -185,48 +181,23 @@ public abstract class BaseSensorChartFragment extends Fragment {
     /**
      * Update chart with new data
      * @param chart The chart to update
-     * @param entries New data entries
+     * @param series Sensor series holding the data
+     * @param axis Axis of the series to show (ChartSeries.AXIS_X, AXIS_Y or AXIS_Z)
      * @param label Data set label
      * @param color Line color
      */
-    protected void updateChart(LineChart chart, List<ChartViewModel.Entry> entries, String label, int color) {
-        if (chart == null || entries == null || entries.isEmpty()) {
+    protected void updateChart(LineChart chart, ChartSeries series, int axis, String label, int color) {
+        if (chart == null || series == null) {
             return;
         }
 
-        // Convert entries to MPAndroidChart Entry objects
-        List<Entry> chartEntries = new ArrayList<>();
-        for (ChartViewModel.Entry entry : entries) {
-            chartEntries.add(new Entry(entry.getX(), entry.getY()));
-        }
-
-        // Create or update dataset
-        LineDataSet dataSet;
-        if (chart.getData() != null && chart.getData().getDataSetCount() > 0) {
-            dataSet = (LineDataSet) chart.getData().getDataSetByIndex(0);
-            dataSet.setValues(chartEntries);
-            chart.getData().notifyDataChanged();
-            chart.notifyDataSetChanged();
-        } else {
-            dataSet = new LineDataSet(chartEntries, label);
-            dataSet.setColor(color);
-            dataSet.setCircleColor(color);
-            dataSet.setDrawCircles(false);
-            dataSet.setDrawValues(false);
-            dataSet.setLineWidth(2f);
-            dataSet.setHighlightEnabled(true);
-            dataSet.setMode(LineDataSet.Mode.CUBIC_BEZIER);
-
-            // Create line data and set it to chart
-            LineData lineData = new LineData(dataSet);
-            chart.setData(lineData);
+        // Each chart keeps its adapter, which feeds it the decimated visible range
+        ChartSeriesAdapter adapter = (ChartSeriesAdapter) chart.getTag();
+        if (adapter == null) {
+            adapter = new ChartSeriesAdapter(chart, axis, ChartViewModel.VISIBLE_SECONDS, label, color);
+            chart.setTag(adapter);
         }
-
-        // Move to latest data
-        chart.moveViewToX(entries.get(entries.size() - 1).getX());
-
-        // Refresh chart
-        chart.invalidate();
+        adapter.update(series);
     }
 
     /**
@@ -0,0 +1,198 @@
+package com.dylanlxlx.instameasure.view.fragment;
+
+import android.view.MotionEvent;
+
+import com.dylanlxlx.instameasure.viewmodel.ChartSeries;
+import com.github.mikephil.charting.charts.LineChart;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
+import com.github.mikephil.charting.listener.ChartTouchListener;
+import com.github.mikephil.charting.listener.OnChartGestureListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds one axis of a {@link ChartSeries} to a LineChart.
+ * <p>
+ * Only the visible time range is fed to the chart, M4-reduced to at most four points
+ * per pixel column, so the chart stays cheap however much history the series holds.
+ * The X axis spans the whole history, so the user can scroll back through it; each
+ * scroll re-queries the newly visible range. While the view is at the newest data it
+ * follows incoming samples; scrolling back pauses following until the user returns.
+ * <p>
+ * The dataset's Entry objects are pooled and updated in place, so refreshing the
+ * chart allocates nothing once the pool has grown.
+ */
+public class ChartSeriesAdapter implements OnChartGestureListener {
+    private static final float FOLLOW_TOLERANCE = 0.05f; // Fraction of the window counted as "at the newest data"
+
+    private final LineChart chart;
+    private final int axis;
+    private final float visibleSeconds;
+    private final LineDataSet dataSet;
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<Entry> pool = new ArrayList<>();
+    private float[] times = new float[0];
+    private float[] values = new float[0];
+    private ChartSeries series;
+    private long lastVersion = -1;
+    private boolean following = true;
+
+    public ChartSeriesAdapter(LineChart chart, int axis, float visibleSeconds, String label, int color) {
+        this.chart = chart;
+        this.axis = axis;
+        this.visibleSeconds = visibleSeconds;
+
+        dataSet = new LineDataSet(entries, label);
+        dataSet.setColor(color);
+        dataSet.setCircleColor(color);
+        dataSet.setDrawCircles(false);
+        dataSet.setDrawValues(false);
+        dataSet.setLineWidth(2f);
+        dataSet.setHighlightEnabled(true);
+        // Straight segments: curve fitting is expensive and misleading on decimated data
+        dataSet.setMode(LineDataSet.Mode.LINEAR);
+
+        chart.setData(new LineData(dataSet));
+        chart.setOnChartGestureListener(this);
+    }
+
+    /**
+     * Show the series if it changed since the last call
+     */
+    public void update(ChartSeries series) {
+        long version = series.getVersion();
+        if (series == this.series && version == lastVersion) {
+            return;
+        }
+        this.series = series;
+        lastVersion = version;
+
+        if (series.isEmpty()) {
+            following = true;
+        }
+        // Nothing visible changes while the user looks at older data
+        if (following) {
+            refresh();
+        }
+    }
+
+    /**
+     * Re-query the visible range and update the dataset in place
+     */
+    private void refresh() {
+        if (series == null) {
+            return;
+        }
+        float firstTime = series.getFirstTime();
+        float lastTime = series.getLastTime();
+
+        // Visible range: the newest window while following, otherwise where the user scrolled
+        float window = chart.getVisibleXRange();
+        window = window > 0 ? Math.min(window, visibleSeconds) : visibleSeconds;
+        float from;
+        float to;
+        if (following) {
+            to = Math.max(lastTime, firstTime + window);
+            from = to - window;
+        } else {
+            from = chart.getLowestVisibleX();
+            to = chart.getHighestVisibleX();
+        }
+
+        int columns = (int) chart.getViewPortHandler().contentWidth();
+        if (columns <= 0) {
+            columns = Math.max(chart.getWidth(), 1);
+        }
+        int required = 4 * columns + 2;
+        if (times.length < required) {
+            times = new float[required];
+            values = new float[required];
+        }
+        int count = series.decimateAxis(axis, from, to, columns, times, values);
+
+        // Resize the entry list, reusing pooled entries
+        while (entries.size() > count) {
+            entries.remove(entries.size() - 1);
+        }
+        while (entries.size() < count) {
+            int index = entries.size();
+            if (index == pool.size()) {
+                pool.add(new Entry());
+            }
+            entries.add(pool.get(index));
+        }
+
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries.get(i);
+            entry.setX(times[i]);
+            entry.setY(values[i]);
+        }
+
+        // The axis covers the whole history so it can be scrolled
+        chart.getXAxis().setAxisMinimum(firstTime);
+        chart.getXAxis().setAxisMaximum(Math.max(lastTime, firstTime + visibleSeconds));
+
+        dataSet.notifyDataSetChanged();
+        chart.getData().notifyDataChanged();
+        chart.notifyDataSetChanged();
+        chart.setVisibleXRangeMaximum(visibleSeconds);
+
+        if (following) {
+            // Move to latest data
+            chart.moveViewToX(from);
+        }
+
+        // Refresh chart
+        chart.invalidate();
+    }
+
+    @Override
+    public void onChartTranslate(MotionEvent me, float dX, float dY) {
+        onViewportChanged();
+    }
+
+    @Override
+    public void onChartScale(MotionEvent me, float scaleX, float scaleY) {
+        onViewportChanged();
+    }
+
+    @Override
+    public void onChartGestureEnd(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+        onViewportChanged();
+    }
+
+    /**
+     * Follow new data again once the user scrolls back to the newest samples
+     */
+    private void onViewportChanged() {
+        if (series == null) {
+            return;
+        }
+        float tolerance = chart.getVisibleXRange() * FOLLOW_TOLERANCE;
+        following = chart.getHighestVisibleX() >= chart.getXAxis().getAxisMaximum() - tolerance;
+        refresh();
+    }
+
+    @Override
+    public void onChartGestureStart(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+    }
+
+    @Override
+    public void onChartLongPressed(MotionEvent me) {
+    }
+
+    @Override
+    public void onChartDoubleTapped(MotionEvent me) {
+    }
+
+    @Override
+    public void onChartSingleTapped(MotionEvent me) {
+    }
+
+    @Override
+    public void onChartFling(MotionEvent me1, MotionEvent me2, float velocityX, float velocityY) {
+    }
+}
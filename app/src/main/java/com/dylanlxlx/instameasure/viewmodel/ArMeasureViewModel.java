@@ -7,8 +7,11 @@ import androidx.lifecycle.ViewModel;
 import com.dylanlxlx.instameasure.data.repository.MeasurementRepository;
 import com.dylanlxlx.instameasure.model.ArMeasurementResult;
 import com.dylanlxlx.instameasure.model.MeasurementPoint;
+import com.dylanlxlx.instameasure.utils.AnchorChangeTracker;
 import com.google.ar.core.Anchor;
 
+import java.util.List;
+
 /**
  * AR测量的ViewModel
  * 管理AR测量状态和数据
@@ -71,20 +74,36 @@ public class ArMeasureViewModel extends ViewModel {
     public void updatePointPosition(int pointId, float[] position) {
         ArMeasurementResult result = measurementResult.getValue();
         if (result != null) {
-            for (MeasurementPoint point : result.getPoints()) {
-                if (point.getId() == pointId) {
-                    point.updatePosition(position);
+            List<MeasurementPoint> points = result.getPoints();
+            for (int i = 0; i < points.size(); i++) {
+                if (points.get(i).getId() == pointId) {
+                    // 只重新计算相邻的边，闭合时同时更新面积
+                    result.setPoint(i, position[0], position[1], position[2]);
+                    measurementResult.setValue(result);
                     break;
                 }
             }
+        }
+    }
 
-            // 如果区域已闭合，重新计算
-            if (result.isClosed()) {
-                result.closeArea();
-            }
+    /**
+     * 应用本帧移动过的锚点位置
+     * 只重新计算脏点相邻的边和面积，并且只通知一次观察者
+     */
+    public void applyAnchorUpdates(AnchorChangeTracker tracker) {
+        ArMeasurementResult result = measurementResult.getValue();
+        if (result == null || tracker.getDirtyCount() == 0) {
+            return;
+        }
 
-            measurementResult.setValue(result);
+        float[] positions = tracker.getPositions();
+        for (int i = 0; i < tracker.getDirtyCount(); i++) {
+            int index = tracker.getDirtyIndex(i);
+            if (index < result.getPoints().size()) {
+                result.setPoint(index, positions[index * 3], positions[index * 3 + 1], positions[index * 3 + 2]);
+            }
         }
+        measurementResult.setValue(result);
     }
 
     /**
@@ -150,6 +169,9 @@ public class ArMeasureViewModel extends ViewModel {
      * 设置平面已检测状态
      */
     public void setPlaneDetected(boolean detected) {
+        if (detected == Boolean.TRUE.equals(isPlaneDetected.getValue())) {
+            return;
+        }
         if (detected && !isPlaneDetected.getValue()) {
             statusMessage.setValue("检测到平面，点击添加测量点");
         }
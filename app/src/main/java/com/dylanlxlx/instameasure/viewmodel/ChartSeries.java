@@ -0,0 +1,198 @@
+package com.dylanlxlx.instameasure.viewmodel;
+
+/**
+ * Fixed-capacity ring buffer holding the X/Y/Z samples of one sensor for charting.
+ * Samples are stored in primitive arrays, so appending allocates nothing; once full,
+ * the oldest sample is overwritten. A version counter lets consumers skip redraws
+ * when nothing has changed since they last read the data.
+ * <p>
+ * The buffer keeps the full-rate history. Charts don't copy it; they ask for an M4
+ * reduction of the visible range ({@link #decimateAxis}), which keeps the first, last,
+ * minimum and maximum sample of every pixel column. That draws the same picture as the
+ * raw data with at most four points per column, however long the range is.
+ * <p>
+ * All methods are synchronized so samples can be written from the sensor thread
+ * while the UI thread reads them.
+ */
+public class ChartSeries {
+    public static final int AXIS_X = 0;
+    public static final int AXIS_Y = 1;
+    public static final int AXIS_Z = 2;
+
+    private final int capacity;
+    private final float[] times;
+    private final float[][] values;
+    private int head = 0;   // index of the next write
+    private int size = 0;
+    private long version = 0;
+
+    public ChartSeries(int capacity) {
+        this.capacity = capacity;
+        this.times = new float[capacity];
+        this.values = new float[3][capacity];
+    }
+
+    /**
+     * Append one sample. Samples must arrive in time order.
+     * @param time X-axis value of the sample
+     * @param x X-axis sensor value
+     * @param y Y-axis sensor value
+     * @param z Z-axis sensor value
+     */
+    public synchronized void add(float time, float x, float y, float z) {
+        times[head] = time;
+        values[AXIS_X][head] = x;
+        values[AXIS_Y][head] = y;
+        values[AXIS_Z][head] = z;
+        head = (head + 1) % capacity;
+        if (size < capacity) {
+            size++;
+        }
+        version++;
+    }
+
+    /**
+     * M4-reduce one axis over a time range.
+     * Every column of the range contributes its first, minimum, maximum and last sample
+     * in time order (duplicates dropped). The samples just outside the range are
+     * included as well so the line runs to the chart edges.
+     * @param axis AXIS_X, AXIS_Y or AXIS_Z
+     * @param from start of the range
+     * @param to end of the range
+     * @param columns number of pixel columns the range is drawn into
+     * @param timesOut destination for the X-axis values, at least 4 * columns + 2 long
+     * @param valuesOut destination for the sensor values, at least 4 * columns + 2 long
+     * @return number of points written
+     */
+    public synchronized int decimateAxis(int axis, float from, float to, int columns,
+                                         float[] timesOut, float[] valuesOut) {
+        if (size == 0 || columns <= 0 || to <= from) {
+            return 0;
+        }
+        float[] axisValues = values[axis];
+
+        // Logical index range: the last sample before the range to the first after it
+        int first = Math.max(lowerBound(from) - 1, 0);
+        int last = Math.min(lowerBound(to), size - 1);
+        float columnWidth = (to - from) / columns;
+
+        int count = 0;
+        int column = Integer.MIN_VALUE;
+        int firstPick = -1, minPick = -1, maxPick = -1, lastPick = -1;  // logical indices
+        for (int i = first; i <= last; i++) {
+            int index = physical(i);
+            float t = times[index];
+            int c = t < from ? -1 : t > to ? columns : Math.min((int) ((t - from) / columnWidth), columns - 1);
+
+            if (c != column) {
+                if (firstPick >= 0) {
+                    count = emitColumn(axisValues, firstPick, minPick, maxPick, lastPick,
+                            timesOut, valuesOut, count);
+                }
+                column = c;
+                firstPick = minPick = maxPick = lastPick = i;
+                continue;
+            }
+
+            float v = axisValues[index];
+            if (v < axisValues[physical(minPick)]) minPick = i;
+            if (v > axisValues[physical(maxPick)]) maxPick = i;
+            lastPick = i;
+        }
+        if (firstPick >= 0) {
+            count = emitColumn(axisValues, firstPick, minPick, maxPick, lastPick,
+                    timesOut, valuesOut, count);
+        }
+        return count;
+    }
+
+    /**
+     * Write the picked samples of one column in time order, skipping duplicates
+     */
+    private int emitColumn(float[] axisValues, int firstPick, int minPick, int maxPick, int lastPick,
+                           float[] timesOut, float[] valuesOut, int count) {
+        int early = Math.min(minPick, maxPick);
+        int late = Math.max(minPick, maxPick);
+        count = emitPoint(axisValues, firstPick, -1, timesOut, valuesOut, count);
+        count = emitPoint(axisValues, early, firstPick, timesOut, valuesOut, count);
+        count = emitPoint(axisValues, late, early, timesOut, valuesOut, count);
+        return emitPoint(axisValues, lastPick, late, timesOut, valuesOut, count);
+    }
+
+    private int emitPoint(float[] axisValues, int logical, int previous,
+                          float[] timesOut, float[] valuesOut, int count) {
+        if (logical == previous) {
+            return count;
+        }
+        int index = physical(logical);
+        timesOut[count] = times[index];
+        valuesOut[count] = axisValues[index];
+        return count + 1;
+    }
+
+    /**
+     * First logical index whose time is not less than the given time, or size
+     */
+    private int lowerBound(float time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[physical(mid)] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Physical array index of a logical position (0 = oldest)
+     */
+    private int physical(int logical) {
+        return (head - size + logical + capacity) % capacity;
+    }
+
+    /**
+     * Time of the oldest stored sample
+     */
+    public synchronized float getFirstTime() {
+        return size == 0 ? 0f : times[physical(0)];
+    }
+
+    /**
+     * Time of the newest stored sample
+     */
+    public synchronized float getLastTime() {
+        return size == 0 ? 0f : times[physical(size - 1)];
+    }
+
+    /**
+     * Remove all samples
+     */
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+        version++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Incremented on every change
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -1,241 +1,163 @@
 package com.dylanlxlx.instameasure.viewmodel;
 
+import android.hardware.Sensor;
+import android.os.Handler;
+import android.os.Looper;
+
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.dylanlxlx.instameasure.data.repository.SensorRepository;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * ViewModel for sensor chart data.
  * Manages data series for displaying in charts.
+ * Samples are kept at full rate for several minutes in fixed-capacity ring buffers and
+ * published to the UI at frame rate, so adding a sample allocates nothing.
  */
 public class ChartViewModel extends ViewModel {
-    private static final int MAX_DATA_POINTS = 100; // Maximum number of data points to keep
+    public static final float VISIBLE_SECONDS = 10f; // Visible time window of the charts
+    private static final int HISTORY_SECONDS = 300; // History that can be scrolled back through
+    private static final int MAX_SAMPLE_RATE = 200; // Highest expected sensor rate (Hz)
+    private static final int MAX_DATA_POINTS = HISTORY_SECONDS * MAX_SAMPLE_RATE; // Maximum number of samples to keep
+    private static final long FRAME_INTERVAL_MS = 16; // Publish to the UI at most once per frame
 
     private final SensorRepository sensorRepository;
 
-    // LiveData for chart data series
-    private final MutableLiveData<List<Entry>> accelerometerXData = new MutableLiveData<>(new ArrayList<>());
-    private final MutableLiveData<List<Entry>> accelerometerYData = new MutableLiveData<>(new ArrayList<>());
-    private final MutableLiveData<List<Entry>> accelerometerZData = new MutableLiveData<>(new ArrayList<>());
-
-    private final MutableLiveData<List<Entry>> gyroscopeXData = new MutableLiveData<>(new ArrayList<>());
-    private final MutableLiveData<List<Entry>> gyroscopeYData = new MutableLiveData<>(new ArrayList<>());
-    private final MutableLiveData<List<Entry>> gyroscopeZData = new MutableLiveData<>(new ArrayList<>());
-
-    private final MutableLiveData<List<Entry>> magnetometerXData = new MutableLiveData<>(new ArrayList<>());
-    private final MutableLiveData<List<Entry>> magnetometerYData = new MutableLiveData<>(new ArrayList<>());
-    private final MutableLiveData<List<Entry>> magnetometerZData = new MutableLiveData<>(new ArrayList<>());
-
-    // Time counter for X-axis values
-    private float timeCounter = 0f;
+    // Sample storage, one ring buffer per sensor
+    private final ChartSeries accelerometerSeries = new ChartSeries(MAX_DATA_POINTS);
+    private final ChartSeries gyroscopeSeries = new ChartSeries(MAX_DATA_POINTS);
+    private final ChartSeries magnetometerSeries = new ChartSeries(MAX_DATA_POINTS);
 
-    // Entry class for chart data points
-    public static class Entry {
-        private final float x;
-        private final float y;
+    // LiveData notifying the charts that a series has changed
+    private final MutableLiveData<ChartSeries> accelerometerData = new MutableLiveData<>(accelerometerSeries);
+    private final MutableLiveData<ChartSeries> gyroscopeData = new MutableLiveData<>(gyroscopeSeries);
+    private final MutableLiveData<ChartSeries> magnetometerData = new MutableLiveData<>(magnetometerSeries);
 
-        public Entry(float x, float y) {
-            this.x = x;
-            this.y = y;
-        }
+    // Frame-rate publishing
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean publishScheduled = new AtomicBoolean(false);
+    private final Runnable publishTask = this::publishSeries;
+    private long publishedAccelerometerVersion = -1;
+    private long publishedGyroscopeVersion = -1;
+    private long publishedMagnetometerVersion = -1;
 
-        public float getX() {
-            return x;
-        }
+    // Raw sensor events, delivered on the sensor thread with their own timestamps
+    private final SensorRepository.RawSampleListener rawSampleListener = this::onRawSample;
 
-        public float getY() {
-            return y;
-        }
-    }
+    // Event timestamp mapped to x = 0, or -1 until the first event after a reset
+    private volatile long originNanos = -1;
 
     public ChartViewModel() {
         // Get repository instance
         sensorRepository = SensorRepository.getInstance();
 
-        // Add some initial sample data for testing
-        generateSampleData();
-
         // Observe sensor data changes
-        observeSensorData();
+        sensorRepository.addRawSampleListener(rawSampleListener);
     }
 
     /**
-     * Generate sample data for initial display
+     * Add a raw sensor event to its series.
+     * The values array is reused by the sender, so it is copied into the ring buffer here.
+     * Each sensor is charted at its own rate against its own event timestamps, all
+     * measured from a shared origin so the three tabs line up.
      */
-    private void generateSampleData() {
-        List<Entry> accelXSample = new ArrayList<>();
-        List<Entry> accelYSample = new ArrayList<>();
-        List<Entry> accelZSample = new ArrayList<>();
-
-        List<Entry> gyroXSample = new ArrayList<>();
-        List<Entry> gyroYSample = new ArrayList<>();
-        List<Entry> gyroZSample = new ArrayList<>();
-
-        List<Entry> magXSample = new ArrayList<>();
-        List<Entry> magYSample = new ArrayList<>();
-        List<Entry> magZSample = new ArrayList<>();
-
-        // Generate 100 sample points for each sensor axis
-        for (int i = 0; i < 20; i++) {
-            float x = i * 0.1f;
-
-            // Accelerometer: sine wave pattern with different phases
-            accelXSample.add(new Entry(x, (float) Math.sin(x)));
-            accelYSample.add(new Entry(x, (float) Math.sin(x + 1)));
-            accelZSample.add(new Entry(x, (float) Math.sin(x + 2)));
-
-            // Gyroscope: cosine wave pattern
-            gyroXSample.add(new Entry(x, (float) Math.cos(x)));
-            gyroYSample.add(new Entry(x, (float) Math.cos(x + 1)));
-            gyroZSample.add(new Entry(x, (float) Math.cos(x + 2)));
-
-            // Magnetometer: combined sine and cosine
-            magXSample.add(new Entry(x, (float) (Math.sin(x) + Math.cos(x))));
-            magYSample.add(new Entry(x, (float) (Math.sin(x + 1) + Math.cos(x + 1))));
-            magZSample.add(new Entry(x, (float) (Math.sin(x + 2) + Math.cos(x + 2))));
+    private void onRawSample(int sensorType, long timestampNanos, float[] values) {
+        if (values == null || values.length < 3) {
+            return;
         }
 
-        // Update LiveData with sample data
-        timeCounter = 2.0f; // Start real data after sample data
-        accelerometerXData.postValue(accelXSample);
-        accelerometerYData.postValue(accelYSample);
-        accelerometerZData.postValue(accelZSample);
-        gyroscopeXData.postValue(gyroXSample);
-        gyroscopeYData.postValue(gyroYSample);
-        gyroscopeZData.postValue(gyroZSample);
-        magnetometerXData.postValue(magXSample);
-        magnetometerYData.postValue(magYSample);
-        magnetometerZData.postValue(magZSample);
-    }
-
-    private void observeSensorData() {
-        // Observe accelerometer data
-        sensorRepository.getAccelerometerData().observeForever(values -> {
-            if (values != null && values.length == 3) {
-                timeCounter += 0.1f; // Increment time (assuming ~10Hz data rate)
-
-                updateDataSeries(accelerometerXData, values[0]);
-                updateDataSeries(accelerometerYData, values[1]);
-                updateDataSeries(accelerometerZData, values[2]);
-
-                // For testing, also update gyroscope and magnetometer with derived values
-                // This ensures we see data even if those sensors aren't reporting
-                updateDataSeries(gyroscopeXData, values[0] * 0.1f);
-                updateDataSeries(gyroscopeYData, values[1] * 0.1f);
-                updateDataSeries(gyroscopeZData, values[2] * 0.1f);
-
-                updateDataSeries(magnetometerXData, values[0] * 0.5f);
-                updateDataSeries(magnetometerYData, values[1] * 0.5f);
-                updateDataSeries(magnetometerZData, values[2] * 0.5f);
-            }
-        });
-
-        // Also observe the original sensor data
-        sensorRepository.getGyroscopeData().observeForever(values -> {
-            if (values != null && values.length == 3) {
-                updateDataSeries(gyroscopeXData, values[0]);
-                updateDataSeries(gyroscopeYData, values[1]);
-                updateDataSeries(gyroscopeZData, values[2]);
-            }
-        });
-
-        sensorRepository.getMagneticFieldData().observeForever(values -> {
-            if (values != null && values.length == 3) {
-                updateDataSeries(magnetometerXData, values[0]);
-                updateDataSeries(magnetometerYData, values[1]);
-                updateDataSeries(magnetometerZData, values[2]);
-            }
-        });
-    }
-
-    /**
-     * Update a data series with a new value
-     * @param dataSeries The LiveData series to update
-     * @param newValue The new sensor value
-     */
-    private void updateDataSeries(MutableLiveData<List<Entry>> dataSeries, float newValue) {
-        List<Entry> currentData = dataSeries.getValue();
-        if (currentData == null) {
-            currentData = new ArrayList<>();
+        ChartSeries series;
+        if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+            series = accelerometerSeries;
+        } else if (sensorType == Sensor.TYPE_GYROSCOPE) {
+            series = gyroscopeSeries;
+        } else if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+            series = magnetometerSeries;
+        } else {
+            return;
         }
 
-        // Add new data point
-        currentData.add(new Entry(timeCounter, newValue));
-
-        // Limit data points to MAX_DATA_POINTS
-        if (currentData.size() > MAX_DATA_POINTS) {
-            currentData = currentData.subList(currentData.size() - MAX_DATA_POINTS, currentData.size());
+        long origin = originNanos;
+        if (origin < 0) {
+            origin = timestampNanos;
+            originNanos = origin;
+        }
+        float time = (timestampNanos - origin) / 1e9f;
+        if (time < 0) {
+            // Late event from before the reset
+            return;
         }
 
-        dataSeries.postValue(new ArrayList<>(currentData));
-    }
-
-    // Getters for accelerometer data
-    public LiveData<List<Entry>> getAccelerometerXData() {
-        return accelerometerXData;
-    }
-
-    public LiveData<List<Entry>> getAccelerometerYData() {
-        return accelerometerYData;
-    }
-
-    public LiveData<List<Entry>> getAccelerometerZData() {
-        return accelerometerZData;
+        series.add(time, values[0], values[1], values[2]);
+        schedulePublish();
     }
 
-    // Getters for gyroscope data
-    public LiveData<List<Entry>> getGyroscopeXData() {
-        return gyroscopeXData;
+    /**
+     * Coalesce updates so the charts are refreshed at most once per frame
+     * regardless of the sensor rate
+     */
+    private void schedulePublish() {
+        if (publishScheduled.compareAndSet(false, true)) {
+            mainHandler.postDelayed(publishTask, FRAME_INTERVAL_MS);
+        }
     }
 
-    public LiveData<List<Entry>> getGyroscopeYData() {
-        return gyroscopeYData;
-    }
+    /**
+     * Notify observers of every series that changed since the last frame.
+     * The same series instance is re-published; charts copy it in place.
+     */
+    private void publishSeries() {
+        publishScheduled.set(false);
 
-    public LiveData<List<Entry>> getGyroscopeZData() {
-        return gyroscopeZData;
+        long version = accelerometerSeries.getVersion();
+        if (version != publishedAccelerometerVersion) {
+            publishedAccelerometerVersion = version;
+            accelerometerData.setValue(accelerometerSeries);
+        }
+        version = gyroscopeSeries.getVersion();
+        if (version != publishedGyroscopeVersion) {
+            publishedGyroscopeVersion = version;
+            gyroscopeData.setValue(gyroscopeSeries);
+        }
+        version = magnetometerSeries.getVersion();
+        if (version != publishedMagnetometerVersion) {
+            publishedMagnetometerVersion = version;
+            magnetometerData.setValue(magnetometerSeries);
+        }
     }
 
-    // Getters for magnetometer data
-    public LiveData<List<Entry>> getMagnetometerXData() {
-        return magnetometerXData;
+    public LiveData<ChartSeries> getAccelerometerData() {
+        return accelerometerData;
     }
 
-    public LiveData<List<Entry>> getMagnetometerYData() {
-        return magnetometerYData;
+    public LiveData<ChartSeries> getGyroscopeData() {
+        return gyroscopeData;
     }
 
-    public LiveData<List<Entry>> getMagnetometerZData() {
-        return magnetometerZData;
+    public LiveData<ChartSeries> getMagnetometerData() {
+        return magnetometerData;
     }
 
     /**
      * Reset all chart data
      */
     public void resetChartData() {
-        timeCounter = 0f;
-        accelerometerXData.postValue(new ArrayList<>());
-        accelerometerYData.postValue(new ArrayList<>());
-        accelerometerZData.postValue(new ArrayList<>());
-        gyroscopeXData.postValue(new ArrayList<>());
-        gyroscopeYData.postValue(new ArrayList<>());
-        gyroscopeZData.postValue(new ArrayList<>());
-        magnetometerXData.postValue(new ArrayList<>());
-        magnetometerYData.postValue(new ArrayList<>());
-        magnetometerZData.postValue(new ArrayList<>());
+        originNanos = -1;
+        accelerometerSeries.clear();
+        gyroscopeSeries.clear();
+        magnetometerSeries.clear();
+        schedulePublish();
     }
 
     @Override
     protected void onCleared() {
         super.onCleared();
-        // Clean up observeForever observers
-        sensorRepository.getAccelerometerData().removeObserver(values -> {});
-        sensorRepository.getGyroscopeData().removeObserver(values -> {});
-        sensorRepository.getMagneticFieldData().removeObserver(values -> {});
+        // Remove the same listener instance that was registered
+        sensorRepository.removeRawSampleListener(rawSampleListener);
+        mainHandler.removeCallbacks(publishTask);
     }
 }
\ No newline at end of file
@@ -8,8 +8,10 @@ import com.dylanlxlx.instameasure.data.repository.SensorRepository;
 import com.dylanlxlx.instameasure.data.repository.LocationRepository;
 import com.dylanlxlx.instameasure.data.repository.MeasurementRepository;
 import com.dylanlxlx.instameasure.data.repository.GpsRepository;
+import com.dylanlxlx.instameasure.model.GpsData;
 import com.dylanlxlx.instameasure.model.TrajectoryPoint;
 import com.dylanlxlx.instameasure.model.Measurement;
+import com.dylanlxlx.instameasure.model.StepEvent;
 import com.dylanlxlx.instameasure.utils.MathUtils;
 import com.dylanlxlx.instameasure.utils.TrajectoryOptimizer;
 
@@ -32,9 +34,14 @@ public class MeasureViewModel extends ViewModel {
 
     private final TrajectoryOptimizer trajectoryOptimizer = new TrajectoryOptimizer();
 
+    // 步伐事件直接进入位置处理，在传感器处理线程上回调
+    private final SensorRepository.StepEventListener stepEventListener = this::onStepEvent;
+    private volatile boolean measuring = false;
+    private long lastFusedGpsTimestamp = -1;   // 已交给融合滤波器的最近定位时间，只在步伐回调线程访问
+
     // 用户设置
     private float userHeight = 1.7f;  // 默认身高(米)
-    private boolean useGps = false;   // 是否使用GPS
+    private volatile boolean useGps = false;   // 是否使用GPS
 
     public MeasureViewModel() {
         // 获取存储库实例
@@ -47,6 +54,9 @@ public class MeasureViewModel extends ViewModel {
         locationRepository.getLocatingMode().observeForever(mode -> {
             locatingMode.setValue(mode);
         });
+
+        // 接收步伐事件
+        sensorRepository.setStepEventListener(stepEventListener);
     }
 
     /**
@@ -64,6 +74,7 @@ public class MeasureViewModel extends ViewModel {
         locationRepository.addTrajectoryPoint(0.0, 0.0);
 
         // 设置测量状态
+        measuring = true;
         isMeasuring.setValue(true);
 
         // 如果使用GPS，初始化GPS位置
@@ -76,28 +87,31 @@ public class MeasureViewModel extends ViewModel {
      * 停止当前测量会话
      */
     public void stopMeasurement() {
+        measuring = false;
         isMeasuring.setValue(false);
 
-        // 在计算面积前检查轨迹是否闭合
-        if (locationRepository.isTrajectoryEnclosed(2.0)) {
-            locationRepository.closeTrajectory();
-        }
-
-        calculateArea();
+        // 在处理线程上处理完剩余的步进并检查轨迹是否闭合，然后用最终轨迹计算面积
+        locationRepository.finishTrajectory(2.0, this::calculateArea);
     }
 
     /**
      * 使用鞋带定理计算当前轨迹的面积
      */
     public void calculateArea() {
-        List<TrajectoryPoint> points = locationRepository.getTrajectoryPoints().getValue();
+        calculateArea(locationRepository.getTrajectoryPoints().getValue());
+    }
+
+    /**
+     * 使用鞋带定理计算给定轨迹的面积，可以在任意线程调用
+     */
+    private void calculateArea(List<TrajectoryPoint> points) {
         if (points != null && points.size() > 2) {
             // 确保轨迹闭合
             points = trajectoryOptimizer.closeTrajectoryIfNeeded(points, 2.0);
 
             // 计算面积
             double area = MathUtils.calculatePolygonArea(points);
-            measuredArea.setValue(area);
+            measuredArea.postValue(area);
 
             // 创建和保存测量数据
             Measurement measurement = new Measurement(
@@ -112,39 +126,49 @@ public class MeasureViewModel extends ViewModel {
     }
 
     /**
-     * 根据步长和方向添加相对位置
+     * 处理步伐事件
+     * 每一步都会到达且携带检测时刻的方向，不受 LiveData 合并的影响
      */
-    public void addPosition(float stepLength, float orientation) {
-        if (Boolean.TRUE.equals(isMeasuring.getValue())) {
-            locationRepository.addRelativePosition(stepLength, orientation);
+    private void onStepEvent(StepEvent event) {
+        if (!measuring) {
+            event.recycle();
+            return;
+        }
+        locationRepository.addStep(event);
 
-            // 如果有GPS数据且启用了GPS，融合GPS位置
-            if (useGps && gpsRepository.isGpsAvailable().getValue() == Boolean.TRUE) {
-                updateWithGps();
-            }
+        // 如果有GPS数据且启用了GPS，融合GPS位置
+        if (useGps && gpsRepository.isGpsAvailable().getValue() == Boolean.TRUE) {
+            updateWithGps();
         }
     }
 
     /**
      * 使用GPS数据更新位置
+     * 每个定位只交给融合滤波器一次，并带上定位时刻，由滤波器补偿定位相对步伐的延迟
+     * 坐标、精度、速度、方位和时间都取自同一个定位，避免混用不同时刻发布的值
      */
     private void updateWithGps() {
         // 获取最新GPS数据
-        if (gpsRepository.getCurrentGpsData().getValue() != null) {
-            double[] localCoords = gpsRepository.getLastLocalCoordinates();
-            float accuracy = gpsRepository.getGpsAccuracy().getValue() != null ?
-                    gpsRepository.getGpsAccuracy().getValue() : 10.0f;
-            float speed = gpsRepository.getCurrentGpsData().getValue().getSpeed();
-            float bearing = gpsRepository.getCurrentGpsData().getValue().getBearing();
-
-            // 使用GPS数据更新位置
-            locationRepository.updateWithGps(
-                    localCoords[0], localCoords[1], accuracy, speed, bearing
-            );
+        GpsData gpsData = gpsRepository.getCurrentGpsData().getValue();
+        if (gpsData == null || gpsData.getTimestamp() == lastFusedGpsTimestamp) {
+            return;
+        }
+        lastFusedGpsTimestamp = gpsData.getTimestamp();
 
-            // 校准方向
-            sensorRepository.calibrateOrientationWithGps(bearing);
+        // 处理定位时已投影到本地坐标，没有本地坐标的定位无法与步伐推算的位置对齐
+        if (!gpsData.hasLocalCoordinates()) {
+            return;
         }
+        float bearing = gpsData.getBearing();
+
+        // 使用GPS数据更新位置
+        locationRepository.updateWithGps(
+                gpsData.getLocalX(), gpsData.getLocalY(), gpsData.getAccuracy(),
+                gpsData.getSpeed(), bearing, gpsData.getTimestamp()
+        );
+
+        // 校准方向
+        sensorRepository.calibrateOrientationWithGps(bearing);
     }
 
     /**
@@ -192,6 +216,62 @@ public class MeasureViewModel extends ViewModel {
         sensorRepository.calibrateStepLength(actualDistance, stepCount);
     }
 
+    /**
+     * 获取已学习的步长模型
+     */
+    public double[] getStepLengthModel() {
+        return sensorRepository.getStepLengthModel();
+    }
+
+    /**
+     * 恢复已学习的步长模型
+     */
+    public void restoreStepLengthModel(double[] model) {
+        sensorRepository.restoreStepLengthModel(model);
+    }
+
+    /**
+     * 开始磁力计校准
+     */
+    public void startMagnetometerCalibration() {
+        sensorRepository.restartMagnetometerCalibration();
+    }
+
+    /**
+     * 当前方向源是否使用原始磁力计(硬件旋转矢量方向源由系统自动校准磁力计)
+     */
+    public boolean requiresRawSensors() {
+        return sensorRepository.requiresRawSensors();
+    }
+
+    /**
+     * 磁力计是否已校准
+     */
+    public boolean isMagnetometerCalibrated() {
+        return sensorRepository.isMagnetometerCalibrated();
+    }
+
+    /**
+     * 磁力计校正参数版本号，每次得到或恢复参数时加一
+     */
+    public int getMagnetometerCalibrationVersion() {
+        return sensorRepository.getMagnetometerCalibrationVersion();
+    }
+
+    /**
+     * 获取磁力计校正参数
+     */
+    public double[] getMagnetometerCalibration() {
+        return sensorRepository.getMagnetometerCalibration();
+    }
+
+    /**
+     * 恢复磁力计校正参数
+     */
+    public void restoreMagnetometerCalibration(double[] calibration) {
+        sensorRepository.restoreMagnetometerCalibration(calibration);
+    }
+
     /**
      * 获取当前步长的LiveData
      */
@@ -227,6 +307,14 @@ public class MeasureViewModel extends ViewModel {
         return locationRepository.getRawTrajectoryPoints();
     }
 
+    public LiveData<LocationRepository.Snapshot> getTrajectorySnapshot() {
+        return locationRepository.getTrajectorySnapshot();
+    }
+
+    public LiveData<Double> getTrajectoryLength() {
+        return locationRepository.getTrajectoryLength();
+    }
+
     public LiveData<Double> getMeasuredArea() {
         return measuredArea;
     }
@@ -264,5 +352,6 @@ public class MeasureViewModel extends ViewModel {
         super.onCleared();
         // 移除永久观察者
         locationRepository.getLocatingMode().removeObserver(mode -> {});
+        sensorRepository.setStepEventListener(null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package com.dylanlxlx.instameasure.data.repository;
+
+import androidx.arch.core.executor.ArchTaskExecutor;
+import androidx.arch.core.executor.TaskExecutor;
+
+import com.dylanlxlx.instameasure.model.GpsData;
+import com.dylanlxlx.instameasure.model.TrajectoryPoint;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * GPS存储库的并发测试
+ * 多个生产者线程同时提交定位，最终快照必须包含全部的轨迹点且每个生产者的定位保持提交顺序，
+ * 快照中的位置与最后一个轨迹点一致。
+ */
+public class GpsRepositoryTest {
+    private static final int PRODUCERS = 4;
+    private static final int FIXES_PER_PRODUCER = 2000;
+    private static final double PRODUCER_SPACING = 10000.0;
+
+    static {
+        // JVM测试没有主线程Looper，LiveData的postValue直接执行
+        ArchTaskExecutor.getInstance().setDelegate(new TaskExecutor() {
+            @Override
+            public void executeOnDiskIO(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public void postToMainThread(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public boolean isMainThread() {
+                return true;
+            }
+        });
+    }
+
+    private static GpsData fix(int producer, int index) {
+        return new GpsData(30 + producer, 120 + index * 1e-5, 0, 5f, 1f, 90f,
+                index, 8, producer * PRODUCER_SPACING + index, index);
+    }
+
+    @Test
+    public void fixesFromManyProducers_areAllAppliedInOrder() throws Exception {
+        GpsRepository repository = GpsRepository.getInstance();
+        repository.clearGpsTrajectoryPoints();
+        assertTrue(repository.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(0, repository.getSnapshot().getPoints().size());
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            producers[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < FIXES_PER_PRODUCER; i++) {
+                    repository.updateGpsData(fix(producer, i));
+                }
+            });
+            producers[p].start();
+        }
+        // 定位丢失与定位交错到达
+        Thread unavailable = new Thread(() -> {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int i = 0; i < FIXES_PER_PRODUCER; i++) {
+                repository.setGpsUnavailable();
+            }
+        });
+        unavailable.start();
+
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        unavailable.join();
+        assertTrue(repository.awaitIdle(30, TimeUnit.SECONDS));
+
+        GpsRepository.Snapshot snapshot = repository.getSnapshot();
+        List<TrajectoryPoint> points = snapshot.getPoints();
+        assertEquals(PRODUCERS * FIXES_PER_PRODUCER, points.size());
+
+        int[] next = new int[PRODUCERS];
+        for (TrajectoryPoint point : points) {
+            int producer = (int) Math.round(point.getX() / PRODUCER_SPACING);
+            assertEquals("producer " + producer + " reordered", next[producer], point.getY(), 1e-9);
+            next[producer]++;
+        }
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertEquals(FIXES_PER_PRODUCER, next[p]);
+        }
+
+        // 快照和LiveData都来自最后执行的定位
+        TrajectoryPoint last = points.get(points.size() - 1);
+        assertEquals(last.getX(), snapshot.getLocalX(), 1e-9);
+        assertEquals(last.getY(), snapshot.getLocalY(), 1e-9);
+        GpsData current = repository.getCurrentGpsData().getValue();
+        assertEquals(last.getX(), current.getLocalX(), 1e-9);
+        assertEquals(current.getLatitude(), snapshot.getLatitude(), 1e-9);
+        assertEquals(current.getLongitude(), snapshot.getLongitude(), 1e-9);
+    }
+
+    @Test
+    public void unavailableAfterLastFix_isFinalState() throws Exception {
+        GpsRepository repository = GpsRepository.getInstance();
+        repository.clearGpsTrajectoryPoints();
+        repository.updateGpsData(fix(0, 1));
+        Thread lost = new Thread(repository::setGpsUnavailable);
+        lost.start();
+        lost.join();
+        assertTrue(repository.awaitIdle(5, TimeUnit.SECONDS));
+
+        assertFalse(repository.isGpsAvailable().getValue());
+        assertEquals(1, repository.getSnapshot().getPoints().size());
+        assertEquals(1, repository.getSnapshot().getLocalX(), 1e-9);
+    }
+}
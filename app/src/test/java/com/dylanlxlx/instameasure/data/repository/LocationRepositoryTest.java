@@ -0,0 +1,156 @@
+package com.dylanlxlx.instameasure.data.repository;
+
+import androidx.arch.core.executor.ArchTaskExecutor;
+import androidx.arch.core.executor.TaskExecutor;
+
+import com.dylanlxlx.instameasure.model.TrajectoryPoint;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 位置存储库的并发测试
+ * 多个生产者线程同时添加轨迹点，最终快照必须包含全部的点，每个生产者的点保持提交顺序，
+ * 轨迹长度与按最终顺序重新计算的长度一致；读取线程看到的快照必须始终自洽。
+ */
+public class LocationRepositoryTest {
+    private static final int PRODUCERS = 4;
+    private static final int POINTS_PER_PRODUCER = 500;
+    private static final double PRODUCER_SPACING = 1000.0;
+
+    static {
+        // JVM测试没有主线程Looper，LiveData的postValue直接执行
+        ArchTaskExecutor.getInstance().setDelegate(new TaskExecutor() {
+            @Override
+            public void executeOnDiskIO(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public void postToMainThread(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public boolean isMainThread() {
+                return true;
+            }
+        });
+    }
+
+    @Test
+    public void pointsFromManyProducers_areAllPublishedInOrder() throws Exception {
+        LocationRepository repository = LocationRepository.getInstance();
+        repository.clearTrajectoryPoints();
+        assertTrue(repository.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(0, repository.getSnapshot().getPoints().size());
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            producers[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // 每个生产者在自己的区域内行走，相邻点相距超过最小间隔
+                for (int i = 0; i < POINTS_PER_PRODUCER; i++) {
+                    repository.addTrajectoryPoint(producer * PRODUCER_SPACING + i, i);
+                }
+            });
+            producers[p].start();
+        }
+
+        // 读取线程持续检查快照：点数只增不减，长度与点数同步
+        AtomicBoolean reading = new AtomicBoolean(true);
+        AtomicReference<String> readError = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            int lastSize = 0;
+            while (reading.get()) {
+                LocationRepository.Snapshot snapshot = repository.getSnapshot();
+                int size = snapshot.getPoints().size();
+                if (size < lastSize) {
+                    readError.set("snapshot went backwards: " + size + " < " + lastSize);
+                    return;
+                }
+                if (size <= 1 && snapshot.getLength() != 0) {
+                    readError.set("length " + snapshot.getLength() + " without a segment");
+                    return;
+                }
+                lastSize = size;
+            }
+        });
+        reader.start();
+
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(repository.awaitIdle(30, TimeUnit.SECONDS));
+        reading.set(false);
+        reader.join();
+        assertNull(readError.get());
+
+        LocationRepository.Snapshot snapshot = repository.getSnapshot();
+        List<TrajectoryPoint> points = snapshot.getPoints();
+        assertEquals(PRODUCERS * POINTS_PER_PRODUCER, points.size());
+
+        int[] next = new int[PRODUCERS];
+        double length = 0;
+        for (int k = 0; k < points.size(); k++) {
+            TrajectoryPoint point = points.get(k);
+            int producer = (int) Math.round(point.getX() / PRODUCER_SPACING);
+            assertEquals("producer " + producer + " reordered", next[producer], point.getY(), 1e-9);
+            next[producer]++;
+            if (k > 0) {
+                TrajectoryPoint previous = points.get(k - 1);
+                length += Math.hypot(point.getX() - previous.getX(), point.getY() - previous.getY());
+            }
+        }
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertEquals(POINTS_PER_PRODUCER, next[p]);
+        }
+        assertEquals(length, snapshot.getLength(), 1e-6);
+
+        // 当前位置是最后执行的命令
+        TrajectoryPoint last = points.get(points.size() - 1);
+        assertEquals(last.getX(), snapshot.getX(), 1e-9);
+        assertEquals(last.getY(), snapshot.getY(), 1e-9);
+    }
+
+    @Test
+    public void clearFromAnotherThread_resetsPublishedTrajectory() throws Exception {
+        LocationRepository repository = LocationRepository.getInstance();
+        repository.clearTrajectoryPoints();
+        for (int i = 0; i < 20; i++) {
+            repository.addTrajectoryPoint(i, 0);
+        }
+        assertTrue(repository.awaitIdle(5, TimeUnit.SECONDS));
+        int generation = repository.getSnapshot().getGeneration();
+
+        Thread clearer = new Thread(repository::clearTrajectoryPoints);
+        clearer.start();
+        clearer.join();
+        repository.addTrajectoryPoint(5, 5);
+        assertTrue(repository.awaitIdle(5, TimeUnit.SECONDS));
+
+        // 清除之后只剩下最后一个点，代数变化告诉增量消费者需要重建
+        LocationRepository.Snapshot snapshot = repository.getSnapshot();
+        assertEquals(generation + 1, snapshot.getGeneration());
+        assertEquals(1, snapshot.getPoints().size());
+        assertEquals(0, snapshot.getLength(), 1e-9);
+        assertEquals(5, snapshot.getX(), 1e-9);
+        assertEquals("PDR", snapshot.getMode());
+    }
+}
@@ -0,0 +1,116 @@
+package com.dylanlxlx.instameasure.data.repository;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 单写者执行器的并发测试
+ * 多个生产者线程同时提交命令，写线程上的普通(无锁)状态必须与串行执行的结果一致，
+ * 读取线程看到的快照必须始终自洽。
+ */
+public class RepositoryActorTest {
+    private static final int PRODUCERS = 8;
+    private static final int COMMANDS_PER_PRODUCER = 50_000;
+
+    /**
+     * 写线程上的状态和发布的不可变快照
+     */
+    private static final class Counter {
+        final RepositoryActor actor = new RepositoryActor("TestActor");
+        final int[] lastSequence = new int[PRODUCERS];
+        long count;
+        long sum;
+        boolean outOfOrder;
+        volatile long[] snapshot = {0, 0};
+
+        void add(int producer, int sequence) {
+            actor.tell(() -> {
+                if (sequence != lastSequence[producer] + 1) {
+                    outOfOrder = true;
+                }
+                lastSequence[producer] = sequence;
+                count++;
+                sum += sequence;
+                snapshot = new long[]{count, sum};
+            });
+        }
+    }
+
+    @Test
+    public void commandsFromManyProducers_areAppliedExactlyOnceInOrder() throws Exception {
+        Counter counter = new Counter();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            producers[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 1; i <= COMMANDS_PER_PRODUCER; i++) {
+                    counter.add(producer, i);
+                }
+            });
+            producers[p].start();
+        }
+
+        // 读取线程持续检查快照：计数只增不减
+        AtomicBoolean reading = new AtomicBoolean(true);
+        AtomicReference<String> readError = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            long lastCount = 0;
+            while (reading.get()) {
+                long[] snapshot = counter.snapshot;
+                if (snapshot[0] < lastCount) {
+                    readError.set("snapshot went backwards: " + snapshot[0] + " < " + lastCount);
+                    return;
+                }
+                lastCount = snapshot[0];
+            }
+        });
+        reader.start();
+
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(counter.actor.awaitIdle(30, TimeUnit.SECONDS));
+        reading.set(false);
+        reader.join();
+
+        // awaitIdle 返回后写线程上的修改对当前线程可见
+        long total = (long) PRODUCERS * COMMANDS_PER_PRODUCER;
+        long perProducerSum = (long) COMMANDS_PER_PRODUCER * (COMMANDS_PER_PRODUCER + 1) / 2;
+        assertEquals(total, counter.count);
+        assertEquals(PRODUCERS * perProducerSum, counter.sum);
+        assertEquals(total, counter.snapshot[0]);
+        assertFalse("commands from one producer were reordered", counter.outOfOrder);
+        assertNull(readError.get());
+    }
+
+    @Test
+    public void awaitIdleFromActorThread_returnsImmediately() throws Exception {
+        RepositoryActor actor = new RepositoryActor("TestActor");
+        AtomicReference<Boolean> result = new AtomicReference<>();
+        actor.tell(() -> {
+            try {
+                result.set(actor.awaitIdle(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                result.set(false);
+            }
+        });
+        assertTrue(actor.awaitIdle(5, TimeUnit.SECONDS));
+        assertTrue(result.get());
+    }
+}
@@ -0,0 +1,184 @@
+package com.dylanlxlx.instameasure.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 四元数AHRS滤波器测试
+ * 由已知姿态合成加速度计和磁力计读数(设备坐标系)，检查收敛、零偏估计、磁场干扰拒绝、GPS航向校准，
+ * 以及降频修正与全速率修正得到相同的姿态。
+ */
+public class AhrsFilterTest {
+    private static final float GRAVITY = 9.81f;
+    private static final float FIELD_HORIZONTAL = 30f;  // 地磁水平分量(微特斯拉)
+    private static final float FIELD_VERTICAL = 40f;    // 地磁垂直分量(微特斯拉，向下)
+    private static final long PERIOD_MS = 20;           // 50Hz
+
+    private final float[] accel = new float[3];
+    private final float[] mag = new float[3];
+    private final float[] gyro = new float[3];
+
+    /**
+     * 合成设备在给定姿态下的读数
+     * @param azimuth 方位角(度，设备Y轴的水平投影，0=北，90=东)
+     * @param pitch 绕设备X轴的倾斜(度)
+     * @param fieldScale 磁场强度倍数
+     * @param fieldRotation 磁场水平方向的偏转(度，模拟干扰源)
+     */
+    private void synthesize(float azimuth, float pitch, float fieldScale, float fieldRotation) {
+        // 设备->世界(东-北-天)的旋转 R = Rz(-azimuth) * Rx(pitch)，设备读数为 R' * 世界向量
+        double psi = Math.toRadians(-azimuth);
+        double theta = Math.toRadians(pitch);
+        double cz = Math.cos(psi), sz = Math.sin(psi);
+        double cx = Math.cos(theta), sx = Math.sin(theta);
+        double[][] r = {
+                {cz, -sz * cx, sz * sx},
+                {sz, cz * cx, -cz * sx},
+                {0, sx, cx}
+        };
+
+        toDevice(r, 0, 0, GRAVITY, accel);
+
+        double rotation = Math.toRadians(fieldRotation);
+        double east = fieldScale * FIELD_HORIZONTAL * Math.sin(rotation);
+        double north = fieldScale * FIELD_HORIZONTAL * Math.cos(rotation);
+        toDevice(r, east, north, -fieldScale * FIELD_VERTICAL, mag);
+    }
+
+    private static void toDevice(double[][] r, double x, double y, double z, float[] out) {
+        for (int i = 0; i < 3; i++) {
+            out[i] = (float) (r[0][i] * x + r[1][i] * y + r[2][i] * z);
+        }
+    }
+
+    /**
+     * 运行若干秒，每个样本都执行预测和修正
+     * @return 结束时的时间戳
+     */
+    private long run(AhrsFilter filter, long timestamp, float seconds) {
+        int samples = (int) (seconds * 1000 / PERIOD_MS);
+        for (int i = 0; i < samples; i++) {
+            timestamp += PERIOD_MS;
+            filter.calculateAzimuth(accel, mag, gyro, timestamp);
+        }
+        return timestamp;
+    }
+
+    private static float angleDifference(float a, float b) {
+        float diff = (a - b) % 360f;
+        if (diff > 180f) diff -= 360f;
+        if (diff < -180f) diff += 360f;
+        return diff;
+    }
+
+    @Test
+    public void tiltedStaticDevice_convergesToKnownAzimuth() {
+        AhrsFilter filter = new AhrsFilter();
+
+        // 第一次修正由加速度计和磁力计直接对准
+        synthesize(60f, 25f, 1f, 0f);
+        long timestamp = run(filter, 0, 0.1f);
+        assertEquals(0f, angleDifference(filter.getAzimuth(), 60f), 0.5f);
+
+        // 设备转到新方位(陀螺仪没有读数)，比例反馈逐渐把航向拉过去
+        synthesize(100f, 25f, 1f, 0f);
+        run(filter, timestamp, 15f);
+        assertEquals(0f, angleDifference(filter.getAzimuth(), 100f), 1f);
+    }
+
+    @Test
+    public void constantGyroOffset_isEstimatedAsBias() {
+        AhrsFilter filter = new AhrsFilter();
+        synthesize(200f, -15f, 1f, 0f);
+        gyro[0] = 0.01f;
+        gyro[1] = -0.02f;
+        gyro[2] = 0.015f;
+
+        run(filter, 0, 30f);
+
+        float[] bias = new float[3];
+        filter.getGyroBias(bias);
+        assertEquals(0.01f, bias[0], 0.002f);
+        assertEquals(-0.02f, bias[1], 0.002f);
+        assertEquals(0.015f, bias[2], 0.002f);
+        assertEquals(0f, angleDifference(filter.getAzimuth(), 200f), 1f);
+    }
+
+    @Test
+    public void magneticDisturbance_isRejected() {
+        AhrsFilter filter = new AhrsFilter();
+        synthesize(45f, 10f, 1f, 0f);
+        long timestamp = run(filter, 0, 5f);
+        assertFalse(filter.isMagneticDisturbance());
+
+        // 附近的铁磁物体使磁场变强并偏转40度
+        synthesize(45f, 10f, 1.5f, 40f);
+        timestamp = run(filter, timestamp, 5f);
+        assertTrue(filter.isMagneticDisturbance());
+        assertEquals(0f, angleDifference(filter.getAzimuth(), 45f), 1f);
+
+        // 干扰消失后恢复使用磁力计
+        synthesize(45f, 10f, 1f, 0f);
+        run(filter, timestamp, 1f);
+        assertFalse(filter.isMagneticDisturbance());
+    }
+
+    @Test
+    public void gpsBearing_correctsYawPartially() {
+        AhrsFilter filter = new AhrsFilter();
+        synthesize(30f, 0f, 1f, 0f);
+        run(filter, 0, 1f);
+
+        // 每次校准30%的差值
+        filter.calibrateWithGps(40f);
+        assertEquals(33f, filter.getAzimuth(), 0.2f);
+
+        // 差值超过45度的方位被忽略
+        filter.calibrateWithGps(120f);
+        assertEquals(33f, filter.getAzimuth(), 0.2f);
+
+        // 跨过0度的校准走最短方向
+        AhrsFilter wrapped = new AhrsFilter();
+        synthesize(350f, 0f, 1f, 0f);
+        run(wrapped, 0, 1f);
+        wrapped.calibrateWithGps(10f);
+        assertEquals(0f, angleDifference(wrapped.getAzimuth(), 356f), 0.2f);
+    }
+
+    @Test
+    public void decimatedCorrection_matchesFullRateAttitude() {
+        AhrsFilter fullRate = new AhrsFilter();
+        AhrsFilter decimated = new AhrsFilter();
+        synthesize(120f, 20f, 1f, 0f);
+        gyro[0] = 0.01f;
+        gyro[1] = 0.02f;
+        gyro[2] = -0.01f;
+
+        // 全速率预测，一个每个样本都修正，另一个每5个样本修正一次
+        long timestamp = 0;
+        for (int i = 0; i < 1500; i++) {
+            timestamp += PERIOD_MS;
+            fullRate.predict(gyro, timestamp);
+            fullRate.correct(accel, mag, timestamp);
+            decimated.predict(gyro, timestamp);
+            if (i % 5 == 0) decimated.correct(accel, mag, timestamp);
+        }
+
+        assertEquals(0f, angleDifference(fullRate.getAzimuth(), 120f), 1f);
+        assertEquals(0f, angleDifference(decimated.getAzimuth(), fullRate.getAzimuth()), 1f);
+
+        float[] expected = new float[4];
+        float[] actual = new float[4];
+        fullRate.getQuaternion(expected);
+        decimated.getQuaternion(actual);
+        // q 与 -q 表示同一姿态
+        float dot = 0;
+        for (int i = 0; i < 4; i++) {
+            dot += expected[i] * actual[i];
+        }
+        assertEquals(1f, Math.abs(dot), 1e-3f);
+    }
+}
@@ -0,0 +1,61 @@
+package com.dylanlxlx.instameasure.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * GPS定位请求间隔调度测试
+ * 检查开始时已静止、行走后静止两种情况下的暂停，以及走动后恢复最快间隔。
+ */
+public class GpsUpdateSchedulerTest {
+    private static final long START_MS = 100_000;
+
+    @Test
+    public void stillAtStart_pausesAfterTimeout() {
+        GpsUpdateScheduler scheduler = new GpsUpdateScheduler();
+        scheduler.reset(START_MS, true);
+        assertEquals(1000, scheduler.getIntervalMs());
+
+        // 静止不足15秒时继续定位
+        assertFalse(scheduler.update(START_MS + 14_000, 0, 0));
+        assertEquals(1000, scheduler.getIntervalMs());
+
+        // 行走状态没有变化也会暂停
+        assertTrue(scheduler.update(START_MS + 15_000, 0, 0));
+        assertEquals(GpsUpdateScheduler.PAUSED, scheduler.getIntervalMs());
+
+        // 开始走动立即恢复最快间隔
+        scheduler.setStill(false, START_MS + 20_000);
+        assertTrue(scheduler.update(START_MS + 20_000, 1.2, 0));
+        assertEquals(1000, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void walkingAtStart_pausesOnlyAfterBecomingStill() {
+        GpsUpdateScheduler scheduler = new GpsUpdateScheduler();
+        scheduler.reset(START_MS, false);
+
+        assertFalse(scheduler.update(START_MS + 30_000, 1.2, 0));
+        assertEquals(1000, scheduler.getIntervalMs());
+
+        scheduler.setStill(true, START_MS + 30_000);
+        assertFalse(scheduler.update(START_MS + 40_000, 0, 0));
+        assertTrue(scheduler.update(START_MS + 45_000, 0, 0));
+        assertEquals(GpsUpdateScheduler.PAUSED, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void newSession_clearsStillTimer() {
+        GpsUpdateScheduler scheduler = new GpsUpdateScheduler();
+        scheduler.reset(START_MS, true);
+        scheduler.stop(START_MS + 10_000);
+
+        // 新会话开始时在走动，之前的静止计时不再有效
+        scheduler.reset(START_MS + 60_000, false);
+        assertFalse(scheduler.update(START_MS + 80_000, 1.2, 0));
+        assertEquals(1000, scheduler.getIntervalMs());
+    }
+}